@@ -0,0 +1,119 @@
+package concurrentcube;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Acquires the `ProcessManager`'s semaphores as the cube's `CubeOptions.WaitStrategy` says.
+ *
+ * The adaptive strategy spins for a number of iterations calibrated on recent waits:
+ * a wait that ended while spinning moves the limit towards twice the average successful spin,
+ * a wait that had to park halves it. After spinning the thread yields a few times and then parks.
+ * On a single processor the holder can't make progress while the waiter spins,
+ * so there the adaptive strategy parks right away.
+ * The busy-spinning strategy yields now and then, so it degrades gracefully when threads outnumber cores.
+ * The calibration is shared by all semaphores of a cube and updated without synchronization -
+ * a lost update only makes one wait slightly less well tuned.
+ */
+class Acquirer {
+    private static final int MIN_SPINS = 16;
+    private static final int MAX_SPINS = 1 << 14;
+    private static final int YIELDS = 4;
+    private static final int SPINS_PER_YIELD = 1 << 10;
+    private static final boolean MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+
+    private final CubeOptions.WaitStrategy strategy;
+
+    /* Calibration of the adaptive strategy */
+    private int spinLimit = MAX_SPINS / 16;
+    private int averageSpins = MAX_SPINS / 32;
+
+    Acquirer(CubeOptions.WaitStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    void acquire(Semaphore semaphore) throws InterruptedException {
+        acquire(semaphore, 1);
+    }
+
+    /**
+     * Acquires `permits` permits of `semaphore` at once (see `ProcessManager.PLANE_PERMITS`).
+     */
+    void acquire(Semaphore semaphore, int permits) throws InterruptedException {
+        switch (strategy) {
+            case BLOCKING:
+                semaphore.acquire(permits);
+                break;
+            case BUSY_SPIN:
+                for (int spins = 1; !semaphore.tryAcquire(permits); spins++) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    backOff(spins);
+                }
+                break;
+            default:
+                if (!spin(semaphore, permits)) {
+                    semaphore.acquire(permits);
+                }
+        }
+    }
+
+    void acquireUninterruptibly(Semaphore semaphore) {
+        switch (strategy) {
+            case BLOCKING:
+                semaphore.acquireUninterruptibly();
+                break;
+            case BUSY_SPIN:
+                for (int spins = 1; !semaphore.tryAcquire(); spins++) {
+                    backOff(spins);
+                }
+                break;
+            default:
+                if (!spin(semaphore, 1)) {
+                    semaphore.acquireUninterruptibly();
+                }
+        }
+    }
+
+    private static void backOff(int spins) {
+        if (spins % SPINS_PER_YIELD == 0) {
+            Thread.yield();
+        } else {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Tries to acquire `permits` permits of `semaphore` without parking.
+     * @return whether the permits were acquired
+     */
+    private boolean spin(Semaphore semaphore, int permits) {
+        if (semaphore.tryAcquire(permits)) {
+            return true;
+        }
+        if (!MULTIPROCESSOR) {
+            return false;
+        }
+
+        int limit = spinLimit;
+        for (int spins = 1; spins <= limit; spins++) {
+            Thread.onSpinWait();
+            if (semaphore.tryAcquire(permits)) {
+                int average = (3 * averageSpins + spins) / 4;
+                averageSpins = average;
+                spinLimit = Math.max(MIN_SPINS, Math.min(MAX_SPINS, 2 * average));
+                return true;
+            }
+        }
+        for (int i = 0; i < YIELDS; i++) {
+            Thread.yield();
+            if (semaphore.tryAcquire(permits)) {
+                return true;
+            }
+        }
+
+        spinLimit = Math.max(MIN_SPINS, limit / 2);
+        return false;
+    }
+
+}
@@ -0,0 +1,300 @@
+package concurrentcube;
+
+import concurrentcube.Rotations.Rotation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Squares of a cube of size up to `MAX_SIZE`, packed into `long`s - one word per axis, holding its two opposite sides
+ * (`Top`, `Left` or `Front` in the low bits, its opposite above it), 3 bits per square.
+ * The squares of a side are stored in clockwise order around it, starting from the top left corner,
+ * with the centre of a 3x3 side last (bits 24-26 of the side).
+ *
+ * Every rotation (side, layer, quarter turns) is precomputed as a bit shuffle: a mask of the squares it changes
+ * in every word, and a few (source word, mask, shift, target word) moves, each carrying all the squares
+ * that move between the same two words by the same distance. Rotating is then a handful of ANDs, shifts and ORs,
+ * without touching any `Color`. Shuffles are derived from `Rotation.permutation` once per size and shared by all cubes.
+ *
+ * Thanks to the clockwise order, the edge of a side is a contiguous block of bits (or two, when it wraps around bit 0),
+ * and a side and its neighbours' edges all run the same way - so a turned side is shifted by one edge,
+ * and every strip of a ring is carried by one or two moves. A quarter turn of an outer 3x3 layer takes 5 to 8 moves.
+ *
+ * Rotations of one axis run in parallel on distinct planes but share words. A rotation first gathers the squares
+ * of its plane, which no other running rotation touches, from all words, and then replaces only the bits
+ * of those squares in every word it changes with a compare-and-set - retried if a rotation of another plane
+ * changed the word meanwhile. So rotations never wait for each other, as with arrays. Pairing opposite sides
+ * keeps that to two compare-and-sets for the ring (the words of the other two axes) and one for a turned face.
+ * Densely stored cubes of size up to `MAX_SIZE` are always kept in a bitboard (see `CubeOptions.Storage.DENSE`).
+ */
+public final class BitboardSquares {
+    public static final int MAX_SIZE = 3;
+    private static final int BITS_PER_SQUARE = 3;
+    private static final long SQUARE_MASK = (1L << BITS_PER_SQUARE) - 1;
+    private static final int WORDS = WorkingGroup.NUM_AXES.intValue();
+
+    /* Word holding each side - the number of its axis */
+    private static final int[] WORD = new int[Side.SIDES.intValue()];
+
+    static {
+        for (int side = 0; side < WORD.length; side++) {
+            WORD[side] = WorkingGroup.fromSide(Side.fromInt(side)).intValue();
+        }
+    }
+
+    /* Positions of the squares of a side (indexed `row * size + col`) in the clockwise order, for every size */
+    private static final int[][] CLOCKWISE = {
+            {},
+            { 0 },
+            { 0, 1, 3, 2 },
+            { 0, 1, 2, 7, 8, 3, 6, 5, 4 }
+    };
+
+    /**
+     * Precomputed bit shuffle of one rotation.
+     */
+    private static final class Shuffle {
+        /* Bits of the squares that get a new color, for every word */
+        private final long[] changed;
+        /* Moves - squares of word `sources[k]` selected by `masks[k]`, shifted left by `shifts[k]` into word `targets[k]` */
+        private final int[] sources;
+        private final long[] masks;
+        private final int[] shifts;
+        private final int[] targets;
+
+        private Shuffle(int[] permutation, int size) {
+            int area = size * size;
+            long[] keep = new long[WORDS];
+            Map<Long, long[]> moves = new LinkedHashMap<>();
+            for (int i = 0; i < permutation.length; i++) {
+                int from = permutation[i];
+                if (from == i) {
+                    keep[word(size, i)] |= SQUARE_MASK << offset(size, i);
+                }
+                else {
+                    long key = ((long) word(size, from) << 40) | ((long) word(size, i) << 32)
+                            | ((offset(size, i) - offset(size, from)) & 0xFFFFFFFFL);
+                    moves.computeIfAbsent(key, k -> new long[1])[0] |= SQUARE_MASK << offset(size, from);
+                }
+            }
+
+            changed = new long[keep.length];
+            for (int w = 0; w < keep.length; w++) {
+                changed[w] = ~keep[w] & ((1L << 2 * area * BITS_PER_SQUARE) - 1);
+            }
+
+            sources = new int[moves.size()];
+            masks = new long[moves.size()];
+            shifts = new int[moves.size()];
+            targets = new int[moves.size()];
+            int k = 0;
+            for (Map.Entry<Long, long[]> move : moves.entrySet()) {
+                sources[k] = (int) (move.getKey() >>> 40);
+                targets[k] = (int) ((move.getKey() >>> 32) & 0xFF);
+                shifts[k] = (int) (long) move.getKey();
+                masks[k] = move.getValue()[0];
+                k++;
+            }
+        }
+    }
+
+    /* Shuffles indexed [size][side][layer][quarterTurns - 1], computed on first use of a size */
+    private static final Shuffle[][][][] shuffles = new Shuffle[MAX_SIZE + 1][][][];
+
+    private final int size;
+    private final int area;
+    private final Shuffle[][][] cubeShuffles;
+    private final long[] solved;
+    private final AtomicLongArray words;
+
+    /**
+     * @param cube : cube stored in the words, of size at most `MAX_SIZE`
+     */
+    BitboardSquares(Cube cube) {
+        assert(cube.getSize() <= MAX_SIZE);
+        this.size = cube.getSize();
+        this.area = size * size;
+        this.cubeShuffles = shufflesFor(cube);
+        this.solved = new long[WORDS];
+        for (int i = 0; i < Side.SIDES.intValue() * area; i++) {
+            solved[word(size, i)] |= (long) (i / area) << offset(size, i);
+        }
+        this.words = new AtomicLongArray(solved);
+    }
+
+    private static synchronized Shuffle[][][] shufflesFor(Cube cube) {
+        int size = cube.getSize();
+        if (shuffles[size] == null) {
+            Shuffle[][][] sizeShuffles = new Shuffle[Side.SIDES.intValue()][size][3];
+            for (int side = 0; side < Side.SIDES.intValue(); side++) {
+                for (int layer = 0; layer < size; layer++) {
+                    int[] quarter = Rotation.newRotation(cube, Side.fromInt(side), layer).permutation();
+                    int[] permutation = quarter.clone();
+                    for (int quarterTurns = 1; quarterTurns <= 3; quarterTurns++) {
+                        sizeShuffles[side][layer][quarterTurns - 1] = new Shuffle(permutation, size);
+                        int[] longer = new int[permutation.length];
+                        for (int i = 0; i < longer.length; i++) {
+                            longer[i] = quarter[permutation[i]];
+                        }
+                        permutation = longer;
+                    }
+                }
+            }
+            shuffles[size] = sizeShuffles;
+        }
+        return shuffles[size];
+    }
+
+    /**
+     * @param size : size of the cube
+     * @param square : position of a square, `side * size * size + row * size + col`
+     * @return position of the square's lowest bit in its word
+     */
+    private static int offset(int size, int square) {
+        int area = size * size;
+        int side = square / area;
+        return (CLOCKWISE[size][square % area] + (WORD[side] == side ? 0 : area)) * BITS_PER_SQUARE;
+    }
+
+    /**
+     * @param size : size of the cube
+     * @param square : position of a square, `side * size * size + row * size + col`
+     * @return word holding the square
+     */
+    private static int word(int size, int square) {
+        return WORD[square / (size * size)];
+    }
+
+    /**
+     * Turns a layer clockwise by `quarterTurns` right angles.
+     * @param side : side of the rotation
+     * @param layer : layer of the rotation
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    public void rotate(int side, int layer, int quarterTurns) {
+        Shuffle shuffle = cubeShuffles[side][layer][quarterTurns - 1];
+        // the squares are gathered from the words as they were before writing any of them,
+        // kept in locals (one per axis) rather than an array allocated by every rotation
+        long old0 = words.get(0);
+        long old1 = words.get(1);
+        long old2 = words.get(2);
+        long next0 = 0;
+        long next1 = 0;
+        long next2 = 0;
+        for (int k = 0; k < shuffle.sources.length; k++) {
+            int source = shuffle.sources[k];
+            long moved = (source == 0 ? old0 : source == 1 ? old1 : old2) & shuffle.masks[k];
+            int shift = shuffle.shifts[k];
+            moved = shift >= 0 ? moved << shift : moved >>> -shift;
+            int target = shuffle.targets[k];
+            if (target == 0) {
+                next0 |= moved;
+            } else if (target == 1) {
+                next1 |= moved;
+            } else {
+                next2 |= moved;
+            }
+        }
+        if (shuffle.changed[0] != 0) {
+            replace(0, shuffle.changed[0], next0);
+        }
+        if (shuffle.changed[1] != 0) {
+            replace(1, shuffle.changed[1], next1);
+        }
+        if (shuffle.changed[2] != 0) {
+            replace(2, shuffle.changed[2], next2);
+        }
+    }
+
+    /**
+     * Replaces the bits of `word` selected by `mask` with `bits`, leaving the others as they are.
+     */
+    private void replace(int word, long mask, long bits) {
+        long current;
+        do {
+            current = words.get(word);
+        } while (!words.compareAndSet(word, current, (current & ~mask) | bits));
+    }
+
+    /**
+     * @param side : side of the square
+     * @param index : position of the square in its side, `row * size + col`
+     * @return color of the square
+     */
+    public Color get(int side, int index) {
+        return Color.fromInt((int) ((words.get(WORD[side]) >>> offset(size, side * area + index)) & SQUARE_MASK));
+    }
+
+    /**
+     * @param side : side of the square
+     * @param index : position of the square in its side, `row * size + col`
+     * @param color : new color of the square
+     */
+    public void set(int side, int index, Color color) {
+        int offset = offset(size, side * area + index);
+        replace(WORD[side], SQUARE_MASK << offset, (long) color.intValue() << offset);
+    }
+
+    void solve() {
+        for (int w = 0; w < solved.length; w++) {
+            words.set(w, solved[w]);
+        }
+    }
+
+    boolean isSolved() {
+        for (int w = 0; w < solved.length; w++) {
+            if (words.get(w) != solved[w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return hash of the squares (see `ZobristHash`), computed from the words without copying them out
+     */
+    long hash() {
+        long hash = 0;
+        for (int side = 0; side < Side.SIDES.intValue(); side++) {
+            for (int index = 0; index < area; index++) {
+                hash ^= ZobristHash.key(side, index, get(side, index));
+            }
+        }
+        return hash;
+    }
+
+    boolean sameAs(BitboardSquares other) {
+        for (int w = 0; w < solved.length; w++) {
+            if (words.get(w) != other.words.get(w)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param side : side of the cube
+     * @return colors of the squares of `side`, indexed `row * size + col`
+     */
+    Color[] face(int side) {
+        long word = words.get(WORD[side]);
+        Color[] face = new Color[area];
+        for (int index = 0; index < area; index++) {
+            face[index] = Color.fromInt((int) ((word >>> offset(size, side * area + index)) & SQUARE_MASK));
+        }
+        return face;
+    }
+
+    /**
+     * @return colors of all squares of the cube, as `Cube.getSquares` returns them
+     */
+    Color[][] toArrays() {
+        Color[][] squares = new Color[Side.SIDES.intValue()][];
+        for (int side = 0; side < squares.length; side++) {
+            squares[side] = face(side);
+        }
+        return squares;
+    }
+
+}
@@ -0,0 +1,149 @@
+package concurrentcube;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writers of one axis admitted together by a single process,
+ * whose moves are passed at once to the cohort actions (see `CubeOptions.beforeRotationGroup`).
+ *
+ * A cohort is formed by the admitting process under the `ProcessManager`'s mutex
+ * and sealed once all of its members are counted in.
+ * Its members then wait until one of them has performed `beforeRotationGroup`,
+ * rotate concurrently, and the last one to finish performs `afterRotationGroup`.
+ */
+class Cohort {
+    private enum State { FORMING, SEALED, STARTED }
+
+    private final List<Move> moves = new ArrayList<>();
+    private final List<Move> view = Collections.unmodifiableList(moves);
+    /* Planes occupied by the members */
+    private final boolean[] planes;
+    /* Members that haven't finished rotating yet */
+    private int unfinished;
+
+    private State state = State.FORMING;
+    private boolean hookClaimed;
+
+    Cohort(int size) {
+        this.planes = new boolean[size];
+    }
+
+    /**
+     * @return whether a writer occupying `planes` would collide with a member
+     */
+    boolean collides(int[] planes, int count) {
+        for (int i = 0; i < count; i++) {
+            if (this.planes[planes[i]]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a writer to the forming cohort. Called with the manager's mutex held.
+     */
+    synchronized void join(int[] planes, int count, List<Move> moves) {
+        for (int i = 0; i < count; i++) {
+            this.planes[planes[i]] = true;
+        }
+        this.moves.addAll(moves);
+        unfinished++;
+    }
+
+    /**
+     * Closes the cohort to new members, letting its members start.
+     */
+    synchronized void seal() {
+        state = State.SEALED;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the cohort is sealed and its `before` action performed,
+     * performing the action if this member is the first to get here.
+     * The wait is uninterruptible, as the member has already been admitted - an interruption is only recorded.
+     * @param before : cohort action, may be null
+     */
+    void start(Consumer<List<Move>> before) {
+        boolean interrupted = false;
+        boolean runsHook;
+        synchronized (this) {
+            while (state == State.FORMING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            runsHook = !hookClaimed;
+            hookClaimed = true;
+        }
+
+        if (runsHook) {
+            try {
+                if (before != null) {
+                    before.accept(view);
+                }
+            } finally {
+                synchronized (this) {
+                    state = State.STARTED;
+                    notifyAll();
+                }
+            }
+        } else {
+            synchronized (this) {
+                while (state != State.STARTED) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes a member that gave up before starting (see `ProcessManager.writerWaitIfNecessary`).
+     * Its moves are withdrawn unless `before` has already been performed with them.
+     * @param moves : moves of the leaving member
+     * @param after : cohort action, performed if the member was the last one and `before` has been performed
+     */
+    void leave(List<Move> moves, Consumer<List<Move>> after) {
+        boolean last;
+        synchronized (this) {
+            if (!hookClaimed) {
+                for (Move move : moves) {
+                    this.moves.remove(move);
+                }
+            }
+            last = --unfinished == 0 && hookClaimed;
+        }
+        if (last && after != null) {
+            after.accept(view);
+        }
+    }
+
+    /**
+     * Marks a member as done rotating, performing the `after` action if it's the last one.
+     * @param after : cohort action, may be null
+     */
+    void finish(Consumer<List<Move>> after) {
+        boolean last;
+        synchronized (this) {
+            last = --unfinished == 0;
+        }
+        if (last && after != null) {
+            after.accept(view);
+        }
+    }
+
+}
@@ -1,31 +1,135 @@
 package concurrentcube;
 
+import concurrentcube.Events.RotationAdmittedEvent;
 import concurrentcube.Rotations.Rotation;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 
 public class Cube {
     private final int NUM_FACES = 6;
+    /* Shortest sequence of rotations replayed by `applySequenceOfRotations` as a composed permutation */
+    private static final int PARALLEL_REPLAY_LENGTH = 1024;
 
     private final int size;
-    private final Color[][] squares;
+    private Color[][] squares;
+    /* Differences from the solved cube while the cube is stored sparsely, null while it's stored densely */
+    private volatile SparseSquares sparse;
+    /* Layout of the faces' arrays with tiled storage, null with row-major storage */
+    private final TiledLayout layout;
+    /* Squares packed into words for small cubes with dense storage, null otherwise */
+    private final BitboardSquares bitboard;
+    /* Hash of the squares while they are stored in arrays (see `ZobristHash`), null unless rotations maintain it */
+    private final ZobristHash zobrist;
+    /* Squares off their face's color, and of every color (see `SquareCounts`) */
+    private final SquareCounts counts;
     private final BiConsumer<Integer, Integer> beforeRotation;
     private final BiConsumer<Integer, Integer> afterRotation;
     private final Runnable beforeShowing;
     private final Runnable afterShowing;
+    private final CubeOptions options;
     private final ProcessManager pm;
+    /* Rotations that may be undone (see `CubeOptions.historyCapacity`), null if the cube keeps none */
+    private final MoveHistory history;
+    /* Number of admitted writes performed so far (see `getVersion`) */
+    private final AtomicLong version = new AtomicLong();
+    /* Past states of the cube (see `CubeOptions.versionRetention`), null if it keeps none */
+    private final VersionHistory versions;
 
     public int getSize() {
         return size;
     }
+    /**
+     * @return squares of the cube, indexed `[side][row * size + col]` -
+     *         a copy while the cube is stored sparsely, tiled or in a bitboard
+     */
     public Color[][] getSquares() {
+        SparseSquares sparse = this.sparse;
+        if (sparse != null) {
+            return sparse.toArrays();
+        }
+        if (bitboard != null) {
+            return bitboard.toArrays();
+        }
+        if (layout != null) {
+            Color[][] rowMajor = new Color[NUM_FACES][];
+            for (int side = 0; side < NUM_FACES; side++) {
+                rowMajor[side] = layout.toRowMajor(squares[side]);
+            }
+            return rowMajor;
+        }
+        return squares;
+    }
+    /**
+     * @return cursor over the squares row by row, which doesn't copy the whole cube (see `SquareRows`)
+     */
+    SquareRows rows() {
+        return new SquareRows(this);
+    }
+    /**
+     * @return squares of the densely stored cube as they are stored, indexed `[side][getLayout().index(row, col)]`
+     *         for tiled storage and `[side][row * size + col]` otherwise, or null for a bitboard
+     */
+    public Color[][] getStoredSquares() {
         return squares;
     }
+    /**
+     * @return layout of the faces with tiled storage, or null with row-major storage
+     */
+    public TiledLayout getLayout() {
+        return layout;
+    }
+    /**
+     * @return squares of a small cube packed into words, or null for bigger cubes and non-dense storage
+     */
+    public BitboardSquares getBitboard() {
+        return bitboard;
+    }
+    /**
+     * @return differences of the cube from the solved cube, or null if the cube is stored densely
+     */
+    public SparseSquares getSparseSquares() {
+        return sparse;
+    }
+    public boolean isSparse() {
+        return sparse != null;
+    }
+    /**
+     * @return hash of the squares stored in arrays, updated by rotations (see `ZobristHash`),
+     *         or null without `CubeOptions.incrementalHash`
+     */
+    public ZobristHash getZobristHash() {
+        return zobrist;
+    }
+    /**
+     * @return counts of the squares, updated by rotations (see `SquareCounts`)
+     */
+    public SquareCounts getSquareCounts() {
+        return counts;
+    }
     public Color getSquareColor(Side side, int row, int col) {
-        return squares[side.intValue()][row * size + col];
+        SparseSquares sparse = this.sparse;
+        if (sparse != null) {
+            synchronized (sparse) {
+                if (!sparse.isRetired()) {
+                    return sparse.get(side.intValue(), row * size + col);
+                }
+            }
+        }
+        if (bitboard != null) {
+            return bitboard.get(side.intValue(), row * size + col);
+        }
+        return squares[side.intValue()][at(row, col)];
     }
     public BiConsumer<Integer, Integer> getBeforeRotation() {
         return beforeRotation;
@@ -39,9 +143,133 @@ public class Cube {
     public Runnable getAfterShowing() {
         return afterShowing;
     }
+    public CubeOptions getOptions() {
+        return options;
+    }
 
     public void setSquareColor(Color color, Side side, int row, int col) {
-        squares[side.intValue()][row * size + col] = color;
+        SparseSquares sparse = this.sparse;
+        if (sparse != null) {
+            synchronized (sparse) {
+                if (!sparse.isRetired()) {
+                    counts.repaintColor(sparse.get(side.intValue(), row * size + col), color);
+                    sparse.set(side.intValue(), row * size + col, color);
+                    sparse.densifyIfNeeded();
+                    return;
+                }
+            }
+        }
+        if (bitboard != null) {
+            counts.repaintColor(bitboard.get(side.intValue(), row * size + col), color);
+            bitboard.set(side.intValue(), row * size + col, color);
+            return;
+        }
+        Color[] face = squares[side.intValue()];
+        Color previous = face[at(row, col)];
+        if (zobrist != null) {
+            zobrist.update(ZobristHash.key(side.intValue(), row * size + col, color)
+                    ^ ZobristHash.key(side.intValue(), row * size + col, previous));
+        }
+        counts.repaint(side.intValue(), previous, color);
+        face[at(row, col)] = color;
+    }
+
+    /**
+     * @param position : position of a square, `side * size * size + row * size + col`
+     * @return color of the square
+     */
+    Color getSquareColor(int position) {
+        int area = size * size;
+        return getSquareColor(Side.fromInt(position / area), position % area / size, position % size);
+    }
+
+    /**
+     * @param position : position of a square, `side * size * size + row * size + col`
+     * @param color : new color of the square
+     */
+    void setSquareColor(int position, Color color) {
+        int area = size * size;
+        setSquareColor(color, Side.fromInt(position / area), position % area / size, position % size);
+    }
+
+    /**
+     * Rearranges all squares at once - the square at position `sources[i]` moves to position `i`
+     * (see `CubePermutation`). Row-major arrays are replaced by permuted copies,
+     * other storages have every square read and then written.
+     * @param sources : source of every square
+     */
+    void permute(int[] sources) {
+        int area = size * size;
+        if (sparse == null && bitboard == null && layout == null) {
+            Color[][] permuted = new Color[NUM_FACES][area];
+            for (int i = 0; i < sources.length; i++) {
+                permuted[i / area][i % area] = squares[sources[i] / area][sources[i] % area];
+            }
+            squares = permuted;
+            if (zobrist != null) {
+                zobrist.reset(permuted);
+            }
+            counts.recount(permuted);
+            return;
+        }
+        Color[] colors = new Color[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            colors[i] = getSquareColor(sources[i]);
+        }
+        for (int i = 0; i < sources.length; i++) {
+            setSquareColor(i, colors[i]);
+        }
+    }
+
+    /**
+     * @return position of the square in its face's array
+     */
+    private int at(int row, int col) {
+        return layout == null ? row * size + col : layout.index(row, col);
+    }
+
+    /**
+     * Switches the cube to dense storage, called by its retiring `SparseSquares`.
+     * @param squares : current squares of the cube
+     * @param hash : hash of the squares
+     */
+    void useDense(Color[][] squares, long hash) {
+        if (zobrist != null) {
+            zobrist.reset(hash);
+        }
+        counts.recount(squares);
+        this.squares = squares;
+        this.sparse = null;
+    }
+
+    /**
+     * @return whether `hash` takes constant time - the hash is maintained, or the squares are few
+     */
+    private boolean keepsHash() {
+        return zobrist != null || sparse != null || bitboard != null;
+    }
+
+    /**
+     * @return 64-bit hash of the squares (see `ZobristHash`), kept by every write to the squares
+     *         with `CubeOptions.incrementalHash` or sparse storage - otherwise the squares are hashed from scratch,
+     *         without storing the result, as are the few squares of a bitboard
+     */
+    private long hash() {
+        SparseSquares sparse = this.sparse;
+        if (sparse != null) {
+            synchronized (sparse) {
+                if (!sparse.isRetired()) {
+                    return sparse.hash();
+                }
+            }
+        }
+        if (bitboard != null) {
+            return bitboard.hash();
+        }
+        if (zobrist != null) {
+            return zobrist.get();
+        }
+        return ZobristHash.of(layout == null ? squares : getSquares());
     }
 
 
@@ -64,6 +292,19 @@ public class Cube {
                 BiConsumer<Integer, Integer> afterRotation,
                 Runnable beforeShowing,
                 Runnable afterShowing) {
+        this(size, beforeRotation, afterRotation, beforeShowing, afterShowing, new CubeOptions());
+    }
+
+    /**
+     * Same as above, with non-default settings.
+     * @param options : settings of the cube
+     */
+    public Cube(int size,
+                BiConsumer<Integer, Integer> beforeRotation,
+                BiConsumer<Integer, Integer> afterRotation,
+                Runnable beforeShowing,
+                Runnable afterShowing,
+                CubeOptions options) {
 
         // Cube initialization.
         assert(size > 0);
@@ -72,10 +313,21 @@ public class Cube {
         this.afterRotation = afterRotation;
         this.beforeShowing = beforeShowing;
         this.afterShowing = afterShowing;
-        this.squares = new Color[Side.SIDES.intValue()][size * size];
+        this.options = options;
+        this.layout = options.getStorage() == CubeOptions.Storage.TILED ? new TiledLayout(size) : null;
+        this.counts = new SquareCounts(size, options.getOffColorCounts(), options.getColorCounts());
+        this.zobrist = options.getIncrementalHash() ? new ZobristHash() : null;
+        this.bitboard = options.getStorage() == CubeOptions.Storage.DENSE && size <= BitboardSquares.MAX_SIZE
+                ? new BitboardSquares(this) : null;
         this.pm = new ProcessManager(this);
+        this.history = options.getHistoryCapacity() > 0 ? new MoveHistory(options.getHistoryCapacity()) : null;
+        this.versions = options.getVersionRetention() > 0
+                ? new VersionHistory(size, options.getVersionRetention(), options.getSnapshotInterval()) : null;
 
-        solve();
+        solveSquares();
+        if (versions != null) {
+            versions.rebase(0, PackedState.encode(this));
+        }
     }
 
 
@@ -88,13 +340,484 @@ public class Cube {
      */
     public void rotate(int side, int layer) throws InterruptedException {
         Rotation r = Rotation.newRotation(this, Side.fromInt(side), layer);
+        int[] planes = { r.getPlane() };
 
-        pm.entryProtocol();
-        pm.writerWaitIfNecessary(r);
-        pm.occupyPlane(r);
-        pm.inviteParallelWriters(r);
+        Cohort cohort = admitWriter(r.getAxis(), planes, 1, side, layer, moves(side, layer, 1));
         pm.writeToCube(r);
-        pm.writerExitProtocol(r);
+        record(side, layer, 1);
+        releaseWriter(r.getAxis(), planes, 1, cohort, written(side, layer, layer, 1));
+    }
+
+    /**
+     * Rotates the layer indicated by `side` and `layer` by `quarterTurns` right angles clockwise,
+     * entering the `ProcessManager` once and moving every square once.
+     * With the default `HookMode.PER_QUARTER_TURN`, `beforeRotation` and `afterRotation` are performed
+     * around every quarter turn, exactly as if `rotate(side, layer)` was called `quarterTurns` times in a row
+     * (unless both are null). With `HookMode.PER_CALL` they are performed once, around the whole rotation.
+     * @param side : rotated face
+     * @param layer : rotated layer
+     * @param quarterTurns : number of clockwise quarter turns - 1, 2 (half turn) or 3 (anti-clockwise turn)
+     */
+    public void rotate(int side, int layer, int quarterTurns) throws InterruptedException {
+        validate(side, layer);
+        validateQuarterTurns(quarterTurns);
+        Rotation r = Rotation.newRotation(this, Side.fromInt(side), layer);
+        int[] planes = { r.getPlane() };
+
+        Cohort cohort = admitWriter(r.getAxis(), planes, 1, side, layer, moves(side, layer, quarterTurns));
+        pm.writeToCube(r, quarterTurns);
+        record(side, layer, quarterTurns);
+        releaseWriter(r.getAxis(), planes, 1, cohort, written(side, layer, layer, quarterTurns));
+    }
+
+    /**
+     * Rotates layers `fromLayer` to `toLayer` (inclusive) of `side` clockwise by a right angle
+     * as one wide move - see `rotateRange(side, fromLayer, toLayer, quarterTurns)`.
+     * @param side : rotated face
+     * @param fromLayer : first rotated layer
+     * @param toLayer : last rotated layer
+     */
+    public void rotateRange(int side, int fromLayer, int toLayer) throws InterruptedException {
+        rotateRange(side, fromLayer, toLayer, 1);
+    }
+
+    /**
+     * Rotates layers `fromLayer` to `toLayer` (inclusive) of `side` clockwise by `quarterTurns` right angles.
+     * The writer enters the `ProcessManager` once and occupies all planes of the range (in ascending order),
+     * so ranges that don't overlap can still be rotated concurrently.
+     * `beforeRotation` and `afterRotation` are performed for every layer, as if each was rotated
+     * by a separate, concurrent `rotate(side, layer, quarterTurns)`.
+     * @param side : rotated face
+     * @param fromLayer : first rotated layer
+     * @param toLayer : last rotated layer
+     * @param quarterTurns : number of clockwise quarter turns - 1, 2 (half turn) or 3 (anti-clockwise turn)
+     */
+    public void rotateRange(int side, int fromLayer, int toLayer, int quarterTurns) throws InterruptedException {
+        validate(side, fromLayer);
+        validate(side, toLayer);
+        validateQuarterTurns(quarterTurns);
+        if (fromLayer > toLayer) {
+            throw new IndexOutOfBoundsException("Invalid layer.");
+        }
+
+        Rotation[] rotations = new Rotation[toLayer - fromLayer + 1];
+        int[] planes = new int[rotations.length];
+        for (int i = 0; i < rotations.length; i++) {
+            rotations[i] = Rotation.newRotation(this, Side.fromInt(side), fromLayer + i);
+            planes[i] = rotations[i].getPlane();
+        }
+        Arrays.sort(planes);
+        WorkingGroup axis = rotations[0].getAxis();
+
+        List<Move> moves = null;
+        if (pm.formsCohorts()) {
+            moves = new ArrayList<>();
+            for (int layer = fromLayer; layer <= toLayer; layer++) {
+                moves.add(new Move(side, layer, quarterTurns));
+            }
+        }
+
+        Cohort cohort = admitWriter(axis, planes, planes.length, side, fromLayer, moves);
+        pm.writeToCube(rotations, quarterTurns);
+        for (int layer = fromLayer; layer <= toLayer; layer++) {
+            record(side, layer, quarterTurns);
+        }
+        releaseWriter(axis, planes, planes.length, cohort, written(side, fromLayer, toLayer, quarterTurns));
+    }
+
+    /**
+     * Performs all rotations of `batch` in order, admitting consecutive rotations
+     * around the same axis together - each such run enters the `ProcessManager` once
+     * and occupies all of its planes for its whole duration.
+     * Performs the `beforeRotation` and `afterRotation` actions as `rotate(side, layer, quarterTurns)` does.
+     *
+     * If the thread is interrupted while waiting for access, runs admitted earlier remain applied.
+     * @param batch : requested rotations
+     */
+    public void rotate(RotationBatch batch) throws InterruptedException {
+        for (int i = 0; i < batch.size(); i++) {
+            validate(batch.getSide(i), batch.getLayer(i));
+            validateQuarterTurns(batch.getQuarterTurns(i));
+        }
+
+        int[] planes = new int[Math.min(batch.size(), size)];
+        int runStart = 0;
+        while (runStart < batch.size()) {
+            WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(batch.getSide(runStart)));
+            int runEnd = runStart + 1;
+            while (runEnd < batch.size()
+                    && WorkingGroup.fromSide(Side.fromInt(batch.getSide(runEnd))) == axis) {
+                runEnd++;
+            }
+            rotateRun(batch, runStart, runEnd, planes, true);
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * Admits rotations `from` (inclusive) to `to` (exclusive) of a batch, all around one axis, together
+     * and performs them in order.
+     * @param planes : buffer for the planes of the rotations, at least as long as the run or the cube's size
+     * @param record : whether to record the rotations in the cube's history
+     */
+    private void rotateRun(RotationBatch batch, int from, int to, int[] planes, boolean record)
+            throws InterruptedException {
+        WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(batch.getSide(from)));
+        int numPlanes = collectPlanes(batch, from, to, planes);
+
+        Cohort cohort = admitWriter(axis, planes, numPlanes, batch.getSide(from), batch.getLayer(from),
+                moves(batch, from, to));
+        for (int i = from; i < to; i++) {
+            pm.writeToCube(Rotation.newRotation(this, Side.fromInt(batch.getSide(i)), batch.getLayer(i)),
+                    batch.getQuarterTurns(i));
+            if (record) {
+                record(batch.getSide(i), batch.getLayer(i), batch.getQuarterTurns(i));
+            }
+        }
+        releaseWriter(axis, planes, numPlanes, cohort, written(batch, from, to));
+    }
+
+    /**
+     * Performs all rotations of `batch` in order as one atomic step - no reader, nor any other writer,
+     * observes the cube between two of them.
+     * The transaction waits for its turn as a writer of the axis of its first rotation, so the cube's fairness
+     * policy treats it as any other rotation, and then occupies all planes: readers and writers of other axes
+     * are kept out by the writer phase, and writers of its own axis by the planes.
+     * `beforeRotation` and `afterRotation` are performed around every rotation as `rotate(side, layer, quarterTurns)`
+     * does, the cohort actions once for the whole transaction, and the cube's version grows by one.
+     *
+     * If the thread is interrupted while waiting for access, no rotation is performed.
+     * @param batch : rotations of the transaction, around any axes
+     */
+    public void transaction(RotationBatch batch) throws InterruptedException {
+        for (int i = 0; i < batch.size(); i++) {
+            validate(batch.getSide(i), batch.getLayer(i));
+            validateQuarterTurns(batch.getQuarterTurns(i));
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(batch.getSide(0)));
+        int[] planes = new int[size];
+        for (int plane = 0; plane < size; plane++) {
+            planes[plane] = plane;
+        }
+        List<Move> moves = null;
+        if (pm.formsCohorts()) {
+            moves = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                moves.add(new Move(batch.getSide(i), batch.getLayer(i), batch.getQuarterTurns(i)));
+            }
+        }
+
+        Cohort cohort = admitWriter(axis, planes, size, batch.getSide(0), batch.getLayer(0), moves);
+        for (int i = 0; i < batch.size(); i++) {
+            pm.writeToCube(Rotation.newRotation(this, Side.fromInt(batch.getSide(i)), batch.getLayer(i)),
+                    batch.getQuarterTurns(i));
+            record(batch.getSide(i), batch.getLayer(i), batch.getQuarterTurns(i));
+        }
+        releaseWriter(axis, planes, size, cohort, written(batch, 0, batch.size()));
+    }
+
+    /**
+     * @return number of writes performed on the cube so far - every `rotate` or `rotateRange` call,
+     *         run of a batch (see `rotate(RotationBatch)`) and transaction counts once,
+     *         as does every call of `solve`, `shuffle` and `applySequenceOfRotations`
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Shows a past state of the cube (see `CubeOptions.versionRetention`), without waiting for access -
+     * the state is rebuilt from the cube's `VersionHistory`, and writers keep rotating meanwhile.
+     * The actions around showing are not performed.
+     * @param version : version of the cube (see `getVersion`)
+     * @return state of the cube right after the write that made it `version`, as `show` returns it
+     * @throws IllegalArgumentException : if the version is not retained
+     */
+    public String show(long version) {
+        if (versions == null) {
+            throw new IllegalArgumentException("Invalid version.");
+        }
+        return versions.show(version);
+    }
+
+    /**
+     * @return versions that `show(long)` can show, in ascending order (none if the cube keeps no history)
+     */
+    public long[] versions() {
+        return versions == null ? new long[0] : versions.versions();
+    }
+
+    /**
+     * @return history of the cube's states, null if it keeps none (see `CubeOptions.versionRetention`)
+     */
+    public VersionHistory getVersionHistory() {
+        return versions;
+    }
+
+    /**
+     * Undoes up to `n` of the latest rotations recorded in the cube's history (see `CubeOptions.historyCapacity`),
+     * latest first. Every rotation is undone by turning its layer the other way - an anti-clockwise
+     * quarter turn moves every square once, as `rotate(side, layer, 3)` does, and performs the actions the same way.
+     * Consecutive rotations around one axis are undone together, entering the `ProcessManager` once.
+     * Undone rotations may be redone until the next rotation is recorded.
+     *
+     * The history is linear - rotations of other threads are recorded in between, and undone as any other.
+     * A run is taken from the history only once it has been admitted and holds its planes,
+     * so the history always matches the cube: if another rotation is recorded while the run waits,
+     * the run is peeked again.
+     * If the thread is interrupted while waiting for access, rotations undone earlier stay undone.
+     * @param n : number of rotations to undo, counted as single-layer rotations
+     * @return number of rotations undone, fewer than `n` if the history holds fewer
+     *         (none if the cube keeps no history)
+     */
+    public int undo(int n) throws InterruptedException {
+        if (history == null) {
+            return 0;
+        }
+        RotationBatch inverses = new RotationBatch();
+        int[] planes = new int[size];
+        int undone = 0;
+        while (undone < n) {
+            inverses.clear();
+            long stamp = history.peekUndo(n - undone, inverses);
+            int count = inverses.size();
+            if (count == 0) {
+                break;
+            }
+            if (rotateRunIf(inverses, planes, () -> history.undo(stamp, count))) {
+                undone += count;
+            }
+        }
+        return undone;
+    }
+
+    /**
+     * Redoes up to `n` of the earliest undone rotations (see `undo`), in their original order.
+     * @param n : number of rotations to redo, counted as single-layer rotations
+     * @return number of rotations redone, fewer than `n` if fewer were undone
+     */
+    public int redo(int n) throws InterruptedException {
+        if (history == null) {
+            return 0;
+        }
+        RotationBatch rotations = new RotationBatch();
+        int[] planes = new int[size];
+        int redone = 0;
+        while (redone < n) {
+            rotations.clear();
+            long stamp = history.peekRedo(n - redone, rotations);
+            int count = rotations.size();
+            if (count == 0) {
+                break;
+            }
+            if (rotateRunIf(rotations, planes, () -> history.redo(stamp, count))) {
+                redone += count;
+            }
+        }
+        return redone;
+    }
+
+    /**
+     * Admits a run of rotations peeked from the history, all around one axis, and performs them
+     * if `take` still takes them from the history once their planes are held.
+     * Otherwise another rotation was recorded in between - the writer leaves without rotating,
+     * and the caller peeks again.
+     * @param planes : buffer for the planes of the rotations, at least as long as the run or the cube's size
+     * @param take : marks the run as undone or redone, unless the history has changed
+     * @return whether the run was performed
+     */
+    private boolean rotateRunIf(RotationBatch batch, int[] planes, BooleanSupplier take)
+            throws InterruptedException {
+        int count = batch.size();
+        WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(batch.getSide(0)));
+        int numPlanes = collectPlanes(batch, 0, count, planes);
+
+        Ticket ticket = occupyWriter(axis, planes, numPlanes, batch.getSide(0), batch.getLayer(0),
+                moves(batch, 0, count));
+        if (!take.getAsBoolean()) {
+            pm.withdrawWriter(axis, ticket);
+            return false;
+        }
+        pm.startCohort(ticket.cohort);
+        for (int i = 0; i < count; i++) {
+            pm.writeToCube(Rotation.newRotation(this, Side.fromInt(batch.getSide(i)), batch.getLayer(i)),
+                    batch.getQuarterTurns(i));
+        }
+        releaseWriter(axis, planes, numPlanes, ticket.cohort, written(batch, 0, count));
+        return true;
+    }
+
+    /**
+     * @return history of the cube's rotations, null if it keeps none (see `CubeOptions.historyCapacity`)
+     */
+    public MoveHistory getHistory() {
+        return history;
+    }
+
+    private void record(int side, int layer, int quarterTurns) {
+        if (history != null) {
+            history.record(side, layer, quarterTurns);
+        }
+    }
+
+    /**
+     * Runs the writer's part of the entry protocol, recording how long it waited.
+     * @param axis : axis of the writer
+     * @param planes : distinct planes occupied by the writer, in ascending order
+     * @param count : number of planes in use from `planes`
+     * @param side : side of the (first) rotation, for the record
+     * @param layer : layer of the (first) rotation, for the record
+     * @param moves : moves of the writer, for the cohort actions (null if the cube has none)
+     * @return the writer's cohort, null if the cube has no cohort actions
+     */
+    private Cohort admitWriter(WorkingGroup axis, int[] planes, int count, int side, int layer, List<Move> moves)
+            throws InterruptedException {
+        Ticket ticket = occupyWriter(axis, planes, count, side, layer, moves);
+        pm.startCohort(ticket.cohort);
+        return ticket.cohort;
+    }
+
+    /**
+     * Admits a writer and occupies its planes, as `admitWriter` does, but doesn't start its cohort yet.
+     * @return the writer's ticket
+     */
+    private Ticket occupyWriter(WorkingGroup axis, int[] planes, int count, int side, int layer, List<Move> moves)
+            throws InterruptedException {
+        RotationAdmittedEvent event = new RotationAdmittedEvent();
+        event.begin();
+        pm.entryProtocol();
+        Ticket ticket = pm.writerWaitIfNecessary(axis, planes, count, moves);
+        pm.inviteParallelWriters(axis, ticket);
+        pm.occupyPlanes(axis, ticket);
+        event.end();
+        if (event.shouldCommit()) {
+            event.side = side;
+            event.layer = layer;
+            event.axis = axis.name();
+            event.groupSize = ticket.groupSize;
+            event.commit();
+        }
+        return ticket;
+    }
+
+    /**
+     * Runs the writer's exit protocol, counting its write in the cube's version and completing its cohort first.
+     * The write is appended to the version history while its planes are still held,
+     * so writes of the same planes are appended in the order they were performed.
+     * @param written : rotations of the write, null if the cube keeps no version history
+     */
+    private void releaseWriter(WorkingGroup axis, int[] planes, int count, Cohort cohort, RotationBatch written) {
+        if (versions == null) {
+            version.incrementAndGet();
+        }
+        else {
+            synchronized (versions) {
+                versions.append(version.incrementAndGet(), written);
+            }
+        }
+        pm.finishCohort(cohort);
+        pm.writerExitProtocol(axis, planes, count);
+        if (versions != null) {
+            versions.materialize();
+        }
+    }
+
+    /**
+     * @return rotations of layers `fromLayer` to `toLayer` of `side`, for the version history
+     *         (null if the cube keeps none)
+     */
+    private RotationBatch written(int side, int fromLayer, int toLayer, int quarterTurns) {
+        if (versions == null) {
+            return null;
+        }
+        RotationBatch written = new RotationBatch(toLayer - fromLayer + 1);
+        for (int layer = fromLayer; layer <= toLayer; layer++) {
+            written.add(side, layer, quarterTurns);
+        }
+        return written;
+    }
+
+    /**
+     * @return rotations `from` (inclusive) to `to` (exclusive) of a batch, for the version history
+     *         (null if the cube keeps none)
+     */
+    private RotationBatch written(RotationBatch batch, int from, int to) {
+        if (versions == null) {
+            return null;
+        }
+        RotationBatch written = new RotationBatch(to - from);
+        for (int i = from; i < to; i++) {
+            written.add(batch.getSide(i), batch.getLayer(i), batch.getQuarterTurns(i));
+        }
+        return written;
+    }
+
+    /**
+     * Counts a change of the squares made without admission as a write,
+     * starting the version history over from the new state.
+     */
+    private void rebaseVersions() {
+        long current = version.incrementAndGet();
+        if (versions != null) {
+            versions.rebase(current, PackedState.encode(this));
+        }
+    }
+
+    private List<Move> moves(int side, int layer, int quarterTurns) {
+        return pm.formsCohorts() ? Collections.singletonList(new Move(side, layer, quarterTurns)) : null;
+    }
+
+    /**
+     * @return moves of rotations `from` (inclusive) to `to` (exclusive) of a batch, for the cohort actions
+     *         (null if the cube has none)
+     */
+    private List<Move> moves(RotationBatch batch, int from, int to) {
+        if (!pm.formsCohorts()) {
+            return null;
+        }
+        List<Move> moves = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            moves.add(new Move(batch.getSide(i), batch.getLayer(i), batch.getQuarterTurns(i)));
+        }
+        return moves;
+    }
+
+    private void validate(int side, int layer) {
+        if (side < 0 || side >= Side.SIDES.intValue()) {
+            throw new IndexOutOfBoundsException("Invalid side.");
+        }
+        if (layer < 0 || layer >= size) {
+            throw new IndexOutOfBoundsException("Invalid layer.");
+        }
+    }
+
+    private void validateQuarterTurns(int quarterTurns) {
+        if (quarterTurns < 1 || quarterTurns > 3) {
+            throw new IllegalArgumentException("Invalid number of quarter turns.");
+        }
+    }
+
+    /**
+     * Gathers distinct planes touched by rotations `from` (inclusive) to `to` (exclusive) of a batch.
+     * @return number of planes written to `planes`, which are sorted ascending
+     */
+    private int collectPlanes(RotationBatch batch, int from, int to, int[] planes) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int plane = Rotation.getPlane(size, batch.getSide(i), batch.getLayer(i));
+            int pos = Arrays.binarySearch(planes, 0, count, plane);
+            if (pos < 0) {
+                pos = -pos - 1;
+                System.arraycopy(planes, pos, planes, pos + 1, count - pos);
+                planes[pos] = plane;
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
@@ -109,22 +832,171 @@ public class Cube {
      */
     public String show() throws InterruptedException {
         pm.entryProtocol();
-        pm.readerWaitIfNecessary();
-        pm.inviteParallelReaders();
+        Ticket ticket = pm.readerWaitIfNecessary();
+        pm.inviteParallelReaders(ticket);
         String str = pm.readFromCube();
         pm.readerExitProtocol();
         return str;
     }
 
+    /**
+     * Works like `show`, but builds the snapshot with `encoder` instead of `toString`.
+     * The encoder runs with reader access to the cube and must not call its concurrent methods.
+     * @param encoder : builds the snapshot from the cube
+     * @return the snapshot built by `encoder`
+     */
+    public <T> T showAs(Function<Cube, T> encoder) throws InterruptedException {
+        pm.entryProtocol();
+        Ticket ticket = pm.readerWaitIfNecessary();
+        pm.inviteParallelReaders(ticket);
+        T snapshot = pm.readFromCube(encoder);
+        pm.readerExitProtocol();
+        return snapshot;
+    }
+
+    /**
+     * Works like `show`, but returns the state in the dense binary form described in `PackedState`.
+     * @return packed state of the cube
+     */
+    public byte[] showPacked() throws InterruptedException {
+        return showAs(PackedState::encode);
+    }
+
+    /**
+     * Works like `show`, but writes the state straight to `channel` - byte for byte the digits `show` returns -
+     * through a small reusable buffer instead of building a string, so it needs bounded memory for any cube.
+     * Reader access is held until the whole state is written (or writing fails).
+     * @param channel : destination, preferably in blocking mode
+     */
+    public void showTo(WritableByteChannel channel) throws IOException, InterruptedException {
+        showTo(rows -> StateStreamer.write(rows, channel));
+    }
+
+    /**
+     * Same as above, writing to a stream (which is not flushed).
+     * @param out : destination
+     */
+    public void showTo(OutputStream out) throws IOException, InterruptedException {
+        showTo(rows -> StateStreamer.write(rows, out));
+    }
+
+    private void showTo(ProcessManager.StateWriter writer) throws IOException, InterruptedException {
+        pm.entryProtocol();
+        Ticket ticket = pm.readerWaitIfNecessary();
+        pm.inviteParallelReaders(ticket);
+        try {
+            pm.streamFromCube(writer);
+        } finally {
+            pm.readerExitProtocol();
+        }
+    }
+
+    /**
+     * Displays a single face of the cube, as the string of its squares' colors row by row.
+     * Works like `show`, but only excludes the rotations that modify the face - see `showFaceAs`.
+     * @param side : displayed face
+     * @return string of `size * size` digits between 0 and 5
+     */
+    public String showFace(int side) throws InterruptedException {
+        return showFaceAs(side, face -> {
+            char[] chars = new char[face.length];
+            for (int i = 0; i < face.length; i++) {
+                chars[i] = face[i].charValue();
+            }
+            return new String(chars);
+        });
+    }
+
+    /**
+     * Builds a snapshot of a single face with `encoder`, excluding only the rotations that modify the face:
+     * those around the two perpendicular axes, whose rings pass through it, and the rotation of its own layer.
+     * Face reads don't exclude each other or `show`. While rotations around the face's axis are running,
+     * the read joins them (if the fairness policy lets one more in) and shares the face's plane
+     * with other reads of it, so rotations of the other layers of that axis proceed in parallel;
+     * otherwise it is admitted as `show` is.
+     * The `beforeShowing` and `afterShowing` actions are not performed, as the read may overlap rotations.
+     * @param side : displayed face
+     * @param encoder : builds the snapshot from the face's squares, indexed `row * size + col`,
+     *                which it must not modify or keep
+     * @return the snapshot built by `encoder`
+     */
+    public <T> T showFaceAs(int side, Function<Color[], T> encoder) throws InterruptedException {
+        validate(side, 0);
+        WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(side));
+
+        pm.entryProtocol();
+        Ticket ticket = pm.faceReaderWaitIfNecessary(axis, Rotation.getPlane(size, side, 0));
+        pm.occupyFace(axis, ticket);
+        try {
+            return encoder.apply(face(side));
+        } finally {
+            pm.faceReaderExitProtocol(axis, ticket);
+        }
+    }
+
+    /**
+     * @param side : side of the cube
+     * @return squares of `side`, indexed `row * size + col` - a copy unless the cube is stored densely in arrays
+     */
+    private Color[] face(int side) {
+        SparseSquares sparse = this.sparse;
+        if (sparse != null) {
+            // rotations of the face's axis may be modifying the table
+            synchronized (sparse) {
+                if (!sparse.isRetired()) {
+                    return sparse.face(side);
+                }
+            }
+        }
+        if (bitboard != null) {
+            return bitboard.face(side);
+        }
+        return layout == null ? squares[side] : layout.toRowMajor(squares[side]);
+    }
+
+    /**
+     * Unregisters the cube's `CubeStatsMBean`, if it was given a name (see `CubeOptions.mbeanName`).
+     * Monitored cubes are referenced by the platform MBean server until this is called.
+     */
+    public void unregisterMBean() {
+        pm.unregisterMBean();
+    }
+
     /**
      * Solves/initializes the cube, setting each side to its corresponding enum value.
+     * A cube with sparse storage (see `CubeOptions.storage`) goes back to it.
      */
     public void solve() {
+        solveSquares();
+        rebaseVersions();
+    }
+
+    private void solveSquares() {
+        if (zobrist != null) {
+            zobrist.reset(0);
+        }
+        counts.solved();
+        if (history != null) {
+            history.clear();
+        }
+        if (options.getStorage() == CubeOptions.Storage.SPARSE) {
+            long maxDifferences = (long) (options.getSparsityThreshold() * NUM_FACES * size * size);
+            squares = null;
+            sparse = new SparseSquares(this, maxDifferences);
+            return;
+        }
+        if (bitboard != null) {
+            bitboard.solve();
+            return;
+        }
+        if (squares == null) {
+            squares = new Color[Side.SIDES.intValue()][layout == null ? size * size : layout.length()];
+        }
         for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
             Color color = Color.fromInt(side);
             for (int row = 0; row < size; row++) {
                 for (int col = 0; col < size; col++) {
-                    squares[side][row *  size + col] = color;
+                    squares[side][at(row, col)] = color;
                 }
             }
         }
@@ -134,25 +1006,62 @@ public class Cube {
      * Shuffles/rearranges the cube.
      */
     public void shuffle() {
-        for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
-            for (int row = 0; row < size; row++) {
-                for (int col = 0; col < size; col++) {
-                    squares[side][row *  size + col] = Color.randomColor();
+        if (history != null) {
+            history.clear();
+        }
+        if (sparse != null) {
+            useDense(new Color[Side.SIDES.intValue()][size * size], 0);
+        }
+        if (bitboard != null) {
+            for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
+                for (int index = 0; index < size * size; index++) {
+                    bitboard.set(side, index, Color.randomColor());
                 }
             }
+            counts.recount(bitboard.toArrays());
+        }
+        else {
+            for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
+                for (int row = 0; row < size; row++) {
+                    for (int col = 0; col < size; col++) {
+                        squares[side][at(row, col)] = Color.randomColor();
+                    }
+                }
+            }
+            if (zobrist != null) {
+                zobrist.reset(getSquares());
+            }
+            counts.recount(squares);
         }
+        rebaseVersions();
     }
 
     /**
      * Determines whether a cube has a legal amount of squares of each color.
+     * With `CubeOptions.colorCounts`, checks the counts kept by the writes repainting squares in constant time,
+     * otherwise counts the squares.
      * @return did any process damage the cube
      */
     public boolean isLegal() {
+        if (counts.hasColorCounts()) {
+            return counts.isLegal();
+        }
         int[] colorOccurrences = new int[Color.COLORS.intValue()];
-        for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
-            for (int row = 0; row < size; row++) {
-                for (int col = 0; col < size; col++) {
-                    colorOccurrences[squares[side][row *  size + col].intValue()]++;
+        SparseSquares sparse = this.sparse;
+        if (sparse != null) {
+            Arrays.fill(colorOccurrences, size * size);
+            sparse.forEach((side, index, color) -> {
+                colorOccurrences[side]--;
+                colorOccurrences[color.intValue()]++;
+            });
+        }
+        else {
+            Color[][] squares = bitboard == null ? this.squares : bitboard.toArrays();
+            for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
+                for (int row = 0; row < size; row++) {
+                    for (int col = 0; col < size; col++) {
+                        colorOccurrences[squares[side][at(row, col)].intValue()]++;
+                    }
                 }
             }
         }
@@ -167,14 +1076,32 @@ public class Cube {
     /**
      * Asserts whether a cube is solved - checks if every face is colored in
      * the color with a corresponding enumeration constant.
+     * Takes constant time for sparse cubes and bitboards, which are compared with the solved cube,
+     * and with `CubeOptions.offColorCounts`, which counts the squares off their face's color (see `SquareCounts`);
+     * otherwise the squares are compared with their faces' colors.
      * @return whether the cube is solved
      */
     public boolean isSolved() {
+        SparseSquares sparse = this.sparse;
+        if (sparse != null) {
+            synchronized (sparse) {
+                if (!sparse.isRetired()) {
+                    return sparse.isEmpty();
+                }
+            }
+        }
+        if (bitboard != null) {
+            return bitboard.isSolved();
+        }
+        if (counts.hasOffColorCounts()) {
+            return counts.isSolved();
+        }
+        Color[][] squares = this.squares;
         for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
             Color color = Color.fromInt(side);
             for (int row = 0; row < size; row++) {
                 for (int col = 0; col < size; col++) {
-                    if (squares[side][row *  size + col] != color) {
+                    if (squares[side][at(row, col)] != color) {
                         return false;
                     }
                 }
@@ -188,6 +1115,10 @@ public class Cube {
      * @return deep copy of `this.squares`
      */
     public Color[][] getCopyOfSquares() {
+        SparseSquares sparse = this.sparse;
+        if (sparse != null || layout != null || bitboard != null) {
+            return getSquares();
+        }
         Color copy[][] = new Color[NUM_FACES][size * size];
         for (int i = 0; i < 6; i++) {
             copy[i] = Arrays.copyOf(squares[i], squares[i].length);
@@ -196,16 +1127,30 @@ public class Cube {
     }
 
     /**
-     * Solves the cube and applies provided rotations sequentially.
-     * @param rotations : list of requested rotations
+     * Solves the cube and applies provided rotations.
+     * Sequences of at least `PARALLEL_REPLAY_LENGTH` rotations are composed into a single `CubePermutation`
+     * in parallel (see `CubePermutation.compose`), which then moves every square once;
+     * shorter ones are applied sequentially.
+     * @param rotations : list of requested rotations of this cube
      */
     public void applySequenceOfRotations(List<Rotation> rotations) {
-        solve();
-        for (Rotation rot : rotations) {
-            rot.applyRotation();
+        solveSquares();
+        if (rotations.size() >= PARALLEL_REPLAY_LENGTH) {
+            CubePermutation.compose(rotations, size).applyTo(this);
+        }
+        else {
+            for (Rotation rot : rotations) {
+                rot.applyRotation();
+            }
         }
+        rebaseVersions();
     }
 
+    /**
+     * Compares the squares of two cubes, rejecting most different cubes by their hashes (see `hashCode`)
+     * before comparing any square, if both keep their hashes. Bitboards are compared word by word.
+     * Exact only while neither cube is being rotated.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -218,18 +1163,60 @@ public class Cube {
         if (size != other.getSize()) {
             return false;
         }
-        return Arrays.deepEquals(squares, other.getSquares());
+        if (bitboard != null && other.bitboard != null) {
+            return bitboard.sameAs(other.bitboard);
+        }
+        if (keepsHash() && other.keepsHash() && hash() != other.hash()) {
+            return false;
+        }
+        SparseSquares sparse = this.sparse;
+        SparseSquares otherSparse = other.sparse;
+        if (sparse != null && otherSparse != null) {
+            return sparse.sameAs(otherSparse);
+        }
+        Color[][] squares = this.squares;
+        Color[][] otherSquares = other.squares;
+        if (sparse != null || otherSparse != null || bitboard != null || other.bitboard != null
+                || (layout == null) != (other.layout == null)) {
+            squares = getSquares();
+            otherSquares = other.getSquares();
+        }
+        for (int side = 0; side < NUM_FACES; side++) {
+            if (Arrays.mismatch(squares[side], otherSquares[side]) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash of the squares (see `ZobristHash`). Takes constant time with `CubeOptions.incrementalHash`
+     * and for sparsely stored cubes, otherwise the squares are hashed on every call.
+     * Consistent with `equals` while the cube is not being rotated.
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash() * 0x9E3779B97F4A7C15L) ^ size;
     }
 
     @Override
     public String toString() {
         char[] chars = new char[Side.SIDES.intValue() * size * size];
+        SparseSquares sparse = this.sparse;
+        if (sparse != null) {
+            for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
+                Arrays.fill(chars, side * size * size, (side + 1) * size * size, Color.fromInt(side).charValue());
+            }
+            sparse.forEach((side, index, color) -> chars[side * size * size + index] = color.charValue());
+            return new String(chars);
+        }
 
+        Color[][] squares = bitboard == null ? this.squares : bitboard.toArrays();
         for (int side = Side.Top.intValue(); side < Side.SIDES.intValue(); side++) {
             for (int row = 0; row < size; row++) {
                 for (int col = 0; col < size; col++) {
                     chars[col + size * (row + size * side)] =
-                            squares[side][row * size + col].charValue();
+                            squares[side][at(row, col)].charValue();
                 }
             }
         }
@@ -0,0 +1,350 @@
+package concurrentcube;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Optional settings of a cube, going beyond what its specification requires.
+ * The defaults behave exactly as the specification says.
+ */
+public class CubeOptions {
+
+    /**
+     * When the `beforeRotation` and `afterRotation` actions of a multi-quarter-turn rotation are performed.
+     */
+    public enum HookMode {
+        /* Once per quarter turn, with the ring turned by one quarter in between - as the specification requires */
+        PER_QUARTER_TURN,
+        /* Once per call, with the ring turned by all quarters in a single pass in between */
+        PER_CALL
+    }
+
+    /**
+     * How threads wait for access to the cube, its layers and the manager's mutex.
+     */
+    public enum WaitStrategy {
+        /* Park right away */
+        BLOCKING,
+        /* Spin for a while calibrated on recent waits, then yield, then park */
+        ADAPTIVE,
+        /* Never park - for latency-critical deployments with a core per thread */
+        BUSY_SPIN
+    }
+
+    /**
+     * Which waiting group gets the cube first. A phase is a period in which one group
+     * (readers or writers of one axis) works on the cube; joining an active phase means
+     * entering it without waiting.
+     */
+    public enum Fairness {
+        /*
+         * As the specification requires: readers don't join while writers wait,
+         * writers of the working axis always join, an exiting writer phase hands the cube to readers
+         * and an exiting reader phase to writers (axes taking turns).
+         * Writers wait for at most one reader phase and two phases of other axes,
+         * but a steady stream of writers of one axis can starve everyone else.
+         */
+        ALTERNATING,
+        /*
+         * Writers always join, readers don't while writers wait, and the cube goes to writers
+         * (axes taking turns) whenever any are waiting.
+         * Writers wait for at most two phases of other axes and the current reader phase;
+         * readers starve while writers keep coming.
+         */
+        WRITER_PREFERRING,
+        /*
+         * Readers always join, writers don't while readers wait, and the cube goes to readers
+         * whenever any are waiting.
+         * Readers wait for at most the current writer phase; writers starve while readers keep coming.
+         */
+        READER_PREFERRING,
+        /*
+         * Processes are admitted strictly in order of arrival - a phase only admits the waiters
+         * that arrived before the first waiter of another group, and nobody joins while anyone waits.
+         * Nobody starves - a process waits only for those that came before it -
+         * at the price of shorter phases, and so less concurrency, when groups are interleaved.
+         */
+        FIFO,
+        /*
+         * Groups take turns as with `ALTERNATING`, but a phase may only be joined by at most
+         * `maxPhaseLength` processes in total while other groups wait.
+         * Every waiter is admitted within four phases (the current one and one of each other group),
+         * each holding at most `maxPhaseLength` processes beyond the waiters admitted at its start.
+         */
+        PHASE_FAIR
+    }
+
+    /**
+     * How the cube keeps the colors of its squares.
+     */
+    public enum Storage {
+        /*
+         * Every square in an array, as `getSquares` returns it - except for cubes of size up to 3,
+         * packed into one `long` per pair of opposite sides (see `BitboardSquares`)
+         */
+        DENSE,
+        /* Only the squares that differ from the solved cube, until there are too many of them (see `sparsityThreshold`) */
+        SPARSE,
+        /* Every square in an array, faces cut into tiles of 16 x 16 squares (see `TiledLayout`) - for big cubes */
+        TILED
+    }
+
+    private HookMode hookMode = HookMode.PER_QUARTER_TURN;
+    private Fairness fairness = Fairness.ALTERNATING;
+    private int maxPhaseLength = 32;
+    private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+    private Storage storage = Storage.DENSE;
+    private double sparsityThreshold = 0.125;
+    private boolean compiledRotations = false;
+    private boolean offColorCounts = false;
+    private boolean colorCounts = false;
+    private boolean incrementalHash = false;
+    private int historyCapacity = 0;
+    private int versionRetention = 0;
+    private int snapshotInterval = 64;
+    private String mbeanName = null;
+    private Consumer<List<Move>> beforeRotationGroup = null;
+    private Consumer<List<Move>> afterRotationGroup = null;
+
+    public HookMode getHookMode() {
+        return hookMode;
+    }
+    public Fairness getFairness() {
+        return fairness;
+    }
+    public int getMaxPhaseLength() {
+        return maxPhaseLength;
+    }
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+    public Storage getStorage() {
+        return storage;
+    }
+    public double getSparsityThreshold() {
+        return sparsityThreshold;
+    }
+    public boolean getCompiledRotations() {
+        return compiledRotations;
+    }
+    public boolean getOffColorCounts() {
+        return offColorCounts;
+    }
+    public boolean getColorCounts() {
+        return colorCounts;
+    }
+    public boolean getIncrementalHash() {
+        return incrementalHash;
+    }
+    public int getHistoryCapacity() {
+        return historyCapacity;
+    }
+    public int getVersionRetention() {
+        return versionRetention;
+    }
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+    public String getMBeanName() {
+        return mbeanName;
+    }
+    public Consumer<List<Move>> getBeforeRotationGroup() {
+        return beforeRotationGroup;
+    }
+    public Consumer<List<Move>> getAfterRotationGroup() {
+        return afterRotationGroup;
+    }
+
+    public CubeOptions hookMode(HookMode hookMode) {
+        this.hookMode = hookMode;
+        return this;
+    }
+
+    public CubeOptions fairness(Fairness fairness) {
+        this.fairness = fairness;
+        return this;
+    }
+
+    /**
+     * Sets the bound on processes joining a phase while other groups wait, for `Fairness.PHASE_FAIR`.
+     * @param maxPhaseLength : positive number of processes
+     */
+    public CubeOptions maxPhaseLength(int maxPhaseLength) {
+        if (maxPhaseLength < 1) {
+            throw new IllegalArgumentException("Invalid phase length.");
+        }
+        this.maxPhaseLength = maxPhaseLength;
+        return this;
+    }
+
+    /**
+     * Sets how threads wait for the cube. Spinning pays off when the actions are null
+     * and rotations take well under a microsecond, so a waiter is likely to be admitted
+     * sooner than a parked thread could be woken. It only wastes the CPU on machines
+     * with fewer cores than working threads.
+     * @param waitStrategy : strategy of all waits of the cube
+     */
+    public CubeOptions waitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+        return this;
+    }
+
+    /**
+     * Sets how the cube keeps its squares. Sparse storage pays off for big cubes that stay close to solved -
+     * a cube of size 10000 takes 2.4 GB stored densely, but about 40 MB after 30 random rotations stored sparsely.
+     * Rotations of one axis, which otherwise run in parallel, are serialized while the cube is sparse.
+     * @param storage : storage of a solved cube
+     */
+    public CubeOptions storage(Storage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of squares differing from the solved cube above which a sparse cube
+     * switches to dense storage - for good, until it is solved again.
+     * At the default of 1/8, the sparse cube takes about as much memory as the dense one.
+     * @param sparsityThreshold : fraction of squares, greater than 0 and at most 1
+     */
+    public CubeOptions sparsityThreshold(double sparsityThreshold) {
+        if (!(sparsityThreshold > 0 && sparsityThreshold <= 1)) {
+            throw new IllegalArgumentException("Invalid sparsity threshold.");
+        }
+        this.sparsityThreshold = sparsityThreshold;
+        return this;
+    }
+
+    /**
+     * Makes rotations of a densely stored cube run code generated for its size at runtime -
+     * one hidden class per (size, side, layer), moving every square with constant indices,
+     * compiled on first use and shared by all cubes of the size.
+     * Pays off for sizes 4 to 6 (rotations about a third faster) - code generated for bigger cubes
+     * would be slower than the generic loops, so cubes bigger than 9 run them anyway
+     * (and cubes of size up to 3 are packed into bitboards instead).
+     * @param compiledRotations : whether to generate code for rotations
+     */
+    public CubeOptions compiledRotations(boolean compiledRotations) {
+        this.compiledRotations = compiledRotations;
+        return this;
+    }
+
+    /**
+     * Makes rotations count the squares of every face not colored in the face's color (see `SquareCounts`)
+     * as they move them, so `Cube.isSolved` takes constant time for cubes stored in arrays -
+     * for pipelines checking whether the cube is solved after most rotations.
+     * Costs tallying the colors of every moved strip and one atomic addition per rotation.
+     * Without it, `Cube.isSolved` compares the squares with their faces' colors, stopping at the first mismatch;
+     * sparse cubes and bitboards always take constant time.
+     * @param offColorCounts : whether rotations count the squares off their face's color
+     */
+    public CubeOptions offColorCounts(boolean offColorCounts) {
+        this.offColorCounts = offColorCounts;
+        return this;
+    }
+
+    /**
+     * Makes the cube count its squares of every color (see `SquareCounts`), so `Cube.isLegal` takes constant time -
+     * for debug and validation builds. Rotations never change the counts, so only writes repainting squares
+     * (`Cube.setSquareColor`, `Cube.shuffle`) update them, reading every repainted square first;
+     * squares damaged by racing rotations go unnoticed, which only counting all of them detects.
+     * @param colorCounts : whether to count the squares of every color
+     */
+    public CubeOptions colorCounts(boolean colorCounts) {
+        this.colorCounts = colorCounts;
+        return this;
+    }
+
+    /**
+     * Makes rotations and repainting writes update the cube's hash (see `ZobristHash`) as they move squares,
+     * so `hashCode` takes constant time and `equals` rejects different cubes without comparing their squares.
+     * Costs reading every moved square once more and two keys per square - rotations of cubes of size up to 32,
+     * whose keys are looked up in a table, get about twice as slow, and bigger cubes, whose keys are computed,
+     * several times slower.
+     * Without it, `hashCode` hashes the squares from scratch on every call, and `equals` compares them all.
+     * Sparsely stored cubes always keep their hash, and bitboards are always hashed from their words.
+     * @param incrementalHash : whether rotations maintain the cube's hash
+     */
+    public CubeOptions incrementalHash(boolean incrementalHash) {
+        this.incrementalHash = incrementalHash;
+        return this;
+    }
+
+    /**
+     * Makes the cube remember its latest rotations, so they can be undone and redone (see `Cube.undo`).
+     * The history is a ring buffer taking 4 bytes per rotation (see `MoveHistory.footprint`),
+     * allocated with the cube; every rotation then records itself under a short lock.
+     * Solving or shuffling the cube forgets its history.
+     * @param historyCapacity : number of remembered single-layer rotations, 0 for no history
+     */
+    public CubeOptions historyCapacity(int historyCapacity) {
+        if (historyCapacity < 0) {
+            throw new IllegalArgumentException("Invalid history capacity.");
+        }
+        this.historyCapacity = historyCapacity;
+        return this;
+    }
+
+    /**
+     * Makes the cube keep its past states, so any of its latest versions can be shown (see `Cube.show(long)`).
+     * Every write appends its rotations to a `VersionHistory` (4 bytes per single-layer rotation),
+     * and every `snapshotInterval` versions the cube's state is packed into a snapshot (3/8 of a byte per square),
+     * computed by replaying the rotations after the writer has left the cube.
+     * Versions older than the retention are dropped a whole interval at a time.
+     * @param versionRetention : minimal number of shown versions, 0 for no history
+     */
+    public CubeOptions versionRetention(int versionRetention) {
+        if (versionRetention < 0) {
+            throw new IllegalArgumentException("Invalid version retention.");
+        }
+        this.versionRetention = versionRetention;
+        return this;
+    }
+
+    /**
+     * Sets the number of versions between snapshots of the version history (see `versionRetention`).
+     * Rebuilding a version replays at most this many writes; shorter intervals take more memory.
+     * @param snapshotInterval : number of versions, at least 1
+     */
+    public CubeOptions snapshotInterval(int snapshotInterval) {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("Invalid snapshot interval.");
+        }
+        this.snapshotInterval = snapshotInterval;
+        return this;
+    }
+
+    /**
+     * Makes the cube register a `CubeStatsMBean` named `concurrentcube:name=<mbeanName>`
+     * in the platform MBean server. Without a name the cube is not monitored and keeps no counters.
+     * @param mbeanName : name of the cube's MBean, unique among registered cubes
+     */
+    public CubeOptions mbeanName(String mbeanName) {
+        this.mbeanName = mbeanName;
+        return this;
+    }
+
+    /**
+     * Sets an action performed once for every cohort of rotations - writers of one axis on disjoint layers
+     * admitted to the cube together - before any of them starts rotating.
+     * `beforeRotation` and `afterRotation` are still performed for every rotation of the cohort.
+     *
+     * A hardware driver might, for example, plan a single arm movement for the whole cohort here.
+     * Writers admitted while a cohort is working form the next cohort, which may overlap with it.
+     * @param beforeRotationGroup : action receiving the moves of the cohort, in order of admission
+     */
+    public CubeOptions beforeRotationGroup(Consumer<List<Move>> beforeRotationGroup) {
+        this.beforeRotationGroup = beforeRotationGroup;
+        return this;
+    }
+
+    /**
+     * Sets an action performed once for every cohort, after all of its rotations are done
+     * and before the last of its writers leaves the cube (see `beforeRotationGroup`).
+     * @param afterRotationGroup : action receiving the moves of the cohort, in order of admission
+     */
+    public CubeOptions afterRotationGroup(Consumer<List<Move>> afterRotationGroup) {
+        this.afterRotationGroup = afterRotationGroup;
+        return this;
+    }
+
+}
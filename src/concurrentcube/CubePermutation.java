@@ -0,0 +1,405 @@
+package concurrentcube;
+
+import concurrentcube.Rotations.Rotation;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An immutable rearrangement of a cube's squares, numbered `side * size * size + row * size + col` -
+ * the combined effect of a sequence of rotations, independent of the cube's colors.
+ *
+ * A permutation moving few squares (one rotation of a big cube moves `4 * size` of its `6 * size * size` squares)
+ * is kept sparse, as the sorted positions it changes and their sources.
+ * Once it moves more than `1 / DENSE_FRACTION` of the squares, it is kept as a dense array of sources.
+ */
+public final class CubePermutation {
+    /* Sparse permutations moving more than 1 / DENSE_FRACTION of the squares become dense */
+    private static final int DENSE_FRACTION = 4;
+    /*
+     * Number of rotations composed sequentially by a single task of `compose` - at least `CHUNK_LENGTH_PER_ROW * size`,
+     * so that moving their squares takes longer than setting up and combining the task's dense permutation
+     */
+    private static final int MIN_CHUNK_LENGTH = 256;
+    private static final int CHUNK_LENGTH_PER_ROW = 4;
+
+    private final int size;
+    private final int squares;
+    /* Source of every square, or null for a sparse permutation */
+    private final int[] dense;
+    /* Positions changed by a sparse permutation in ascending order, and their sources */
+    private final int[] targets;
+    private final int[] sources;
+
+    private CubePermutation(int size, int[] dense, int[] targets, int[] sources) {
+        this.size = size;
+        this.squares = Side.SIDES.intValue() * size * size;
+        this.dense = dense;
+        this.targets = targets;
+        this.sources = sources;
+    }
+
+    /**
+     * @param size : size of the cube
+     * @return permutation moving nothing
+     */
+    public static CubePermutation identity(int size) {
+        return new CubePermutation(size, null, new int[0], new int[0]);
+    }
+
+    /**
+     * @param rotation : a rotation
+     * @return permutation performed by a clockwise quarter turn of `rotation`
+     */
+    public static CubePermutation of(Rotation rotation) {
+        int[] moves = rotation.movedSquares();
+        long[] pairs = new long[moves.length / 2];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = ((long) moves[2 * i] << 32) | moves[2 * i + 1];
+        }
+        Arrays.sort(pairs);
+        int[] targets = new int[pairs.length];
+        int[] sources = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            targets[i] = (int) (pairs[i] >>> 32);
+            sources[i] = (int) pairs[i];
+        }
+        return sparse(rotation.getCube().getSize(), targets, sources, targets.length);
+    }
+
+    /**
+     * Composes the permutations of a sequence of rotations, each a clockwise quarter turn, in parallel -
+     * every chunk of rotations is composed by a separate task of the common `ForkJoinPool`,
+     * which turns each of them in a dense permutation (see `Rotation.applyTo`),
+     * and the chunks' permutations are composed pairwise, as a balanced tree.
+     * @param rotations : rotations of cubes of size `size`, in order of application
+     * @param size : size of the cube
+     * @return permutation performed by the whole sequence
+     */
+    public static CubePermutation compose(List<Rotation> rotations, int size) {
+        return ForkJoinPool.commonPool().invoke(new ComposeTask(rotations, 0, rotations.size(), size)).compact();
+    }
+
+    /**
+     * Composes a range of a sequence of rotations - sequentially if it's short,
+     * otherwise as the composition of its halves, composed in parallel.
+     */
+    private static final class ComposeTask extends RecursiveTask<CubePermutation> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Rotation> rotations;
+        private final int from;
+        private final int to;
+        private final int size;
+
+        private ComposeTask(List<Rotation> rotations, int from, int to, int size) {
+            this.rotations = rotations;
+            this.from = from;
+            this.to = to;
+            this.size = size;
+        }
+
+        @Override
+        protected CubePermutation compute() {
+            int squares = Side.SIDES.intValue() * size * size;
+            if (to - from <= Math.max(MIN_CHUNK_LENGTH, CHUNK_LENGTH_PER_ROW * size)) {
+                int[] composed = new int[squares];
+                for (int i = 0; i < squares; i++) {
+                    composed[i] = i;
+                }
+                for (int i = from; i < to; i++) {
+                    rotations.get(i).applyTo(composed);
+                }
+                return new CubePermutation(size, composed, null, null);
+            }
+            int middle = (from + to) >>> 1;
+            ComposeTask first = new ComposeTask(rotations, from, middle, size);
+            first.fork();
+            CubePermutation second = new ComposeTask(rotations, middle, to, size).compute();
+            return first.join().then(second);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return whether the permutation is stored as an array of sources of all squares
+     */
+    public boolean isDense() {
+        return dense != null;
+    }
+
+    /**
+     * @param position : position of a square
+     * @return position of the square moved to `position`
+     */
+    public int source(int position) {
+        if (dense != null) {
+            return dense[position];
+        }
+        int i = Arrays.binarySearch(targets, position);
+        return i < 0 ? position : sources[i];
+    }
+
+    /**
+     * @param next : permutation performed after this one, for cubes of the same size
+     * @return permutation performed by this one followed by `next`
+     */
+    public CubePermutation then(CubePermutation next) {
+        assert(size == next.size);
+        if (dense != null && next.dense != null) {
+            int[] composed = new int[squares];
+            for (int i = 0; i < squares; i++) {
+                composed[i] = dense[next.dense[i]];
+            }
+            return new CubePermutation(size, composed, null, null);
+        }
+        if (dense != null || next.dense != null) {
+            int[] composed = new int[squares];
+            for (int i = 0; i < squares; i++) {
+                composed[i] = source(next.source(i));
+            }
+            return new CubePermutation(size, composed, null, null);
+        }
+
+        // the positions changed by the composition are among those changed by either permutation
+        int[] composedTargets = new int[targets.length + next.targets.length];
+        int[] composedSources = new int[composedTargets.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < targets.length || j < next.targets.length) {
+            int position;
+            if (j == next.targets.length || (i < targets.length && targets[i] < next.targets[j])) {
+                position = targets[i++];
+            }
+            else {
+                if (i < targets.length && targets[i] == next.targets[j]) {
+                    i++;
+                }
+                position = next.targets[j++];
+            }
+            int source = source(next.source(position));
+            if (source != position) {
+                composedTargets[count] = position;
+                composedSources[count++] = source;
+            }
+        }
+        return sparse(size, composedTargets, composedSources, count);
+    }
+
+    /**
+     * @return permutation performed by undoing this one
+     */
+    public CubePermutation inverse() {
+        if (dense != null) {
+            int[] inverse = new int[squares];
+            for (int i = 0; i < squares; i++) {
+                inverse[dense[i]] = i;
+            }
+            return new CubePermutation(size, inverse, null, null);
+        }
+        long[] pairs = new long[targets.length];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = ((long) sources[i] << 32) | targets[i];
+        }
+        Arrays.sort(pairs);
+        int[] inverseTargets = new int[pairs.length];
+        int[] inverseSources = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            inverseTargets[i] = (int) (pairs[i] >>> 32);
+            inverseSources[i] = (int) pairs[i];
+        }
+        return new CubePermutation(size, null, inverseTargets, inverseSources);
+    }
+
+    /**
+     * Computes the permutation performed by `exponent` repetitions of this one by repeated squaring,
+     * with O(log |exponent|) compositions.
+     * @param exponent : number of repetitions, negative for repetitions of the inverse
+     * @return permutation performed by `exponent` repetitions
+     */
+    public CubePermutation power(long exponent) {
+        if (exponent < 0) {
+            // -(exponent + 1) doesn't overflow for Long.MIN_VALUE
+            CubePermutation inverse = inverse();
+            return inverse.power(-(exponent + 1)).then(inverse);
+        }
+        CubePermutation result = identity(size);
+        CubePermutation square = this;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                result = result.then(square);
+            }
+            exponent >>= 1;
+            if (exponent > 0) {
+                square = square.then(square);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decomposes the permutation into disjoint cycles, leaving out squares that stay in place.
+     * The square at `cycle[k]` moves to `cycle[k + 1]`, and the square at the last position to `cycle[0]`.
+     * @return cycles of the permutation, each starting at its lowest position, ordered by it
+     */
+    public List<int[]> cycles() {
+        List<int[]> cycles = new ArrayList<>();
+        int[] moved = dense != null ? null : targets;
+        int count = dense != null ? squares : targets.length;
+        boolean[] visited = new boolean[count];
+        for (int k = 0; k < count; k++) {
+            int first = moved == null ? k : moved[k];
+            if (visited[k] || source(first) == first) {
+                continue;
+            }
+            // sources lead backwards along the cycle
+            List<Integer> backwards = new ArrayList<>();
+            int position = first;
+            do {
+                visited[moved == null ? position : Arrays.binarySearch(moved, position)] = true;
+                backwards.add(position);
+                position = source(position);
+            } while (position != first);
+
+            int[] cycle = new int[backwards.size()];
+            cycle[0] = first;
+            for (int i = 1; i < cycle.length; i++) {
+                cycle[i] = backwards.get(cycle.length - i);
+            }
+            cycles.add(cycle);
+        }
+        return cycles;
+    }
+
+    /**
+     * @return smallest positive number of repetitions of the permutation moving every square back in place -
+     * the least common multiple of the lengths of its cycles (it can exceed `long` for big cubes)
+     */
+    public BigInteger order() {
+        BigInteger order = BigInteger.ONE;
+        for (int[] cycle : cycles()) {
+            BigInteger length = BigInteger.valueOf(cycle.length);
+            order = order.divide(order.gcd(length)).multiply(length);
+        }
+        return order;
+    }
+
+    /**
+     * @return whether the permutation moves no square
+     */
+    public boolean isIdentity() {
+        if (dense == null) {
+            return targets.length == 0;
+        }
+        for (int i = 0; i < squares; i++) {
+            if (dense[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        CubePermutation other = (CubePermutation) o;
+        if (size != other.size) {
+            return false;
+        }
+        if (dense == null && other.dense == null) {
+            return Arrays.equals(targets, other.targets) && Arrays.equals(sources, other.sources);
+        }
+        for (int i = 0; i < squares; i++) {
+            if (source(i) != other.source(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // dense and sparse permutations of the same squares must agree, so only moved squares count
+        int hash = size;
+        for (int i = 0; i < (dense != null ? squares : targets.length); i++) {
+            int target = dense != null ? i : targets[i];
+            int source = dense != null ? dense[i] : sources[i];
+            if (source != target) {
+                hash += target * 31 + source;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the same permutation, sparse if it moves few enough squares
+     */
+    private CubePermutation compact() {
+        if (dense == null) {
+            return this;
+        }
+        int[] changedTargets = new int[squares / DENSE_FRACTION + 1];
+        int[] changedSources = new int[changedTargets.length];
+        int count = 0;
+        for (int i = 0; i < squares && count < changedTargets.length; i++) {
+            if (dense[i] != i) {
+                changedTargets[count] = i;
+                changedSources[count++] = dense[i];
+            }
+        }
+        return count < changedTargets.length ? sparse(size, changedTargets, changedSources, count) : this;
+    }
+
+    /**
+     * Makes a permutation of the first `count` changes, dense if they are too many.
+     */
+    private static CubePermutation sparse(int size, int[] targets, int[] sources, int count) {
+        int squares = Side.SIDES.intValue() * size * size;
+        if (count > squares / DENSE_FRACTION) {
+            int[] dense = new int[squares];
+            for (int i = 0; i < squares; i++) {
+                dense[i] = i;
+            }
+            for (int i = 0; i < count; i++) {
+                dense[targets[i]] = sources[i];
+            }
+            return new CubePermutation(size, dense, null, null);
+        }
+        return new CubePermutation(size, null, Arrays.copyOf(targets, count), Arrays.copyOf(sources, count));
+    }
+
+    /**
+     * Rearranges the squares of `cube` - the square at position `source(i)` moves to position `i`.
+     * Reads and writes only the changed squares of a sparse permutation.
+     * The caller must have exclusive access to the cube.
+     * @param cube : a cube of size `getSize()`
+     */
+    public void applyTo(Cube cube) {
+        assert(cube.getSize() == size);
+        if (dense != null) {
+            cube.permute(dense);
+            return;
+        }
+        Color[] moved = new Color[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            moved[i] = cube.getSquareColor(sources[i]);
+        }
+        for (int i = 0; i < targets.length; i++) {
+            cube.setSquareColor(targets[i], moved[i]);
+        }
+    }
+
+}
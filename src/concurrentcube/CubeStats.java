@@ -0,0 +1,166 @@
+package concurrentcube;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters behind a cube's `CubeStatsMBean`.
+ * Operations are counted with `LongAdder`s, whose cells are padded against false sharing,
+ * so concurrent writers and readers don't contend on the counters.
+ */
+public class CubeStats implements CubeStatsMBean {
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final ProcessManager pm;
+    private final int size;
+    private final ObjectName name;
+
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder shows = new LongAdder();
+    private final RateSampler rotationRate = new RateSampler();
+    private final RateSampler showRate = new RateSampler();
+
+    /**
+     * Creates the counters of a cube and registers them in the platform MBean server.
+     * @param pm : manager of the monitored cube
+     * @param size : size of the monitored cube
+     * @param name : value of the `name` key of the MBean's object name
+     */
+    CubeStats(ProcessManager pm, int size, String name) {
+        this.pm = pm;
+        this.size = size;
+        try {
+            this.name = new ObjectName("concurrentcube", "name", name);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("Invalid MBean name.", e);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register MBean " + this.name + ".", e);
+        }
+    }
+
+    /**
+     * Removes the MBean from the platform MBean server.
+     */
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ignored) {
+            // already unregistered concurrently
+        }
+    }
+
+    void rotationsPerformed(int count) {
+        rotations.add(count);
+    }
+
+    void showPerformed() {
+        shows.increment();
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getActiveReaders() {
+        return pm.getActiveReaders();
+    }
+
+    @Override
+    public int getActiveWriters() {
+        return pm.getActiveWriters();
+    }
+
+    @Override
+    public int getWaitingReaders() {
+        return pm.getWaitingReaders();
+    }
+
+    @Override
+    public int getWaitingWriters() {
+        return pm.getWaitingWriters();
+    }
+
+    @Override
+    public int getWaitingTopBottom() {
+        return pm.getWaitingFromAxis(WorkingGroup.TopBottom);
+    }
+
+    @Override
+    public int getWaitingLeftRight() {
+        return pm.getWaitingFromAxis(WorkingGroup.LeftRight);
+    }
+
+    @Override
+    public int getWaitingFrontBack() {
+        return pm.getWaitingFromAxis(WorkingGroup.FrontBack);
+    }
+
+    @Override
+    public String getOwner() {
+        WorkingGroup owner = pm.getOwner();
+        return (owner == null) ? "None" : owner.name();
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations.sum();
+    }
+
+    @Override
+    public long getShows() {
+        return shows.sum();
+    }
+
+    @Override
+    public double getRotationRate() {
+        return rotationRate.rate(rotations.sum());
+    }
+
+    @Override
+    public double getShowRate() {
+        return showRate.rate(shows.sum());
+    }
+
+    /**
+     * Turns a cumulative count into a rate, recomputed at most once per `RATE_WINDOW_NANOS`.
+     */
+    private static class RateSampler {
+        private static class Sample {
+            final long time;
+            final long count;
+            final double rate;
+
+            Sample(long time, long count, double rate) {
+                this.time = time;
+                this.count = count;
+                this.rate = rate;
+            }
+        }
+
+        private final AtomicReference<Sample> last = new AtomicReference<>(new Sample(System.nanoTime(), 0, 0));
+
+        double rate(long count) {
+            Sample prev = last.get();
+            long now = System.nanoTime();
+            if (now - prev.time < RATE_WINDOW_NANOS) {
+                return prev.rate;
+            }
+            Sample next = new Sample(now, count, (count - prev.count) * 1e9 / (now - prev.time));
+            return last.compareAndSet(prev, next) ? next.rate : last.get().rate;
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package concurrentcube;
+
+/**
+ * Live view of a cube's concurrency state, readable over JMX (see `CubeOptions.mbeanName`).
+ * Counts of active and waiting processes are sampled without synchronization,
+ * so they may be slightly out of date, but never block the cube.
+ */
+public interface CubeStatsMBean {
+
+    int getSize();
+
+    int getActiveReaders();
+
+    int getActiveWriters();
+
+    int getWaitingReaders();
+
+    int getWaitingWriters();
+
+    int getWaitingTopBottom();
+
+    int getWaitingLeftRight();
+
+    int getWaitingFrontBack();
+
+    /**
+     * @return group currently working on the cube - an axis, `Readers` or `None`
+     */
+    String getOwner();
+
+    /**
+     * @return number of 90-degree layer rotations performed so far
+     */
+    long getRotations();
+
+    /**
+     * @return number of displays of the cube performed so far
+     */
+    long getShows();
+
+    /**
+     * @return rotations per second, averaged over at least the last second
+     */
+    double getRotationRate();
+
+    /**
+     * @return displays per second, averaged over at least the last second
+     */
+    double getShowRate();
+
+}
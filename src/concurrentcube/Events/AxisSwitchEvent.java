@@ -0,0 +1,25 @@
+package concurrentcube.Events;
+
+import jdk.jfr.*;
+
+/**
+ * The cube was handed to writers of a different group than the one that finished last.
+ */
+@Name("concurrentcube.AxisSwitch")
+@Label("Axis Switch")
+@Category("Concurrent Cube")
+@Description("Writers of a new axis took over the cube")
+public class AxisSwitchEvent extends Event {
+
+    @Label("Previous Group")
+    @Description("Group that finished working on the cube last (an axis or readers)")
+    public String previousGroup;
+
+    @Label("Axis")
+    public String axis;
+
+    @Label("Group Size")
+    @Description("Writers of the new axis admitted at once")
+    public int groupSize;
+
+}
@@ -0,0 +1,20 @@
+package concurrentcube.Events;
+
+import jdk.jfr.*;
+
+/**
+ * Readers had the cube to themselves - from the first reader's admission until the last one left.
+ * Committed by the thread of the last reader.
+ */
+@Name("concurrentcube.ReaderPhase")
+@Label("Reader Phase")
+@Category("Concurrent Cube")
+@Description("A period of the cube being displayed by one or more concurrent readers")
+@Threshold("1 ms")
+public class ReaderPhaseEvent extends Event {
+
+    @Label("Group Size")
+    @Description("Number of readers admitted during the phase")
+    public int groupSize;
+
+}
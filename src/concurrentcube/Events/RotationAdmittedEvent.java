@@ -0,0 +1,30 @@
+package concurrentcube.Events;
+
+import jdk.jfr.*;
+
+/**
+ * A writer was admitted to the cube. The event's duration is the time the writer waited
+ * for admission, from its entry protocol until it got hold of all of its planes.
+ */
+@Name("concurrentcube.RotationAdmitted")
+@Label("Rotation Admitted")
+@Category("Concurrent Cube")
+@Description("A rotation waited for and got access to the cube")
+@Threshold("1 ms")
+public class RotationAdmittedEvent extends Event {
+
+    @Label("Side")
+    public int side;
+
+    @Label("Layer")
+    @Description("First rotated layer")
+    public int layer;
+
+    @Label("Axis")
+    public String axis;
+
+    @Label("Group Size")
+    @Description("Number of writers working on the cube, including this one, right after admission")
+    public int groupSize;
+
+}
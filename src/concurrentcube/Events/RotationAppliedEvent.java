@@ -0,0 +1,33 @@
+package concurrentcube.Events;
+
+import jdk.jfr.*;
+
+/**
+ * A writer rotated the cube. The event's duration covers the rotation
+ * together with the `beforeRotation` and `afterRotation` actions.
+ */
+@Name("concurrentcube.RotationApplied")
+@Label("Rotation Applied")
+@Category("Concurrent Cube")
+@Description("A rotation was performed on the cube, including its actions")
+@Threshold("1 ms")
+public class RotationAppliedEvent extends Event {
+
+    @Label("Side")
+    public int side;
+
+    @Label("Layer")
+    @Description("First rotated layer")
+    public int layer;
+
+    @Label("Layers")
+    @Description("Number of layers rotated at once")
+    public int layers;
+
+    @Label("Axis")
+    public String axis;
+
+    @Label("Quarter Turns")
+    public int quarterTurns;
+
+}
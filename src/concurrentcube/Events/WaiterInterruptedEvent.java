@@ -0,0 +1,23 @@
+package concurrentcube.Events;
+
+import jdk.jfr.*;
+
+/**
+ * A thread waiting for access to the cube was interrupted.
+ * The event's duration is the time it had waited.
+ */
+@Name("concurrentcube.WaiterInterrupted")
+@Label("Waiter Interrupted")
+@Category("Concurrent Cube")
+@Description("A thread waiting for the cube was interrupted")
+public class WaiterInterruptedEvent extends Event {
+
+    @Label("Group")
+    @Description("Axis of the interrupted writer, or readers")
+    public String group;
+
+    @Label("Woken")
+    @Description("Whether the thread had already been admitted by an exiting process (it then proceeds)")
+    public boolean woken;
+
+}
@@ -0,0 +1,46 @@
+package concurrentcube;
+
+/**
+ * A single rotation requested from the cube: layer `layer` of `side` turned clockwise by `quarterTurns` right angles.
+ * Passed to the cohort actions (see `CubeOptions.beforeRotationGroup`).
+ */
+public final class Move {
+    private final int side;
+    private final int layer;
+    private final int quarterTurns;
+
+    public Move(int side, int layer, int quarterTurns) {
+        this.side = side;
+        this.layer = layer;
+        this.quarterTurns = quarterTurns;
+    }
+
+    public int getSide() {
+        return side;
+    }
+    public int getLayer() {
+        return layer;
+    }
+    public int getQuarterTurns() {
+        return quarterTurns;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Move move = (Move) o;
+        return side == move.side && layer == move.layer && quarterTurns == move.quarterTurns;
+    }
+
+    @Override
+    public int hashCode() {
+        return (side * 31 + layer) * 31 + quarterTurns;
+    }
+
+    @Override
+    public String toString() {
+        return "Move(" + side + ", " + layer + ", " + quarterTurns + ")";
+    }
+
+}
@@ -0,0 +1,181 @@
+package concurrentcube;
+
+/**
+ * Bounded history of the rotations of a cube, for undoing and redoing them (see `Cube.undo`, `Cube.redo`).
+ * Rotations are packed into a ring buffer of ints - `layer << 5 | side << 2 | (quarterTurns - 1)` -
+ * so recording a rotation allocates nothing, and the buffer takes `Integer.BYTES` per entry (see `footprint`).
+ * When the buffer is full, every recorded rotation overwrites the oldest one.
+ *
+ * The buffer holds the done rotations, oldest first, followed by the undone ones that may still be redone.
+ * Recording a rotation forgets the undone ones.
+ * All methods are synchronized, the cube records rotations while they hold their planes.
+ * Runs to undo or redo are peeked first and only taken once the cube has admitted them,
+ * if no other rotation has been recorded meanwhile (see `peekUndo`, `undo`).
+ */
+public class MoveHistory {
+    private static final int SIDE_SHIFT = 2;
+    private static final int LAYER_SHIFT = 5;
+
+    private final int[] entries;
+    /* Index of the oldest done rotation */
+    private int start = 0;
+    /* Number of done rotations */
+    private int done = 0;
+    /* Number of undone rotations, following the done ones */
+    private int undone = 0;
+    /* Number of changes of the history, so that a peeked run can be checked before it's taken */
+    private long stamp = 0;
+
+    /**
+     * @param capacity : maximal number of remembered rotations
+     */
+    MoveHistory(int capacity) {
+        assert(capacity > 0);
+        this.entries = new int[capacity];
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return number of rotations that may be undone
+     */
+    public synchronized int undoable() {
+        return done;
+    }
+
+    /**
+     * @return number of rotations that may be redone
+     */
+    public synchronized int redoable() {
+        return undone;
+    }
+
+    /**
+     * @return number of bytes taken by the buffer's entries
+     */
+    public long footprint() {
+        return (long) Integer.BYTES * entries.length;
+    }
+
+    /**
+     * Appends a done rotation, forgetting the undone ones.
+     * @param side : rotated face
+     * @param layer : rotated layer
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    synchronized void record(int side, int layer, int quarterTurns) {
+        entries[(start + done) % entries.length] = pack(side, layer, quarterTurns);
+        if (done == entries.length) {
+            start = (start + 1) % entries.length;
+        }
+        else {
+            done++;
+        }
+        undone = 0;
+        stamp++;
+    }
+
+    /**
+     * Appends the inverses of the latest done rotations to `inverses`, latest first -
+     * at most `n` of them, all around the axis of the latest one - without marking them as undone.
+     * @return stamp of the history, for `undo`
+     */
+    synchronized long peekUndo(int n, RotationBatch inverses) {
+        int count = 0;
+        WorkingGroup axis = null;
+        while (count < n && count < done) {
+            int entry = entries[(start + done - 1 - count) % entries.length];
+            if (axis != null && axis != axis(entry)) {
+                break;
+            }
+            axis = axis(entry);
+            inverses.add(side(entry), layer(entry), 4 - quarterTurns(entry));
+            count++;
+        }
+        return stamp;
+    }
+
+    /**
+     * Marks the latest `count` done rotations as undone, unless the history has changed since `stamp` was taken.
+     * @return whether the rotations were marked as undone
+     */
+    synchronized boolean undo(long stamp, int count) {
+        if (stamp != this.stamp || count > done) {
+            return false;
+        }
+        done -= count;
+        undone += count;
+        this.stamp++;
+        return true;
+    }
+
+    /**
+     * Appends the earliest undone rotations to `rotations`, earliest first - at most `n` of them,
+     * all around the axis of the earliest one - without marking them as done.
+     * @return stamp of the history, for `redo`
+     */
+    synchronized long peekRedo(int n, RotationBatch rotations) {
+        int count = 0;
+        WorkingGroup axis = null;
+        while (count < n && count < undone) {
+            int entry = entries[(start + done + count) % entries.length];
+            if (axis != null && axis != axis(entry)) {
+                break;
+            }
+            axis = axis(entry);
+            rotations.add(side(entry), layer(entry), quarterTurns(entry));
+            count++;
+        }
+        return stamp;
+    }
+
+    /**
+     * Marks the earliest `count` undone rotations as done, unless the history has changed since `stamp` was taken.
+     * @return whether the rotations were marked as done
+     */
+    synchronized boolean redo(long stamp, int count) {
+        if (stamp != this.stamp || count > undone) {
+            return false;
+        }
+        done += count;
+        undone -= count;
+        this.stamp++;
+        return true;
+    }
+
+    /**
+     * Forgets all rotations.
+     */
+    synchronized void clear() {
+        start = 0;
+        done = 0;
+        undone = 0;
+        stamp++;
+    }
+
+    /**
+     * @return rotation packed into an int, as the history stores it
+     */
+    static int pack(int side, int layer, int quarterTurns) {
+        return layer << LAYER_SHIFT | side << SIDE_SHIFT | (quarterTurns - 1);
+    }
+
+    static int side(int entry) {
+        return entry >>> SIDE_SHIFT & 7;
+    }
+
+    static int layer(int entry) {
+        return entry >>> LAYER_SHIFT;
+    }
+
+    static int quarterTurns(int entry) {
+        return (entry & 3) + 1;
+    }
+
+    private static WorkingGroup axis(int entry) {
+        return WorkingGroup.fromSide(Side.fromInt(side(entry)));
+    }
+
+}
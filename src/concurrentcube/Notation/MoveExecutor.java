@@ -0,0 +1,136 @@
+package concurrentcube.Notation;
+
+import concurrentcube.Cube;
+import concurrentcube.RotationBatch;
+import concurrentcube.Side;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Streams moves written in standard notation (see `MoveParser`) into a cube.
+ *
+ * The input is read in chunks, and all rotations of a chunk are submitted
+ * to the cube as one `RotationBatch`, so consecutive moves around the same axis
+ * share a single admission.
+ * If the input turns out to be invalid, the moves of the chunk containing the error are dropped,
+ * while those of earlier chunks remain applied. Moves are counted only once their chunk is admitted.
+ * Every executor reuses its buffers, parser and batch - it is not thread-safe,
+ * but any number of executors may feed the same cube concurrently.
+ */
+public class MoveExecutor implements MoveSink {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Cube cube;
+    private final MoveParser parser;
+    private final RotationBatch batch = new RotationBatch(CHUNK_SIZE);
+    private final char[] chars = new char[CHUNK_SIZE];
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+    /* Moves admitted by the cube */
+    private long moves;
+    /* Moves of the current batch, counted once the cube admits it */
+    private long pending;
+
+    public MoveExecutor(Cube cube) {
+        this.cube = cube;
+        this.parser = new MoveParser(cube.getSize(), this);
+    }
+
+    /**
+     * @return number of moves this executor has executed, in all calls
+     */
+    public long getExecutedMoves() {
+        return moves;
+    }
+
+    /**
+     * Adds a parsed move to the current batch.
+     */
+    @Override
+    public void move(Side side, int fromLayer, int toLayer, int quarterTurns) {
+        for (int layer = fromLayer; layer <= toLayer; layer++) {
+            batch.add(side.intValue(), layer, quarterTurns);
+        }
+        pending++;
+    }
+
+    /**
+     * Executes all moves of `moves`.
+     * @return number of executed moves
+     */
+    public long execute(CharSequence moves) throws InterruptedException {
+        long before = this.moves;
+        try {
+            for (int i = 0; i < moves.length(); i += CHUNK_SIZE) {
+                int end = Math.min(moves.length(), i + CHUNK_SIZE);
+                for (int j = i; j < end; j++) {
+                    parser.feed(moves.charAt(j));
+                }
+                flush();
+            }
+            parser.finish();
+            flush();
+        } finally {
+            batch.clear();
+            pending = 0;
+        }
+        return this.moves - before;
+    }
+
+    /**
+     * Executes all moves read from `reader` until the end of the stream.
+     * @return number of executed moves
+     */
+    public long execute(Reader reader) throws IOException, InterruptedException {
+        long before = this.moves;
+        try {
+            int read;
+            while ((read = reader.read(chars)) >= 0) {
+                parser.feed(chars, 0, read);
+                flush();
+            }
+            parser.finish();
+            flush();
+        } finally {
+            batch.clear();
+            pending = 0;
+        }
+        return this.moves - before;
+    }
+
+    /**
+     * Executes all moves read from `channel` (ASCII text) until the end of the stream.
+     * @return number of executed moves
+     */
+    public long execute(ReadableByteChannel channel) throws IOException, InterruptedException {
+        long before = this.moves;
+        try {
+            bytes.clear();
+            while (channel.read(bytes) >= 0) {
+                bytes.flip();
+                parser.feed(bytes);
+                bytes.clear();
+                flush();
+            }
+            parser.finish();
+            flush();
+        } finally {
+            batch.clear();
+            pending = 0;
+        }
+        return this.moves - before;
+    }
+
+    private void flush() throws InterruptedException {
+        if (!batch.isEmpty()) {
+            cube.rotate(batch);
+            batch.clear();
+            moves += pending;
+            pending = 0;
+        }
+    }
+
+}
@@ -0,0 +1,290 @@
+package concurrentcube.Notation;
+
+import concurrentcube.Side;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming parser of standard (Singmaster/SiGN) cube notation.
+ *
+ * Supported moves, all optionally followed by a number of turns and/or an apostrophe (ex. R2, R', R2'):
+ * - face moves: U, L, F, R, B, D,
+ * - wide moves: Uw or u (the two outermost layers),
+ * - layer prefixes for big cubes: 3R (third layer only), 3Rw or 3r (three outermost layers),
+ *   2-4Rw or 2-4r (second to fourth layer),
+ * - slice moves: M (as L), E (as D), S (as F) - all inner layers,
+ * - whole cube rotations: x (as R), y (as U), z (as F).
+ * Moves may be separated by whitespace but don't have to be (ex. RUR'U').
+ *
+ * Note that lowercase letters denote wide moves, as in the standard,
+ * and not anti-clockwise turns as in `CubeTest`.
+ *
+ * Input may be fed in arbitrary chunks - a move split between chunks is completed by the next one.
+ * The parser allocates nothing after construction (unless the input is invalid).
+ * A parser is not thread-safe.
+ */
+public class MoveParser {
+
+    private enum State {
+        START,      // between moves
+        PREFIX,     // inside the first number of a layer prefix
+        DASH,       // right after the '-' of a layer range
+        PREFIX_END, // inside the second number of a layer range
+        LETTER,     // right after the move's letter
+        WIDE,       // right after the 'w' of a wide move
+        AMOUNT,     // inside the number of turns
+        PRIME       // right after the apostrophe
+    }
+
+    private final int size;
+    private final MoveSink sink;
+
+    private State state = State.START;
+    private long position;
+
+    /* Data of the move being parsed */
+    private int prefixStart;
+    private int prefixEnd;
+    private boolean hasPrefix;
+    private boolean hasRange;
+    private char letter;
+    private boolean wide;
+    private int amount;
+    private boolean hasAmount;
+
+    /**
+     * @param size : size of the cube the moves are meant for
+     * @param sink : receiver of parsed moves
+     */
+    public MoveParser(int size, MoveSink sink) {
+        this.size = size;
+        this.sink = sink;
+    }
+
+    /**
+     * @return number of characters fed so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public void feed(CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            feed(chars.charAt(i));
+        }
+    }
+
+    public void feed(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            feed(chars[i]);
+        }
+    }
+
+    /**
+     * Feeds all remaining bytes of `bytes` as ASCII characters.
+     * @param bytes : ASCII text
+     */
+    public void feed(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            feed((char) (bytes.get() & 0xFF));
+        }
+    }
+
+    /**
+     * Feeds a single character.
+     * @param c : next character of the input
+     * @throws IllegalArgumentException : if the input is not valid notation
+     */
+    public void feed(char c) {
+        switch (state) {
+            case START:
+                if (isDigit(c)) {
+                    hasPrefix = true;
+                    prefixStart = c - '0';
+                    state = State.PREFIX;
+                } else if (isMoveLetter(c)) {
+                    startMove(c);
+                } else if (!isSeparator(c)) {
+                    throw invalid();
+                }
+                break;
+            case PREFIX:
+            case PREFIX_END:
+                if (isDigit(c)) {
+                    if (state == State.PREFIX) {
+                        prefixStart = accumulate(prefixStart, c);
+                    } else {
+                        prefixEnd = accumulate(prefixEnd, c);
+                    }
+                } else if (c == '-' && state == State.PREFIX) {
+                    hasRange = true;
+                    prefixEnd = 0;
+                    state = State.DASH;
+                } else if (isFaceLetter(c)) {
+                    letter = c;
+                    state = State.LETTER;
+                } else {
+                    throw invalid();
+                }
+                break;
+            case DASH:
+                if (!isDigit(c)) {
+                    throw invalid();
+                }
+                prefixEnd = c - '0';
+                state = State.PREFIX_END;
+                break;
+            default:
+                // after the move's letter - only a 'w', the number of turns and an apostrophe may follow
+                if (c == 'w' && state == State.LETTER && Character.isUpperCase(letter) && isFaceLetter(letter)) {
+                    wide = true;
+                    state = State.WIDE;
+                } else if (isDigit(c) && (state == State.LETTER || state == State.WIDE)) {
+                    hasAmount = true;
+                    amount = c - '0';
+                    state = State.AMOUNT;
+                } else if (isDigit(c) && state == State.AMOUNT) {
+                    amount = accumulate(amount, c);
+                } else if ((c == '\'' || c == '\u2019') && state != State.PRIME) {
+                    state = State.PRIME;
+                } else if (isSeparator(c)) {
+                    emit();
+                } else if (isMoveLetter(c)) {
+                    emit();
+                    startMove(c);
+                } else if (isDigit(c)) {
+                    // only reachable after an apostrophe - a prefix of the next move
+                    emit();
+                    hasPrefix = true;
+                    prefixStart = c - '0';
+                    state = State.PREFIX;
+                } else {
+                    throw invalid();
+                }
+                break;
+        }
+        position++;
+    }
+
+    /**
+     * Completes the last move of the input.
+     * @throws IllegalArgumentException : if the input ends in the middle of a move
+     */
+    public void finish() {
+        switch (state) {
+            case START:
+                break;
+            case LETTER: case WIDE: case AMOUNT: case PRIME:
+                emit();
+                break;
+            default:
+                throw invalid();
+        }
+    }
+
+    private void startMove(char c) {
+        letter = c;
+        state = State.LETTER;
+    }
+
+    private void emit() {
+        int turns = (hasAmount ? amount : 1) % 4;
+        if (state == State.PRIME) {
+            turns = (4 - turns) % 4;
+        }
+
+        Side side;
+        int from;
+        int to;
+        switch (letter) {
+            case 'M': side = Side.Left; from = 1; to = size - 2; break;
+            case 'E': side = Side.Bottom; from = 1; to = size - 2; break;
+            case 'S': side = Side.Front; from = 1; to = size - 2; break;
+            case 'x': side = Side.Right; from = 0; to = size - 1; break;
+            case 'y': side = Side.Top; from = 0; to = size - 1; break;
+            case 'z': side = Side.Front; from = 0; to = size - 1; break;
+            default:
+                side = faceOf(Character.toUpperCase(letter));
+                boolean isWide = wide || Character.isLowerCase(letter);
+                if (hasRange) {
+                    from = prefixStart - 1;
+                    to = prefixEnd - 1;
+                } else if (isWide) {
+                    from = 0;
+                    to = hasPrefix ? prefixStart - 1 : 1;
+                } else {
+                    from = hasPrefix ? prefixStart - 1 : 0;
+                    to = from;
+                }
+        }
+        if (from < 0 || to >= size || from > to) {
+            throw invalid();
+        }
+
+        if (turns != 0) {
+            sink.move(side, from, to, turns);
+        }
+
+        state = State.START;
+        hasPrefix = false;
+        hasRange = false;
+        wide = false;
+        hasAmount = false;
+    }
+
+    private int accumulate(int value, char digit) {
+        if (value > (Integer.MAX_VALUE - 9) / 10) {
+            throw invalid();
+        }
+        return 10 * value + (digit - '0');
+    }
+
+    private IllegalArgumentException invalid() {
+        state = State.START;
+        hasPrefix = false;
+        hasRange = false;
+        wide = false;
+        hasAmount = false;
+        return new IllegalArgumentException("Invalid move notation at position " + position + ".");
+    }
+
+    private static Side faceOf(char c) {
+        switch (c) {
+            case 'U': return Side.Top;
+            case 'L': return Side.Left;
+            case 'F': return Side.Front;
+            case 'R': return Side.Right;
+            case 'B': return Side.Back;
+            case 'D': return Side.Bottom;
+            default : throw new IndexOutOfBoundsException("Invalid side.");
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isFaceLetter(char c) {
+        switch (c) {
+            case 'U': case 'L': case 'F': case 'R': case 'B': case 'D':
+            case 'u': case 'l': case 'f': case 'r': case 'b': case 'd':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isMoveLetter(char c) {
+        switch (c) {
+            case 'M': case 'E': case 'S': case 'x': case 'y': case 'z':
+                return true;
+            default:
+                return isFaceLetter(c);
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ',';
+    }
+
+}
@@ -0,0 +1,118 @@
+package concurrentcube.Notation;
+
+import concurrentcube.Cube;
+import concurrentcube.CubeOptions;
+import concurrentcube.CubePermutation;
+import concurrentcube.RotationBatch;
+import concurrentcube.Rotations.Rotation;
+import concurrentcube.Side;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An algorithm - a sequence of moves for cubes of a given size, to be analysed rather than executed.
+ * Parsed moves may be appended to it directly (see `parse`), as it is a `MoveSink`.
+ *
+ * The sequence is compiled into a `CubePermutation` once (see `toPermutation`),
+ * which answers questions about repetitions of the whole algorithm without turning any cube -
+ * e.g. `toPermutation().power(1_000_000_000L)` takes about 30 compositions, and `toPermutation().order()`
+ * is the number of repetitions bringing a cube back to its initial state.
+ *
+ * A sequence is not thread-safe.
+ */
+public class MoveSequence implements MoveSink {
+    private final int size;
+    private final RotationBatch moves = new RotationBatch();
+
+    /**
+     * @param size : size of the cubes the moves are meant for
+     */
+    public MoveSequence(int size) {
+        assert(size > 0);
+        this.size = size;
+    }
+
+    /**
+     * @param size : size of the cubes the moves are meant for
+     * @param notation : moves in standard notation (see `MoveParser`)
+     * @return sequence of the moves
+     */
+    public static MoveSequence parse(int size, CharSequence notation) {
+        MoveSequence sequence = new MoveSequence(size);
+        MoveParser parser = new MoveParser(size, sequence);
+        parser.feed(notation);
+        parser.finish();
+        return sequence;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of single-layer rotations in the sequence
+     */
+    public int length() {
+        return moves.size();
+    }
+
+    /**
+     * Appends a parsed move, one rotation per turned layer.
+     */
+    @Override
+    public void move(Side side, int fromLayer, int toLayer, int quarterTurns) {
+        for (int layer = fromLayer; layer <= toLayer; layer++) {
+            add(side.intValue(), layer, quarterTurns);
+        }
+    }
+
+    /**
+     * Appends a rotation (see `Cube.rotate(side, layer, quarterTurns)`).
+     * @param side : rotated face
+     * @param layer : rotated layer
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    public void add(int side, int layer, int quarterTurns) {
+        if (side < 0 || side >= Side.SIDES.intValue()) {
+            throw new IndexOutOfBoundsException("Invalid side.");
+        }
+        if (layer < 0 || layer >= size) {
+            throw new IndexOutOfBoundsException("Invalid layer.");
+        }
+        if (quarterTurns < 1 || quarterTurns > 3) {
+            throw new IllegalArgumentException("Invalid number of quarter turns.");
+        }
+        moves.add(side, layer, quarterTurns);
+    }
+
+    /**
+     * @return sequence undoing this one - its moves in reverse order, each turned the other way
+     */
+    public MoveSequence inverse() {
+        MoveSequence inverse = new MoveSequence(size);
+        for (int i = moves.size() - 1; i >= 0; i--) {
+            inverse.add(moves.getSide(i), moves.getLayer(i), 4 - moves.getQuarterTurns(i));
+        }
+        return inverse;
+    }
+
+    /**
+     * Compiles the sequence into the permutation of squares it performs (see `CubePermutation.compose`).
+     * @return permutation performed by the whole sequence
+     */
+    public CubePermutation toPermutation() {
+        // rotations only need a cube of the right size for their geometry - a sparse one costs next to nothing
+        Cube geometry = new Cube(size, null, null, null, null,
+                new CubeOptions().storage(CubeOptions.Storage.SPARSE));
+        List<Rotation> rotations = new ArrayList<>();
+        for (int i = 0; i < moves.size(); i++) {
+            Rotation rotation = Rotation.newRotation(geometry, Side.fromInt(moves.getSide(i)), moves.getLayer(i));
+            for (int turn = 0; turn < moves.getQuarterTurns(i); turn++) {
+                rotations.add(rotation);
+            }
+        }
+        return CubePermutation.compose(rotations, size);
+    }
+
+}
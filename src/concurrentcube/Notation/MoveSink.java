@@ -0,0 +1,21 @@
+package concurrentcube.Notation;
+
+import concurrentcube.Side;
+
+/**
+ * Receives moves decoded by a `MoveParser`.
+ */
+public interface MoveSink {
+
+    /**
+     * Called for every parsed move. A move turns layers `fromLayer` to `toLayer` (inclusive)
+     * as seen from `side` by `quarterTurns` clockwise quarter turns, i.e. it is equivalent to
+     * calling `Cube.rotate(side, layer)` `quarterTurns` times for each of these layers.
+     * @param side : face the layers are counted from
+     * @param fromLayer : first turned layer
+     * @param toLayer : last turned layer
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    void move(Side side, int fromLayer, int toLayer, int quarterTurns);
+
+}
@@ -0,0 +1,174 @@
+package concurrentcube.Notation;
+
+import concurrentcube.Cube;
+import concurrentcube.RotationBatch;
+import concurrentcube.Rotations.Rotation;
+import concurrentcube.Side;
+import concurrentcube.WorkingGroup;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes an ordered list of moves on a cube using several threads, leaving the cube
+ * as executing the moves one by one would.
+ *
+ * Two moves commute exactly when they share a `WorkingGroup` and turn different planes (see `Rotation.getPlane`),
+ * so a move depends on every earlier move around another axis, and on earlier moves of its plane.
+ * The dependency DAG therefore consists of the maximal runs of consecutive moves around the same axis,
+ * each depending on the whole previous run, and within a run of one chain of moves per plane:
+ * - the chains of a run are dispatched concurrently to the workers, each as one `RotationBatch`
+ *   (a single admission occupying its plane), and the cube's `ProcessManager` lets them rotate in parallel,
+ * - the next run is dispatched once all chains of the current one are done.
+ * A run with a single chain is executed by the calling thread.
+ *
+ * An executor is not thread-safe, but any number of executors may feed the same cube concurrently.
+ */
+public class ParallelMoveExecutor implements Closeable, MoveSink {
+    private final Cube cube;
+    private final ExecutorService workers;
+    private final MoveParser parser;
+    private final RotationBatch parsed = new RotationBatch();
+
+    /**
+     * @param cube : cube the moves are executed on
+     * @param numWorkers : number of threads executing chains of moves
+     */
+    public ParallelMoveExecutor(Cube cube, int numWorkers) {
+        this.cube = cube;
+        this.workers = Executors.newFixedThreadPool(numWorkers);
+        this.parser = new MoveParser(cube.getSize(), this);
+    }
+
+    /**
+     * Adds a parsed move to the list executed by `execute(CharSequence)`.
+     */
+    @Override
+    public void move(Side side, int fromLayer, int toLayer, int quarterTurns) {
+        for (int layer = fromLayer; layer <= toLayer; layer++) {
+            parsed.add(side.intValue(), layer, quarterTurns);
+        }
+    }
+
+    /**
+     * Executes all moves of `moves`, written in standard notation (see `MoveParser`).
+     * @throws IllegalArgumentException : if the notation is invalid, before any move is executed
+     */
+    public void execute(CharSequence moves) throws InterruptedException {
+        parsed.clear();
+        parser.feed(moves);
+        parser.finish();
+        execute(parsed);
+    }
+
+    /**
+     * Executes the rotations of `moves` run by run (see above).
+     * If the thread is interrupted, the chains of the current run are interrupted too,
+     * and earlier runs remain applied.
+     * @param moves : rotations in their sequential order
+     * @throws IndexOutOfBoundsException, IllegalArgumentException : if any rotation is invalid,
+     * before any rotation is executed
+     */
+    public void execute(RotationBatch moves) throws InterruptedException {
+        for (int i = 0; i < moves.size(); i++) {
+            if (moves.getSide(i) < 0 || moves.getSide(i) >= Side.SIDES.intValue()) {
+                throw new IndexOutOfBoundsException("Invalid side.");
+            }
+            if (moves.getLayer(i) < 0 || moves.getLayer(i) >= cube.getSize()) {
+                throw new IndexOutOfBoundsException("Invalid layer.");
+            }
+            if (moves.getQuarterTurns(i) < 1 || moves.getQuarterTurns(i) > 3) {
+                throw new IllegalArgumentException("Invalid number of quarter turns.");
+            }
+        }
+
+        int runStart = 0;
+        while (runStart < moves.size()) {
+            WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(moves.getSide(runStart)));
+            int runEnd = runStart + 1;
+            while (runEnd < moves.size()
+                    && WorkingGroup.fromSide(Side.fromInt(moves.getSide(runEnd))) == axis) {
+                runEnd++;
+            }
+
+            List<RotationBatch> chains = chains(moves, runStart, runEnd);
+            if (chains.size() == 1) {
+                cube.rotate(chains.get(0));
+            }
+            else {
+                dispatch(chains);
+            }
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * Splits a run of moves around one axis into chains of moves of the same plane, keeping their order.
+     */
+    private List<RotationBatch> chains(RotationBatch moves, int from, int to) {
+        Map<Integer, RotationBatch> byPlane = new HashMap<>();
+        List<RotationBatch> chains = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            int plane = Rotation.getPlane(cube.getSize(), moves.getSide(i), moves.getLayer(i));
+            RotationBatch chain = byPlane.get(plane);
+            if (chain == null) {
+                chain = new RotationBatch();
+                byPlane.put(plane, chain);
+                chains.add(chain);
+            }
+            chain.add(moves.getSide(i), moves.getLayer(i), moves.getQuarterTurns(i));
+        }
+        return chains;
+    }
+
+    /**
+     * Executes commuting chains concurrently and waits for all of them.
+     */
+    private void dispatch(List<RotationBatch> chains) throws InterruptedException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (RotationBatch chain : chains) {
+            tasks.add(() -> {
+                cube.rotate(chain);
+                return null;
+            });
+        }
+
+        // invokeAll cancels (interrupts) the unfinished chains if the calling thread is interrupted
+        for (Future<Void> done : workers.invokeAll(tasks)) {
+            try {
+                done.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedException) {
+                    throw (InterruptedException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Stops the workers, interrupting chains still waiting for the cube.
+     */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package concurrentcube;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Dense binary form of a cube's state, as returned by `Cube.showPacked`.
+ *
+ * Every square takes 3 bits holding its color, squares are in the order of `Cube.toString`
+ * (side, row, column) and are packed into a little-endian bit stream -
+ * square `i` occupies bits `3i` to `3i + 2`, so every 3 bytes hold 8 squares.
+ * Unused bits of the last byte are zero.
+ *
+ * A state takes 3/8 of a byte per square - over 60% less than a byte per square
+ * and over 5 times less than the UTF-16 string returned by `Cube.show`.
+ */
+public final class PackedState {
+    public static final int BITS_PER_SQUARE = 3;
+
+    private static final int SQUARE_MASK = (1 << BITS_PER_SQUARE) - 1;
+    private static final int SQUARES_PER_GROUP = 8;
+    private static final int BYTES_PER_GROUP = 3;
+
+    private PackedState() {}
+
+    /**
+     * @param size : size of a cube
+     * @return number of bytes of the packed state of a cube of size `size`
+     */
+    public static int length(int size) {
+        return (numSquares(size) * BITS_PER_SQUARE + 7) / 8;
+    }
+
+    /**
+     * Packs the current state of a cube. Meant to be passed to `Cube.showAs`,
+     * so that the state is packed straight from the squares, with reader access to the cube.
+     * @param cube : displayed cube
+     * @return packed state
+     */
+    public static byte[] encode(Cube cube) {
+        byte[] packed = new byte[length(cube.getSize())];
+        encode(cube.rows(), ByteBuffer.wrap(packed));
+        return packed;
+    }
+
+    /**
+     * Writes the packed state of a cube at the buffer's position, advancing it by `length(size)` bytes.
+     * The state goes straight into the buffer, heap or direct, without a temporary array.
+     * @param cube : displayed cube
+     * @param dst : buffer with at least `length(size)` bytes remaining
+     */
+    public static void encode(Cube cube, ByteBuffer dst) {
+        encode(cube.rows(), dst);
+    }
+
+    /**
+     * Packs a state given as color numbers (see `decode`).
+     * @param colors : colors of all squares of a cube, in the order of `Cube.toString`
+     * @return packed state
+     */
+    static byte[] encode(byte[] colors) {
+        byte[] packed = new byte[(colors.length * BITS_PER_SQUARE + 7) / 8];
+        int offset = 0;
+        int i = 0;
+        for (; i + SQUARES_PER_GROUP <= colors.length; i += SQUARES_PER_GROUP) {
+            int group = 0;
+            for (int j = 0; j < SQUARES_PER_GROUP; j++) {
+                group |= colors[i + j] << (j * BITS_PER_SQUARE);
+            }
+            packed[offset++] = (byte) group;
+            packed[offset++] = (byte) (group >>> 8);
+            packed[offset++] = (byte) (group >>> 16);
+        }
+        int bits = 0;
+        for (int j = 0; i + j < colors.length; j++) {
+            bits |= colors[i + j] << (j * BITS_PER_SQUARE);
+        }
+        for (; offset < packed.length; offset++) {
+            packed[offset] = (byte) bits;
+            bits >>>= 8;
+        }
+        return packed;
+    }
+
+    private static void encode(SquareRows rows, ByteBuffer dst) {
+        int bits = 0;
+        int numBits = 0;
+        for (Color[] row = rows.next(); row != null; row = rows.next()) {
+            for (Color color : row) {
+                bits |= color.intValue() << numBits;
+                numBits += BITS_PER_SQUARE;
+                if (numBits == SQUARES_PER_GROUP * BITS_PER_SQUARE) {
+                    dst.put((byte) bits);
+                    dst.put((byte) (bits >>> 8));
+                    dst.put((byte) (bits >>> 16));
+                    bits = 0;
+                    numBits = 0;
+                }
+            }
+        }
+        for (; numBits > 0; numBits -= 8) {
+            dst.put((byte) bits);
+            bits >>>= 8;
+        }
+    }
+
+    /**
+     * Unpacks a state into color numbers (see `Color.intValue`), reading `length(size)` bytes
+     * from the buffer's position and advancing it.
+     * @param src : packed state
+     * @param size : size of the cube
+     * @param colors : destination with room for all `6 * size * size` squares
+     */
+    public static void decode(ByteBuffer src, int size, byte[] colors) {
+        int numSquares = numSquares(size);
+        int i = 0;
+        for (; i + SQUARES_PER_GROUP <= numSquares; i += SQUARES_PER_GROUP) {
+            int group = (src.get() & 0xFF) | (src.get() & 0xFF) << 8 | (src.get() & 0xFF) << 16;
+            colors[i] = (byte) (group & SQUARE_MASK);
+            colors[i + 1] = (byte) ((group >>> 3) & SQUARE_MASK);
+            colors[i + 2] = (byte) ((group >>> 6) & SQUARE_MASK);
+            colors[i + 3] = (byte) ((group >>> 9) & SQUARE_MASK);
+            colors[i + 4] = (byte) ((group >>> 12) & SQUARE_MASK);
+            colors[i + 5] = (byte) ((group >>> 15) & SQUARE_MASK);
+            colors[i + 6] = (byte) ((group >>> 18) & SQUARE_MASK);
+            colors[i + 7] = (byte) ((group >>> 21) & SQUARE_MASK);
+        }
+
+        int tailBytes = ((numSquares - i) * BITS_PER_SQUARE + 7) / 8;
+        int group = 0;
+        for (int b = 0; b < tailBytes; b++) {
+            group |= (src.get() & 0xFF) << (8 * b);
+        }
+        for (; i < numSquares; i++) {
+            colors[i] = (byte) (group & SQUARE_MASK);
+            group >>>= BITS_PER_SQUARE;
+        }
+    }
+
+    /**
+     * Converts a packed state to the representation returned by `Cube.show`.
+     * @param packed : packed state
+     * @param size : size of the cube
+     * @return string of digits between 0 and 5
+     */
+    public static String toDigits(byte[] packed, int size) {
+        return toDigits(ByteBuffer.wrap(packed), size);
+    }
+
+    /**
+     * Same as above, reading the state from the buffer's position and advancing it.
+     */
+    public static String toDigits(ByteBuffer packed, int size) {
+        byte[] colors = new byte[numSquares(size)];
+        decode(packed, size, colors);
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] += '0';
+        }
+        return new String(colors, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int numSquares(int size) {
+        return Side.SIDES.intValue() * size * size;
+    }
+
+}
@@ -1,18 +1,31 @@
 package concurrentcube;
 
+import concurrentcube.Events.*;
 import concurrentcube.Rotations.Rotation;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class ProcessManager {
+    /*
+     * Permits of a plane's semaphore: a writer takes all of them, a face read (see `Cube.showFaceAs`)
+     * only one, so reads of a face don't exclude each other.
+     */
+    private static final int PLANE_PERMITS = Integer.MAX_VALUE;
+
     /* Mutual exclusion semaphore implemented as a binary semaphore. */
     private final Semaphore varProtection;
-    /* Semaphore to hang awaiting `show` requests */
-    private final Semaphore readerSem;
-    /* Semaphores to guarantee mutual exclusion between rotations of the plane */
+    /* Acquires the semaphores as the cube's wait strategy says */
+    private final Acquirer acquirer;
+    /* Queue of awaiting `show` requests */
+    private final Ticket.Queue readerQueue;
+    /* Semaphores to guarantee mutual exclusion between rotations of the plane, and reads of its faces */
     private final Semaphore[] planeMutexes;
-    /* Semaphores to hang rotations conflicting with the currently working axis */
-    private final Semaphore[] axisSems;
+    /* Queues of rotations conflicting with the currently working axis, one per axis */
+    private final Ticket.Queue[] writerQueues;
 
     /* Number of processes that currently displaying the cube */
     private int activeReaders;
@@ -22,6 +35,8 @@ public class ProcessManager {
     private int waitingWriters;
     /* Number of processes currently rotating the cube */
     private int activeWriters;
+    /* Number of face reads working alongside the writers of `currentAxis` */
+    private int activeFaceReaders;
 
     /* Number of writers from each axis waiting for cube access */
     private final int[] waitingFromAxis;
@@ -31,27 +46,92 @@ public class ProcessManager {
     /* ID of the last group of writers that finished their work */
     private WorkingGroup lastFinishedGroup;
 
+    /* Recording of the current reader phase and the number of readers admitted in it */
+    private ReaderPhaseEvent readerPhase;
+    private int readersInPhase;
+
+    /* Policy choosing which waiting group gets the cube */
+    private final CubeOptions.Fairness fairness;
+    private final int maxPhaseLength;
+    /* Number of processes admitted in the current phase */
+    private int phaseAdmissions;
+    /* Number of processes that have been queued so far, orders the queued tickets */
+    private long arrivals;
+
+    /* Are cohorts of writers formed, for the cohort actions */
+    private final boolean formsCohorts;
+
     /* Cube handled by the manager */
     private final Cube cube;
+    /* Counters of the cube's MBean, null if the cube is not monitored */
+    private final CubeStats stats;
 
     public ProcessManager(Cube cube) {
         this.cube = cube;
 
         this.varProtection = new Semaphore(1);
-        this.readerSem = new Semaphore(0, true);
+        this.acquirer = new Acquirer(cube.getOptions().getWaitStrategy());
+        this.readerQueue = new Ticket.Queue();
 
         this.waitingFromAxis = new int[WorkingGroup.NUM_AXES.intValue()];
-        this.axisSems = new Semaphore[WorkingGroup.NUM_AXES.intValue()];
+        this.writerQueues = new Ticket.Queue[WorkingGroup.NUM_AXES.intValue()];
         for (int axis = 0; axis < WorkingGroup.NUM_AXES.intValue(); axis++) {
-            this.axisSems[axis] = new Semaphore(0);
+            this.writerQueues[axis] = new Ticket.Queue();
         }
 
         this.planeMutexes = new Semaphore[cube.getSize()];
         for (int plane = 0; plane < cube.getSize(); plane++) {
-            this.planeMutexes[plane] = new Semaphore(1);
+            this.planeMutexes[plane] = new Semaphore(PLANE_PERMITS);
         }
 
         this.lastFinishedGroup = WorkingGroup.Readers;
+
+        this.fairness = cube.getOptions().getFairness();
+        this.maxPhaseLength = cube.getOptions().getMaxPhaseLength();
+        this.formsCohorts = cube.getOptions().getBeforeRotationGroup() != null
+                || cube.getOptions().getAfterRotationGroup() != null;
+
+        String mbeanName = cube.getOptions().getMBeanName();
+        this.stats = (mbeanName == null) ? null : new CubeStats(this, cube.getSize(), mbeanName);
+    }
+
+    /* Racy reads of the manager's state, for monitoring only */
+    int getActiveReaders() {
+        return activeReaders;
+    }
+    int getActiveWriters() {
+        return activeWriters;
+    }
+    int getWaitingReaders() {
+        return waitingReaders;
+    }
+    int getWaitingWriters() {
+        return waitingWriters;
+    }
+    int getWaitingFromAxis(WorkingGroup axis) {
+        return waitingFromAxis[axis.intValue()];
+    }
+    WorkingGroup getOwner() {
+        if (activeReaders > 0) {
+            return WorkingGroup.Readers;
+        }
+        return writersWorking() ? currentAxis : null;
+    }
+
+    /**
+     * @return do writers of `currentAxis`, or face reads that joined them, work on the cube
+     */
+    private boolean writersWorking() {
+        return activeWriters > 0 || activeFaceReaders > 0;
+    }
+
+    /**
+     * Unregisters the cube's MBean, if it has one.
+     */
+    void unregisterMBean() {
+        if (stats != null) {
+            stats.unregister();
+        }
     }
 
     private int findNextWaitingWriterGroup(int axis) {
@@ -68,153 +148,470 @@ public class ProcessManager {
      * Enables a process to enter its entry protocol, waits on the `varMutex` if necessary.
      */
     public void entryProtocol() throws InterruptedException {
-        varProtection.acquire();
+        acquirer.acquire(varProtection);
     }
 
     /**
      * A writer must wait if readers or other colliding writers
-     * are currently handling the cube.
-     * @param writer : data of the requested writer
+     * are currently handling the cube, or if the fairness policy doesn't let it join.
+     * @param axis : axis of the requested writer
      * @return should the writer wait
      */
-    private boolean writerWaitCondition(Rotation writer) {
-        return activeReaders > 0 || (activeWriters > 0 && (currentAxis != writer.getAxis()));
+    private boolean writerWaitCondition(WorkingGroup axis) {
+        return activeReaders > 0 || (writersWorking() && (currentAxis != axis)) || !mayJoin(axis);
     }
 
     private boolean readerWaitCondition() {
-        return activeWriters > 0 || waitingWriters > 0;
+        return writersWorking() || !mayJoin(WorkingGroup.Readers);
     }
 
     /**
-     * Halts a writer-type process before entering the critical section
-     * if there are other active processes inside that would collide with it
-     * (i.e. readers or non-parallel writers)
-     * @param writer : data of the requested writer
+     * Decides whether a new process may enter without waiting, provided it collides with nobody.
+     * @param group : group of the process
+     * @return may the process join the current phase
      */
-    public void writerWaitIfNecessary(Rotation writer) throws InterruptedException {
-        try {
-            if (writerWaitCondition(writer)) {
-                waitingWriters++;
-                waitingFromAxis[writer.getAxis().intValue()]++;
-                varProtection.release();
+    private boolean mayJoin(WorkingGroup group) {
+        int othersWaiting = (group == WorkingGroup.Readers)
+                ? waitingWriters
+                : waitingWriters - waitingFromAxis[group.intValue()] + waitingReaders;
+        switch (fairness) {
+            case READER_PREFERRING:
+                return group == WorkingGroup.Readers || waitingReaders == 0;
+            case FIFO:
+                return waitingReaders == 0 && waitingWriters == 0;
+            case PHASE_FAIR:
+                return othersWaiting == 0 || phaseAdmissions < maxPhaseLength;
+            default:
+                return group != WorkingGroup.Readers || waitingWriters == 0;
+        }
+    }
 
-                axisSems[writer.getAxis().intValue()].acquire();
+    /**
+     * Chooses the group that gets the cube after `finished` leaves it.
+     * @param finished : group that has just finished
+     * @return the next group, null if nobody is waiting
+     */
+    private WorkingGroup nextGroup(WorkingGroup finished) {
+        int nextAxis = findNextWaitingWriterGroup(finished.intValue());
+        WorkingGroup writers = (nextAxis == -1) ? null : WorkingGroup.fromInt(nextAxis);
+        WorkingGroup readers = (waitingReaders > 0) ? WorkingGroup.Readers : null;
+        switch (fairness) {
+            case FIFO:
+                return oldestWaitingGroup();
+            case WRITER_PREFERRING:
+                return (writers != null) ? writers : readers;
+            default:
+                if (finished == WorkingGroup.Readers) {
+                    return (writers != null) ? writers : readers;
+                }
+                return (readers != null) ? readers : writers;
+        }
+    }
 
-                waitingWriters--;
-                waitingFromAxis[writer.getAxis().intValue()]--;
+    private WorkingGroup oldestWaitingGroup() {
+        WorkingGroup oldest = null;
+        long arrival = Long.MAX_VALUE;
+        if (!readerQueue.isEmpty()) {
+            oldest = WorkingGroup.Readers;
+            arrival = readerQueue.peek().arrival;
+        }
+        for (int axis = 0; axis < WorkingGroup.NUM_AXES.intValue(); axis++) {
+            if (!writerQueues[axis].isEmpty() && writerQueues[axis].peek().arrival < arrival) {
+                oldest = WorkingGroup.fromInt(axis);
+                arrival = writerQueues[axis].peek().arrival;
             }
-        } catch (InterruptedException e) {
-            // the process was interrupted after being woken by an exiting process
-            if (axisSems[writer.getAxis().intValue()].tryAcquire()) {
-                waitingWriters--;
-                waitingFromAxis[writer.getAxis().intValue()]--;
-
-                // resume waking starting from my group
-                if (waitingFromAxis[writer.getAxis().intValue()] > 0) {
-                    axisSems[writer.getAxis().intValue()].release();
-                } else if (lastFinishedGroup == WorkingGroup.Readers) {
-                    if (waitingReaders > 0) {
-                        readerSem.release();
-                    } else {
-                        varProtection.release();
-                    }
-                } else {
-                    varProtection.release();
-                }
-                axisSems[writer.getAxis().intValue()].release();
-            } else {
-                // the process was interrupted before trying to acquire its semaphore
-                varProtection.acquireUninterruptibly();
-                waitingWriters--;
-                waitingFromAxis[writer.getAxis().intValue()]--;
-                varProtection.release();
+        }
+        return oldest;
+    }
+
+    /**
+     * @return arrival of the first waiter of a group other than `group` when processes
+     * are admitted in order of arrival (only waiters arrived before it may be admitted with `group`),
+     * no bound otherwise
+     */
+    private long admissionBound(WorkingGroup group) {
+        long bound = Long.MAX_VALUE;
+        if (fairness != CubeOptions.Fairness.FIFO) {
+            return bound;
+        }
+        if (group != WorkingGroup.Readers && !readerQueue.isEmpty()) {
+            bound = readerQueue.peek().arrival;
+        }
+        for (int axis = 0; axis < WorkingGroup.NUM_AXES.intValue(); axis++) {
+            if (axis != group.intValue() && !writerQueues[axis].isEmpty()) {
+                bound = Math.min(bound, writerQueues[axis].peek().arrival);
             }
-            throw e;
+        }
+        return bound;
+    }
+
+    /**
+     * Admits the group chosen by the fairness policy. Called with the `varProtection` mutex held,
+     * when nobody is working on the cube.
+     * @param finished : group that has just finished
+     */
+    private void handOver(WorkingGroup finished) {
+        WorkingGroup next = nextGroup(finished);
+        if (next == WorkingGroup.Readers) {
+            admitReaders(null);
+        } else if (next != null) {
+            admitWriters(next, null);
         }
     }
 
+    /**
+     * Halts a writer-type process before entering the critical section
+     * if there are other active processes inside that would collide with it
+     * (i.e. readers or non-parallel writers).
+     * A halted writer is admitted by an exiting process, together with all writers waiting on its axis,
+     * and returns without the `varProtection` mutex. Otherwise the mutex is still held.
+     * @param axis : axis of the requested writer
+     * @param planes : distinct planes the writer is going to occupy, in ascending order
+     * @param count : number of planes in use from `planes`
+     * @param moves : moves of the writer, for the cohort actions (null if the cube has none)
+     * @return the writer's ticket
+     */
+    Ticket writerWaitIfNecessary(WorkingGroup axis, int[] planes, int count, List<Move> moves)
+            throws InterruptedException {
+        Ticket ticket = new Ticket(planes, count, moves);
+        if (writerWaitCondition(axis)) {
+            waitingWriters++;
+            waitingFromAxis[axis.intValue()]++;
+            ticket.arrival = arrivals++;
+            writerQueues[axis.intValue()].add(ticket);
+            awaitAdmission(ticket, axis);
+        }
+        return ticket;
+    }
+
     /**
      * Halts a reader before entering the critical section
      * if there are other active processes inside that would collide with it.
      * (i.e. any writers)
+     * A halted reader is admitted by an exiting process, together with all waiting readers,
+     * and returns without the `varProtection` mutex. Otherwise the mutex is still held.
+     * @return the reader's ticket
      */
-    public void readerWaitIfNecessary() throws InterruptedException {
-        try {
-            if (readerWaitCondition()) {
-                waitingReaders++;
-                varProtection.release();
+    Ticket readerWaitIfNecessary() throws InterruptedException {
+        Ticket ticket = new Ticket(null, 0, null);
+        if (readerWaitCondition()) {
+            waitingReaders++;
+            ticket.arrival = arrivals++;
+            readerQueue.add(ticket);
+            awaitAdmission(ticket, WorkingGroup.Readers);
+        }
+        return ticket;
+    }
 
-                readerSem.acquire();
+    /**
+     * Halts a face read (see `Cube.showFaceAs`) before reading if processes colliding with it are working.
+     * A face read collides only with writers of the other axes and with the writers of its own plane.
+     * While the writers of its axis work on the cube and the fairness policy lets one more of them join,
+     * it joins them, uncounted as a writer, and waits for its plane in `occupyFace`.
+     * Otherwise it enters as a reader does, though its reading excludes nobody else.
+     * Either way it returns with the `varProtection` mutex held unless it waited, as `readerWaitIfNecessary` does.
+     * @param axis : axis of the face
+     * @param plane : plane of the face
+     * @return the face read's ticket, holding its plane only if it joined the writers
+     */
+    Ticket faceReaderWaitIfNecessary(WorkingGroup axis, int plane) throws InterruptedException {
+        if (writersWorking() && currentAxis == axis && mayJoin(axis)) {
+            activeFaceReaders++;
+            phaseAdmissions++;
+            return new Ticket(new int[] { plane }, 1, null);
+        }
+        return readerWaitIfNecessary();
+    }
 
-                waitingReaders--;
-            }
-        } catch(InterruptedException e) {
-            // the process was interrupted after being woken by an exiting process
-            if (readerSem.tryAcquire()) {
-                waitingReaders--;
-                // resume waking starting from my group
-                if (waitingReaders > 0) {
-                    readerSem.release();
-                } else if (lastFinishedGroup != WorkingGroup.Readers) {
-                    if (waitingWriters > 0) {
-                        int nextGroup = findNextWaitingWriterGroup(lastFinishedGroup.intValue());
-                        if (nextGroup != -1) {
-                            axisSems[nextGroup].release();
-                        } else {
-                            varProtection.release();
-                        }
-                    }
+    /**
+     * Releases the mutex and sleeps until the ticket is admitted.
+     * If the thread is interrupted, it leaves the queue - or, if it has been admitted meanwhile,
+     * leaves the cube as if its work was done - and the `InterruptedException` is rethrown.
+     * @param ticket : queued ticket of the process
+     * @param group : group the process is waiting in
+     */
+    private void awaitAdmission(Ticket ticket, WorkingGroup group) throws InterruptedException {
+        WaiterInterruptedEvent interrupted = new WaiterInterruptedEvent();
+        interrupted.begin();
+        varProtection.release();
+        try {
+            acquirer.acquire(ticket.wakeUp);
+        } catch (InterruptedException e) {
+            acquirer.acquireUninterruptibly(varProtection);
+            if (ticket.admitted) {
+                // admitted meanwhile - leave as if the work was done
+                if (group == WorkingGroup.Readers) {
+                    readerLeft();
                 } else {
-                    varProtection.release();
+                    admittedWriterLeft(ticket, group);
                 }
-                readerSem.release();
+                varProtection.release();
+                commitInterruption(interrupted, group, true);
+                throw e;
+            }
+
+            if (group == WorkingGroup.Readers) {
+                readerQueue.remove(ticket);
+                waitingReaders--;
             } else {
-                // the process was interrupted before trying to acquire its semaphore
-                varProtection.acquireUninterruptibly();
+                writerQueues[group.intValue()].remove(ticket);
                 waitingWriters--;
-                varProtection.release();
+                waitingFromAxis[group.intValue()]--;
             }
+            // others might have been waiting only because of this process
+            if (activeReaders == 0 && !writersWorking()) {
+                handOver(lastFinishedGroup);
+            } else if (activeReaders > 0 && waitingReaders > 0
+                    && (fairness == CubeOptions.Fairness.FIFO || mayJoin(WorkingGroup.Readers))) {
+                admitReaders(null);
+            } else if (writersWorking() && waitingFromAxis[currentAxis.intValue()] > 0
+                    && (fairness == CubeOptions.Fairness.FIFO || mayJoin(currentAxis))) {
+                admitWriters(currentAxis, null);
+            }
+            varProtection.release();
+            commitInterruption(interrupted, group, false);
             throw e;
         }
     }
 
     /**
-     * Sets a layer's status to occupied,
-     * indicating that a rotation on it has begun.
-     * @param writer : data of the working writer
+     * Counts out an admitted writer that gives up before rotating, withdrawing it from its cohort.
+     * Called with the `varProtection` mutex held.
      */
-    public void occupyPlane(Rotation writer) throws InterruptedException {
-        activeWriters++;
-        if (activeWriters == 1) {
-            currentAxis = writer.getAxis();
+    private void admittedWriterLeft(Ticket ticket, WorkingGroup axis) {
+        if (ticket.cohort != null) {
+            ticket.cohort.leave(ticket.moves, cube.getOptions().getAfterRotationGroup());
         }
+        writerLeft(axis);
+    }
+
+    private static void commitInterruption(WaiterInterruptedEvent event, WorkingGroup group, boolean woken) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.group = group.name();
+            event.woken = woken;
+            event.commit();
+        }
+    }
 
-        planeMutexes[writer.getPlane()].acquire();
+    /**
+     * Admits a writer that didn't have to wait, along with all writers waiting on its axis,
+     * and releases the `varProtection` mutex. Does nothing for a writer admitted while waiting.
+     * @param axis : axis of the current writer
+     * @param ticket : the writer's ticket
+     */
+    void inviteParallelWriters(WorkingGroup axis, Ticket ticket) {
+        if (!ticket.admitted) {
+            admitWriters(axis, ticket);
+            varProtection.release();
+        }
     }
 
     /**
-     * Wakes up other writers performing rotations on free layers around the same axis.
-     * @param writer : data of the current writer
+     * Admits a reader that didn't have to wait, along with all waiting readers,
+     * and releases the `varProtection` mutex. Does nothing for a reader admitted while waiting.
+     * @param ticket : the reader's ticket
      */
-    public void inviteParallelWriters(Rotation writer) {
-        if (waitingFromAxis[writer.getAxis().intValue()] > 0) {
-            axisSems[writer.getAxis().intValue()].release();
-        } else {
+    void inviteParallelReaders(Ticket ticket) {
+        if (!ticket.admitted) {
+            admitReaders(ticket);
             varProtection.release();
         }
     }
 
     /**
-     * Wakes up other readers to read data from the cube concurrently.
+     * Counts in `entering` (if not null) and the writers waiting on `axis` as active writers
+     * (all of them, or only those that arrived before other waiters with `Fairness.FIFO`),
+     * splits them into cohorts and wakes them at once. Called with the `varProtection` mutex held.
+     * @param axis : axis of the admitted writers
+     * @param entering : ticket of a writer admitting itself, or null
+     */
+    private void admitWriters(WorkingGroup axis, Ticket entering) {
+        Ticket.Queue queue = writerQueues[axis.intValue()];
+        long bound = admissionBound(axis);
+        if (!writersWorking()) {
+            currentAxis = axis;
+            phaseAdmissions = 0;
+            if (axis != lastFinishedGroup) {
+                AxisSwitchEvent event = new AxisSwitchEvent();
+                if (event.shouldCommit()) {
+                    event.previousGroup = lastFinishedGroup.name();
+                    event.axis = axis.name();
+                    event.groupSize = waitingFromAxis[axis.intValue()] + (entering != null ? 1 : 0);
+                    event.commit();
+                }
+            }
+        }
+
+        Cohort cohort = null;
+        if (entering != null) {
+            cohort = admitWriter(entering, cohort);
+        }
+        while (!queue.isEmpty() && queue.peek().arrival < bound) {
+            Ticket ticket = queue.poll();
+            waitingWriters--;
+            waitingFromAxis[axis.intValue()]--;
+            cohort = admitWriter(ticket, cohort);
+            ticket.wakeUp.release();
+        }
+        if (cohort != null) {
+            cohort.seal();
+        }
+    }
+
+    /**
+     * Counts in a single writer and adds it to `cohort`,
+     * sealing the cohort and starting the next one if the writer would collide with a member.
+     * @return the writer's cohort, null if the cube has no cohort actions
      */
-    public void inviteParallelReaders() {
+    private Cohort admitWriter(Ticket ticket, Cohort cohort) {
+        activeWriters++;
+        phaseAdmissions++;
+        ticket.admitted = true;
+        ticket.groupSize = activeWriters;
+        if (formsCohorts) {
+            if (cohort == null || cohort.collides(ticket.planes, ticket.count)) {
+                if (cohort != null) {
+                    cohort.seal();
+                }
+                cohort = new Cohort(cube.getSize());
+            }
+            cohort.join(ticket.planes, ticket.count, ticket.moves);
+            ticket.cohort = cohort;
+        }
+        return cohort;
+    }
+
+    /**
+     * Counts in `entering` (if not null) and the waiting readers as active readers
+     * (all of them, or only those that arrived before other waiters with `Fairness.FIFO`)
+     * and wakes them at once. Called with the `varProtection` mutex held.
+     * @param entering : ticket of a reader admitting itself, or null
+     */
+    private void admitReaders(Ticket entering) {
+        long bound = admissionBound(WorkingGroup.Readers);
+        if (activeReaders == 0) {
+            readerPhase = new ReaderPhaseEvent();
+            readerPhase.begin();
+            readersInPhase = 0;
+            phaseAdmissions = 0;
+        }
+        if (entering != null) {
+            admitReader(entering);
+        }
+        while (!readerQueue.isEmpty() && readerQueue.peek().arrival < bound) {
+            Ticket ticket = readerQueue.poll();
+            waitingReaders--;
+            admitReader(ticket);
+            ticket.wakeUp.release();
+        }
+    }
+
+    private void admitReader(Ticket ticket) {
         activeReaders++;
+        readersInPhase++;
+        phaseAdmissions++;
+        ticket.admitted = true;
+        ticket.groupSize = activeReaders;
+    }
 
-        if (waitingReaders > 0) {
-            readerSem.release();
-        } else {
+    /**
+     * Sets the status of the writer's layers to occupied, indicating that its rotations have begun.
+     * Planes are acquired in ascending order, so writers occupying more than one plane
+     * can never deadlock each other. The writer has already been admitted and holds no mutex,
+     * so only writers of its own axis waiting for the same planes are held up.
+     * If the thread is interrupted while waiting for a plane, it releases the planes it has taken
+     * and leaves the cube as an admitted writer interrupted in its queue does (see `awaitAdmission`),
+     * and the `InterruptedException` is rethrown.
+     * @param axis : axis of the writer
+     * @param ticket : the writer's ticket, whose planes are occupied
+     */
+    void occupyPlanes(WorkingGroup axis, Ticket ticket) throws InterruptedException {
+        WaiterInterruptedEvent interrupted = new WaiterInterruptedEvent();
+        interrupted.begin();
+        for (int i = 0; i < ticket.count; i++) {
+            try {
+                acquirer.acquire(planeMutexes[ticket.planes[i]], PLANE_PERMITS);
+            } catch (InterruptedException e) {
+                for (int j = 0; j < i; j++) {
+                    planeMutexes[ticket.planes[j]].release(PLANE_PERMITS);
+                }
+                acquirer.acquireUninterruptibly(varProtection);
+                admittedWriterLeft(ticket, axis);
+                varProtection.release();
+                commitInterruption(interrupted, axis, true);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Lets a face read in: admits it as `inviteParallelReaders` does if it entered as a reader,
+     * or releases the `varProtection` mutex and waits for its plane, shared with other reads of the plane,
+     * if it joined the writers of its axis. If the thread is interrupted while waiting for the plane,
+     * the read leaves the cube and the `InterruptedException` is rethrown.
+     * @param axis : axis of the face
+     * @param ticket : the face read's ticket
+     */
+    void occupyFace(WorkingGroup axis, Ticket ticket) throws InterruptedException {
+        if (ticket.planes == null) {
+            inviteParallelReaders(ticket);
+            return;
+        }
+        ticket.admitted = true;
+        varProtection.release();
+
+        WaiterInterruptedEvent interrupted = new WaiterInterruptedEvent();
+        interrupted.begin();
+        try {
+            acquirer.acquire(planeMutexes[ticket.planes[0]]);
+        } catch (InterruptedException e) {
+            acquirer.acquireUninterruptibly(varProtection);
+            faceReaderLeft(axis);
             varProtection.release();
+            commitInterruption(interrupted, axis, true);
+            throw e;
+        }
+    }
+
+    /**
+     * Lets an admitted writer holding its planes leave without writing, as if it had been interrupted
+     * while occupying them (see `occupyPlanes`). Called before the writer starts its cohort.
+     * @param axis : axis of the writer
+     * @param ticket : the writer's ticket, whose planes are released
+     */
+    void withdrawWriter(WorkingGroup axis, Ticket ticket) {
+        for (int i = 0; i < ticket.count; i++) {
+            planeMutexes[ticket.planes[i]].release(PLANE_PERMITS);
         }
+        acquirer.acquireUninterruptibly(varProtection);
+        admittedWriterLeft(ticket, axis);
+        varProtection.release();
+    }
+
+    /**
+     * Makes an admitted writer wait for the rest of its cohort to be admitted and for `beforeRotationGroup`.
+     * @param cohort : the writer's cohort, may be null
+     */
+    void startCohort(Cohort cohort) {
+        if (cohort != null) {
+            cohort.start(cube.getOptions().getBeforeRotationGroup());
+        }
+    }
+
+    /**
+     * Marks a writer of a cohort as done, performing `afterRotationGroup` if it's the last one.
+     * Called before the writer's exit protocol.
+     * @param cohort : the writer's cohort, may be null
+     */
+    void finishCohort(Cohort cohort) {
+        if (cohort != null) {
+            cohort.finish(cube.getOptions().getAfterRotationGroup());
+        }
+    }
+
+    boolean formsCohorts() {
+        return formsCohorts;
     }
 
     /**
@@ -222,12 +619,84 @@ public class ProcessManager {
      * @param writer : what is being written to the cube
      */
     public void writeToCube(Rotation writer) {
-        if (cube.getBeforeRotation() != null) {
-            cube.getBeforeRotation().accept(writer.getSide().intValue(), writer.getLayer());
+        writeToCube(writer, 1);
+    }
+
+    /**
+     * Allows a writer to turn its layer by several quarters at once.
+     * The actions around the rotation are performed as the cube's `HookMode` says,
+     * the quarters are applied in a single pass whenever no action has to run in between.
+     * @param writer : what is being written to the cube
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    public void writeToCube(Rotation writer, int quarterTurns) {
+        BiConsumer<Integer, Integer> before = cube.getBeforeRotation();
+        BiConsumer<Integer, Integer> after = cube.getAfterRotation();
+        boolean singlePass = quarterTurns == 1
+                || cube.getOptions().getHookMode() == CubeOptions.HookMode.PER_CALL
+                || (before == null && after == null);
+
+        RotationAppliedEvent event = new RotationAppliedEvent();
+        event.begin();
+        for (int turn = 0; turn < (singlePass ? 1 : quarterTurns); turn++) {
+            if (before != null) {
+                before.accept(writer.getSide().intValue(), writer.getLayer());
+            }
+            writer.applyRotation(singlePass ? quarterTurns : 1);
+            if (after != null) {
+                after.accept(writer.getSide().intValue(), writer.getLayer());
+            }
         }
-        writer.applyRotation();
-        if (cube.getAfterRotation() != null) {
-            cube.getAfterRotation().accept(writer.getSide().intValue(), writer.getLayer());
+        commitApplied(event, writer, 1, quarterTurns);
+        if (stats != null) {
+            stats.rotationsPerformed(quarterTurns);
+        }
+    }
+
+    /**
+     * Allows a writer to turn several layers of one side at once.
+     * The actions are performed for every layer, and between them all rings are turned in one sweep -
+     * once per quarter turn or once in total, as in `writeToCube(writer, quarterTurns)`.
+     * @param writers : rotations of one side, on distinct layers
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    public void writeToCube(Rotation[] writers, int quarterTurns) {
+        BiConsumer<Integer, Integer> before = cube.getBeforeRotation();
+        BiConsumer<Integer, Integer> after = cube.getAfterRotation();
+        boolean singlePass = quarterTurns == 1
+                || cube.getOptions().getHookMode() == CubeOptions.HookMode.PER_CALL
+                || (before == null && after == null);
+
+        RotationAppliedEvent event = new RotationAppliedEvent();
+        event.begin();
+        for (int turn = 0; turn < (singlePass ? 1 : quarterTurns); turn++) {
+            if (before != null) {
+                for (Rotation writer : writers) {
+                    before.accept(writer.getSide().intValue(), writer.getLayer());
+                }
+            }
+            Rotation.applyRotations(writers, singlePass ? quarterTurns : 1);
+            if (after != null) {
+                for (Rotation writer : writers) {
+                    after.accept(writer.getSide().intValue(), writer.getLayer());
+                }
+            }
+        }
+        commitApplied(event, writers[0], writers.length, quarterTurns);
+        if (stats != null) {
+            stats.rotationsPerformed(writers.length * quarterTurns);
+        }
+    }
+
+    private static void commitApplied(RotationAppliedEvent event, Rotation writer, int layers, int quarterTurns) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.side = writer.getSide().intValue();
+            event.layer = writer.getLayer();
+            event.layers = layers;
+            event.axis = writer.getAxis().name();
+            event.quarterTurns = quarterTurns;
+            event.commit();
         }
     }
 
@@ -235,68 +704,146 @@ public class ProcessManager {
      * Allows a reader to read from the cube.
      */
     public String readFromCube() {
+        return readFromCube(Cube::toString);
+    }
+
+    /**
+     * Allows a reader to read from the cube, building the snapshot with `encoder`.
+     * @param encoder : builds the reader's view of the cube
+     */
+    public <T> T readFromCube(Function<Cube, T> encoder) {
         if (cube.getBeforeShowing() != null) {
             cube.getBeforeShowing().run();
         }
-        String str = cube.toString();
+        T snapshot = encoder.apply(cube);
         if (cube.getAfterShowing() != null) {
             cube.getAfterShowing().run();
         }
-        return str;
+        if (stats != null) {
+            stats.showPerformed();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reader of the cube that may fail with an `IOException`, see `Cube.showTo`.
+     */
+    interface StateWriter {
+        void write(SquareRows rows) throws IOException;
+    }
+
+    /**
+     * Allows a reader to write the cube's state out. The `afterShowing` action is performed
+     * even if writing fails.
+     * @param writer : writes out the squares, row by row
+     */
+    public void streamFromCube(StateWriter writer) throws IOException {
+        if (cube.getBeforeShowing() != null) {
+            cube.getBeforeShowing().run();
+        }
+        try {
+            writer.write(cube.rows());
+        } finally {
+            if (cube.getAfterShowing() != null) {
+                cube.getAfterShowing().run();
+            }
+            if (stats != null) {
+                stats.showPerformed();
+            }
+        }
     }
 
     /**
      * Indicates that a writer is abandoning his critical section,
-     * and allows other writers and readers to enter, prioritizing readers.
-     * @param writer - data of the abandoning process
+     * and allows other writers and readers to enter, as the fairness policy says
+     * (prioritizing readers by default).
+     * @param axis : axis of the abandoning writer
+     * @param planes : planes occupied by the writer
+     * @param count : number of planes in use from `planes`
      */
-    public void writerExitProtocol(Rotation writer) {
-        planeMutexes[writer.getPlane()].release();
+    public void writerExitProtocol(WorkingGroup axis, int[] planes, int count) {
+        for (int i = 0; i < count; i++) {
+            planeMutexes[planes[i]].release(PLANE_PERMITS);
+        }
 
-        varProtection.acquireUninterruptibly();
+        acquirer.acquireUninterruptibly(varProtection);
+        writerLeft(axis);
+        varProtection.release();
+    }
+
+    /**
+     * Counts out an active writer, admitting the next group if it was the last one
+     * (and no face read that joined the writers is still reading).
+     * Called with the `varProtection` mutex held.
+     * @param axis : axis of the writer
+     */
+    private void writerLeft(WorkingGroup axis) {
         activeWriters--;
 
-        if (activeWriters == 0) {
-            lastFinishedGroup = writer.getAxis();
-            if (waitingReaders > 0) {
-                readerSem.release();
-            } else {
-                int nextGroup = findNextWaitingWriterGroup(writer.getAxis().intValue());
-                if (nextGroup != -1) {
-                    axisSems[nextGroup].release();
-                } else {
-                    varProtection.release();
-                }
-            }
-        } else {
-            varProtection.release();
+        if (!writersWorking()) {
+            lastFinishedGroup = axis;
+            handOver(axis);
+        }
+    }
+
+    /**
+     * Indicates that a face read is done, as a reader or as a member of the group of its axis,
+     * and allows others to enter if it was the last one of its group.
+     * @param axis : axis of the face
+     * @param ticket : the face read's ticket
+     */
+    void faceReaderExitProtocol(WorkingGroup axis, Ticket ticket) {
+        if (ticket.planes == null) {
+            readerExitProtocol();
+            return;
+        }
+        planeMutexes[ticket.planes[0]].release();
+
+        acquirer.acquireUninterruptibly(varProtection);
+        faceReaderLeft(axis);
+        varProtection.release();
+    }
+
+    /**
+     * Counts out a face read that joined the writers of `axis`, as `writerLeft` counts out a writer.
+     * Called with the `varProtection` mutex held.
+     */
+    private void faceReaderLeft(WorkingGroup axis) {
+        activeFaceReaders--;
+
+        if (!writersWorking()) {
+            lastFinishedGroup = axis;
+            handOver(axis);
         }
     }
 
     /**
      * Indicates that a reader is abandoning his critical section,
-     * and allows other writers and readers to enter, prioritizing writers.
+     * and allows other writers and readers to enter, as the fairness policy says
+     * (prioritizing writers by default).
      */
     public void readerExitProtocol() {
-        varProtection.acquireUninterruptibly();
+        acquirer.acquireUninterruptibly(varProtection);
+        readerLeft();
+        varProtection.release();
+    }
+
+    /**
+     * Counts out an active reader, admitting the next group if it was the last one.
+     * Called with the `varProtection` mutex held.
+     */
+    private void readerLeft() {
         activeReaders--;
         lastFinishedGroup = WorkingGroup.Readers;
 
         if (activeReaders == 0) {
-            if (waitingWriters > 0) {
-                int nextGroup = findNextWaitingWriterGroup(lastFinishedGroup.intValue());
-                if (nextGroup != -1) {
-                    axisSems[nextGroup].release();
-                } else {
-                    varProtection.release();
-                }
-            } else if (waitingReaders > 0) {
-                readerSem.release();
-            } else {
-                varProtection.release();
+            readerPhase.end();
+            if (readerPhase.shouldCommit()) {
+                readerPhase.groupSize = readersInPhase;
+                readerPhase.commit();
             }
-        } else {
-            varProtection.release();
+
+            handOver(WorkingGroup.Readers);
         }
     }
 
@@ -0,0 +1,81 @@
+package concurrentcube;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, growable sequence of rotations,
+ * submitted to the cube with as few admissions as possible (see `Cube.rotate(RotationBatch)`).
+ * Rotations are stored in primitive arrays, so filling a cleared batch allocates nothing.
+ *
+ * A batch is not thread-safe - it is meant to be filled and submitted by a single thread.
+ */
+public class RotationBatch {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] sides;
+    private int[] layers;
+    private int[] quarterTurns;
+    private int size;
+
+    public RotationBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RotationBatch(int capacity) {
+        assert(capacity > 0);
+        this.sides = new int[capacity];
+        this.layers = new int[capacity];
+        this.quarterTurns = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    public int getSide(int i) {
+        return sides[i];
+    }
+    public int getLayer(int i) {
+        return layers[i];
+    }
+    public int getQuarterTurns(int i) {
+        return quarterTurns[i];
+    }
+
+    /**
+     * Appends a 90-degree rotation to the batch.
+     * @param side : rotated face
+     * @param layer : rotated layer
+     */
+    public void add(int side, int layer) {
+        add(side, layer, 1);
+    }
+
+    /**
+     * Appends a rotation by several quarter turns to the batch (see `Cube.rotate(side, layer, quarterTurns)`).
+     * @param side : rotated face
+     * @param layer : rotated layer
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    public void add(int side, int layer, int quarterTurns) {
+        if (size == sides.length) {
+            sides = Arrays.copyOf(sides, 2 * size);
+            layers = Arrays.copyOf(layers, 2 * size);
+            this.quarterTurns = Arrays.copyOf(this.quarterTurns, 2 * size);
+        }
+        sides[size] = side;
+        layers[size] = layer;
+        this.quarterTurns[size] = quarterTurns;
+        size++;
+    }
+
+    /**
+     * Empties the batch, keeping its capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+}
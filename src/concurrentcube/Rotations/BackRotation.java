@@ -21,15 +21,11 @@ public class BackRotation extends Rotation {
     }
 
     @Override
-    public void applyRotation() {
-        swapColumnAndRow(Side.Left, layer, Side.Bottom, cube.getSize() - 1 - layer);
-        swapColumnAndRow(Side.Left, layer, Side.Top, layer);
-        swapColumnAndRow(Side.Right, cube.getSize() - 1 - layer, Side.Top, layer);
-
-        reverseColumn(Side.Left, layer);
-        reverseColumn(Side.Right, cube.getSize() - 1 - layer);
-
-        super.applyRotation();
+    protected void defineRing() {
+        row(0, Side.Top, layer);
+        reversedColumn(1, Side.Left, layer);
+        reversedRow(2, Side.Bottom, cube.getSize() - 1 - layer);
+        column(3, Side.Right, cube.getSize() - 1 - layer);
     }
 
 }
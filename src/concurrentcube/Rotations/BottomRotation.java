@@ -21,12 +21,11 @@ public class BottomRotation extends Rotation {
     }
 
     @Override
-    public void applyRotation() {
-        swapRowAndRow(Side.Left, cube.getSize() - 1 - layer, Side.Back, cube.getSize() - 1 - layer);
-        swapRowAndRow(Side.Back, cube.getSize() - 1 - layer, Side.Right, cube.getSize() - 1 - layer);
-        swapRowAndRow(Side.Right, cube.getSize() - 1 - layer, Side.Front, cube.getSize() - 1 - layer);
-
-        super.applyRotation();
+    protected void defineRing() {
+        row(0, Side.Left, cube.getSize() - 1 - layer);
+        row(1, Side.Front, cube.getSize() - 1 - layer);
+        row(2, Side.Right, cube.getSize() - 1 - layer);
+        row(3, Side.Back, cube.getSize() - 1 - layer);
     }
 
 }
@@ -21,15 +21,11 @@ public class FrontRotation extends Rotation {
     }
 
     @Override
-    public void applyRotation() {
-        swapColumnAndRow(Side.Left, cube.getSize() - 1 - layer, Side.Top, cube.getSize() - 1 - layer);
-        swapColumnAndRow(Side.Left, cube.getSize() - 1 - layer, Side.Bottom, layer);
-        swapColumnAndRow(Side.Right, layer, Side.Bottom, layer);
-
-        reverseRow(Side.Top, cube.getSize() - 1 - layer);
-        reverseRow(Side.Bottom, layer);
-
-        super.applyRotation();
+    protected void defineRing() {
+        column(0, Side.Left, cube.getSize() - 1 - layer);
+        reversedRow(1, Side.Top, cube.getSize() - 1 - layer);
+        reversedColumn(2, Side.Right, layer);
+        row(3, Side.Bottom, layer);
     }
 
 }
@@ -21,15 +21,11 @@ public class LeftRotation extends Rotation {
     }
 
     @Override
-    public void applyRotation() {
-        swapColumnAndColumn(Side.Bottom, layer, Side.Front, layer);
-        swapColumnAndColumn(Side.Front, layer, Side.Top, layer);
-        swapColumnAndColumn(Side.Top, layer, Side.Back, cube.getSize() - 1 - layer);
-
-        reverseColumn(Side.Top, layer);
-        reverseColumn(Side.Back, cube.getSize() - 1 - layer);
-
-        super.applyRotation();
+    protected void defineRing() {
+        column(0, Side.Top, layer);
+        column(1, Side.Front, layer);
+        column(2, Side.Bottom, layer);
+        reversedColumn(3, Side.Back, cube.getSize() - 1 - layer);
     }
 
 }
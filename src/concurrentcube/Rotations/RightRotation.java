@@ -21,15 +21,11 @@ public class RightRotation extends Rotation {
     }
 
     @Override
-    public void applyRotation() {
-        swapColumnAndColumn(Side.Top, cube.getSize() - 1 - layer, Side.Front, cube.getSize() - 1 - layer);
-        swapColumnAndColumn(Side.Front, cube.getSize() - 1 - layer, Side.Bottom, cube.getSize() - 1 - layer);
-        swapColumnAndColumn(Side.Bottom, cube.getSize() - 1 - layer, Side.Back, layer);
-
-        reverseColumn(Side.Bottom, cube.getSize() - 1 - layer);
-        reverseColumn(Side.Back, layer);
-
-        super.applyRotation();
+    protected void defineRing() {
+        column(0, Side.Top, cube.getSize() - 1 - layer);
+        reversedColumn(1, Side.Back, layer);
+        column(2, Side.Bottom, cube.getSize() - 1 - layer);
+        column(3, Side.Front, cube.getSize() - 1 - layer);
     }
 
 }
@@ -1,27 +1,48 @@
 package concurrentcube.Rotations;
 
+import concurrentcube.BitboardSquares;
 import concurrentcube.Color;
 import concurrentcube.Cube;
 import concurrentcube.WorkingGroup;
 import concurrentcube.Side;
+import concurrentcube.SparseSquares;
+import concurrentcube.SquareCounts;
+import concurrentcube.TiledLayout;
+import concurrentcube.ZobristHash;
 
+import java.util.Arrays;
 import java.util.Random;
 
 public abstract class Rotation {
 
     private static final Random rand = new Random();
+    /* Entries of every strip in the tallies of `tally`, a power of two at least `Color.COLORS` */
+    private static final int STRIP_COLORS = 8;
 
     protected final Side side;
     protected final int layer;
     protected final Cube cube;
     protected final WorkingGroup workingGroup;
 
+    /* Sides, first indices and index steps of the four strips of squares forming the rotated ring */
+    private final Side[] ringSides = new Side[4];
+    private final int[] ringStarts = new int[4];
+    private final int[] ringStrides = new int[4];
+    /* The same strips as rows and columns of their first squares and steps, for tiled faces */
+    private final int[] ringRows = new int[4];
+    private final int[] ringCols = new int[4];
+    private final int[] ringRowSteps = new int[4];
+    private final int[] ringColSteps = new int[4];
+    /* Code generated for the rotation (see `CubeOptions.compiledRotations`), or null */
+    private final UnrolledRotation unrolled;
 
     protected Rotation(Cube cube, Side side, int layer) {
         this.cube = cube;
         this.side = side;
         this.layer = layer;
         this.workingGroup = assignGroup();
+        defineRing();
+        this.unrolled = RotationCompiler.compiled(this);
     }
 
     public static Rotation newRotation(Cube cube, Side side, int layer) {
@@ -81,156 +102,569 @@ public abstract class Rotation {
         }
     }
 
+    /**
+     * Describes the ring of squares moved by the rotation
+     * by assigning its four strips with `row`, `reversedRow`, `column` and `reversedColumn`.
+     * Strips are numbered in the order squares travel in during a clockwise turn -
+     * the i-th square of strip `j` moves to the i-th square of strip `j + 1` (mod 4).
+     */
+    protected abstract void defineRing();
+
     /**
      * Physically rotates a Rubik's cube -
      * Faces the cube from the perspective of `this.side`,
      * grabs a ring of the cube indicated by `this.layer`
      * and turns it clockwise.
-     *
-     * How the rotation is performed:
-     * - swaps rows and columns of surrounding sides cyclically,
-     * - reverses them if it has to,
-     * - and finally turns the whole side 90 degrees clockwise.
      */
     public void applyRotation() {
-        if (layer == 0) {
-            turnSideClockwise(side);
+        applyRotation(1);
+    }
+
+    /**
+     * Turns the ring clockwise by `quarterTurns` right angles in a single pass:
+     * - every square of the ring is moved directly to its final strip,
+     * - and if the ring contains a face, every square of the face is moved directly to its final position.
+     * While the cube is stored sparsely, the rotation locks its `SparseSquares` and moves only the differences.
+     * Small cubes are rotated by their `BitboardSquares` instead.
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    public void applyRotation(int quarterTurns) {
+        applyRotations(new Rotation[] { this }, quarterTurns);
+    }
+
+    /**
+     * Turns the rings of several rotations of the same side, as `applyRotation` turns one.
+     * @param rotations : rotations of one side, on distinct layers
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    public static void applyRotations(Rotation[] rotations, int quarterTurns) {
+        if (rotations.length == 0) {
+            return;
         }
-        else if (layer == cube.getSize() - 1) {
-            turnSideCounterClockwise(side.opposite());
+        Cube cube = rotations[0].cube;
+        BitboardSquares bitboard = cube.getBitboard();
+        if (bitboard != null) {
+            for (Rotation r : rotations) {
+                bitboard.rotate(r.side.intValue(), r.layer, quarterTurns);
+            }
+            return;
+        }
+        SparseSquares sparse = cube.getSparseSquares();
+        if (sparse != null) {
+            synchronized (sparse) {
+                if (!sparse.isRetired()) {
+                    for (Rotation r : rotations) {
+                        r.applySparse(sparse, quarterTurns);
+                    }
+                    sparse.densifyIfNeeded();
+                    return;
+                }
+            }
         }
+        applyRings(rotations, cube.getStoredSquares(), quarterTurns);
     }
 
     /**
-     * Swaps colors of two squares on a cube.
-     * @param side_a : side of the first square
-     * @param row_a : row of the first square
-     * @param col_a : column of the first square
-     * @param side_b : side of the second square
-     * @param row_b : row of the second square
-     * @param col_b : column of the second square
+     * Turns the rings of rotations of one side on a densely stored cube (see `applyRotations`),
+     * along with the faces they contain.
      */
-    public void swapSquareColors(Side side_a, int row_a, int col_a, Side side_b, int row_b, int col_b) {
-        Color temp = cube.getSquareColor(side_a, row_a, col_a);
-        cube.setSquareColor(cube.getSquareColor(side_b, row_b, col_b), side_a, row_a, col_a);
-        cube.setSquareColor(temp, side_b, row_b, col_b);
+    private static void applyRings(Rotation[] rotations, Color[][] squares, int quarterTurns) {
+        ZobristHash zobrist = rotations[0].cube.getZobristHash();
+        if (zobrist != null) {
+            long delta = 0;
+            for (Rotation r : rotations) {
+                delta ^= r.hashMoves(squares, quarterTurns);
+            }
+            zobrist.update(delta);
+        }
+
+        boolean unrolled = true;
+        for (Rotation r : rotations) {
+            unrolled &= r.unrolled != null;
+        }
+        if (unrolled) {
+            for (Rotation r : rotations) {
+                if (r.cube.getSquareCounts().hasOffColorCounts()) {
+                    r.countRing(squares, quarterTurns);
+                }
+                r.applyUnrolled(squares, quarterTurns);
+            }
+            return;
+        }
+
+        int n = rotations[0].cube.getSize();
+        turnRings(rotations, squares, rotations[0].cube.getLayout(), quarterTurns);
+        for (Rotation r : rotations) {
+            if (r.layer == 0) {
+                r.turnSide(r.side, quarterTurns);
+            }
+            else if (r.layer == n - 1) {
+                r.turnSide(r.side.opposite(), 4 - quarterTurns);
+            }
+        }
     }
 
     /**
-     * Swaps a column and a row, maintaining left->right and top->down order.
-     * @param side_c: side containing column
-     * @param col: swapped column
-     * @param side_r: side containing row
-     * @param row: swapped row
+     * Turns the rings of rotations of one side clockwise by `quarterTurns` right angles in one sweep -
+     * the i-th squares of all rings are moved before any (i + 1)-th square,
+     * so neighbouring squares of adjacent layers are handled together.
+     * Strips of tiled faces are walked by rows and columns, translated to positions in the tiles by `layout`.
+     *
+     * With `CubeOptions.offColorCounts`, the squares of every strip are tallied by color while they're at hand
+     * (see `tally`), and each rotation passes the changes its ring makes to the cube's `SquareCounts` once, at the end.
+     * @param rotations : rotations of one side, on distinct layers
+     * @param layout : layout of the faces with tiled storage, or null
      */
-    protected void swapColumnAndRow(Side side_c, int col, Side side_r, int row) {
-        for (int i = 0; i < cube.getSize(); i++) {
-            swapSquareColors(side_c, i, col, side_r, row, i);
+    private static void turnRings(Rotation[] rotations, Color[][] squares, TiledLayout layout, int quarterTurns) {
+        Rotation first = rotations[0];
+        if (rotations.length == 1) {
+            first.turnRing(squares, layout, quarterTurns);
+            return;
+        }
+        int n = first.cube.getSize();
+        Color[] s0 = squares[first.ringSides[0].intValue()];
+        Color[] s1 = squares[first.ringSides[1].intValue()];
+        Color[] s2 = squares[first.ringSides[2].intValue()];
+        Color[] s3 = squares[first.ringSides[3].intValue()];
+        long[] tallies = first.cube.getSquareCounts().hasOffColorCounts()
+                ? new long[rotations.length * 4 * STRIP_COLORS] : null;
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < rotations.length; k++) {
+                Rotation r = rotations[k];
+                int i0 = r.ringIndex(0, i, layout);
+                int i1 = r.ringIndex(1, i, layout);
+                int i2 = r.ringIndex(2, i, layout);
+                int i3 = r.ringIndex(3, i, layout);
+                if (tallies != null) {
+                    tally(tallies, k * 4 * STRIP_COLORS, s0[i0], s1[i1], s2[i2], s3[i3]);
+                }
+                cycle(s0, i0, s1, i1, s2, i2, s3, i3, quarterTurns);
+            }
+        }
+        if (tallies != null) {
+            for (int k = 0; k < rotations.length; k++) {
+                rotations[k].recordRing(tallies, k * 4 * STRIP_COLORS, quarterTurns);
+            }
         }
     }
 
     /**
-     * Swaps two columns, maintaining top->down order.
-     * @param side_a: side containing first column
-     * @param col_a: first swapped column
-     * @param side_b: side containing second column
-     * @param col_b: second swapped column
+     * Turns the ring clockwise by `quarterTurns` right angles, as `turnRings` turns several.
      */
-    protected void swapColumnAndColumn(Side side_a, int col_a, Side side_b, int col_b) {
-        for (int row = 0; row < cube.getSize(); row++) {
-            swapSquareColors(side_a, row, col_a, side_b, row, col_b);
+    private void turnRing(Color[][] squares, TiledLayout layout, int quarterTurns) {
+        int n = cube.getSize();
+        Color[] s0 = squares[ringSides[0].intValue()];
+        Color[] s1 = squares[ringSides[1].intValue()];
+        Color[] s2 = squares[ringSides[2].intValue()];
+        Color[] s3 = squares[ringSides[3].intValue()];
+        if (!cube.getSquareCounts().hasOffColorCounts()) {
+            for (int i = 0; i < n; i++) {
+                cycle(s0, ringIndex(0, i, layout), s1, ringIndex(1, i, layout),
+                        s2, ringIndex(2, i, layout), s3, ringIndex(3, i, layout), quarterTurns);
+            }
+            return;
+        }
+        long[] tallies = new long[4 * STRIP_COLORS];
+        if (layout != null) {
+            for (int i = 0; i < n; i++) {
+                int i0 = ringIndex(0, i, layout);
+                int i1 = ringIndex(1, i, layout);
+                int i2 = ringIndex(2, i, layout);
+                int i3 = ringIndex(3, i, layout);
+                tally(tallies, 0, s0[i0], s1[i1], s2[i2], s3[i3]);
+                cycle(s0, i0, s1, i1, s2, i2, s3, i3, quarterTurns);
+            }
+        }
+        else {
+            // squares tallied are moved right away, rather than read again by `cycle`
+            int step0 = ringStrides[0], step1 = ringStrides[1], step2 = ringStrides[2], step3 = ringStrides[3];
+            for (int i = 0, i0 = ringStarts[0], i1 = ringStarts[1], i2 = ringStarts[2], i3 = ringStarts[3]; i < n;
+                 i++, i0 += step0, i1 += step1, i2 += step2, i3 += step3) {
+                Color v0 = s0[i0];
+                Color v1 = s1[i1];
+                Color v2 = s2[i2];
+                Color v3 = s3[i3];
+                tally(tallies, 0, v0, v1, v2, v3);
+                switch (quarterTurns) {
+                    case 1 : s1[i1] = v0; s2[i2] = v1; s3[i3] = v2; s0[i0] = v3; break;
+                    case 2 : s2[i2] = v0; s3[i3] = v1; s0[i0] = v2; s1[i1] = v3; break;
+                    case 3 : s3[i3] = v0; s0[i0] = v1; s1[i1] = v2; s2[i2] = v3; break;
+                    default : break;
+                }
+            }
         }
+        recordRing(tallies, 0, quarterTurns);
+    }
+
+    /**
+     * Tallies the i-th squares of the ring's four strips by color, in `tallies[first + strip * STRIP_COLORS + color]` -
+     * an increment per square rather than comparisons with the colors of the faces it leaves and enters,
+     * which mispredict on squares of random colors.
+     */
+    private static void tally(long[] tallies, int first, Color v0, Color v1, Color v2, Color v3) {
+        tallies[first + v0.intValue()]++;
+        tallies[first + STRIP_COLORS + v1.intValue()]++;
+        tallies[first + 2 * STRIP_COLORS + v2.intValue()]++;
+        tallies[first + 3 * STRIP_COLORS + v3.intValue()]++;
     }
 
     /**
-     * Swaps two rows, maintaining left->right order.
-     * @param side_a: side containing first row
-     * @param row_a: first swapped row
-     * @param side_b: side containing second row
-     * @param row_b: second swapped row
+     * Passes the changes tallied by `tally` to the cube's `SquareCounts` -
+     * the face of strip `j` loses the squares of strip `j` and receives those of strip `j - quarterTurns` (mod 4),
+     * so the difference of the two strips' tallies of the face's color is the change of its squares in its color.
+     * @param first : position of the ring's tallies in `tallies`
      */
-    protected void swapRowAndRow(Side side_a, int row_a, Side side_b, int row_b) {
-        for (int col = 0; col < cube.getSize(); col++) {
-            swapSquareColors(side_a, row_a, col, side_b, row_b, col);
+    private void recordRing(long[] tallies, int first, int quarterTurns) {
+        long[] offColor = new long[4];
+        for (int j = 0; j < 4; j++) {
+            int face = ringSides[j].intValue();
+            int entering = first + (j + 4 - quarterTurns) % 4 * STRIP_COLORS;
+            int leaving = first + j * STRIP_COLORS;
+            offColor[j] = tallies[leaving + face] - tallies[entering + face];
         }
+        cube.getSquareCounts().add(ringSides[0].intValue(), offColor[0], ringSides[1].intValue(), offColor[1],
+                ringSides[2].intValue(), offColor[2], ringSides[3].intValue(), offColor[3]);
     }
 
     /**
-     * Reverses a row.
-     * @param side: side containing row
-     * @param row: reversed row
+     * Computes the change of the cube's hash (see `ZobristHash`) that turning the ring, and the face it contains,
+     * clockwise by `quarterTurns` right angles is about to make - reads every square to be moved once
+     * and XORs its key at its current position and at its next one.
+     * @param squares : squares of the densely stored cube
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     * @return XOR of the keys of the moved squares before and after the turn
      */
-    protected void reverseRow(Side side, int row) {
-        for (int i = 0, j = cube.getSize() - 1; i < j; i++, j--) {
-            swapSquareColors(side, row, i, side, row, j);
+    private long hashMoves(Color[][] squares, int quarterTurns) {
+        TiledLayout layout = cube.getLayout();
+        long delta = 0;
+        for (int j = 0; j < 4; j++) {
+            int next = (j + quarterTurns) % 4;
+            int face = ringSides[j].intValue();
+            int nextFace = ringSides[next].intValue();
+            Color[] strip = squares[face];
+            for (int i = 0, index = ringStarts[j], nextIndex = ringStarts[next]; i < cube.getSize();
+                 i++, index += ringStrides[j], nextIndex += ringStrides[next]) {
+                int color = strip[layout == null ? index : ringIndex(j, i, layout)].intValue();
+                delta ^= ZobristHash.key(face, index, color) ^ ZobristHash.key(nextFace, nextIndex, color);
+            }
         }
+        if (layer == 0) {
+            delta ^= hashFace(squares, side, quarterTurns);
+        }
+        else if (layer == cube.getSize() - 1) {
+            delta ^= hashFace(squares, side.opposite(), 4 - quarterTurns);
+        }
+        return delta;
     }
 
     /**
-     * Reverses a column.
-     * @param side: side containing column
-     * @param col: reversed column
+     * Computes the change of the cube's hash that turning a side clockwise by `quarterTurns` right angles
+     * is about to make, as `hashMoves` does for the ring.
      */
-    protected void reverseColumn(Side side, int col) {
-        for (int i = 0, j = cube.getSize() - 1; i < j; i++, j--) {
-            swapSquareColors(side, i, col, side, j, col);
+    private long hashFace(Color[][] squares, Side side, int quarterTurns) {
+        int n = cube.getSize();
+        int s = side.intValue();
+        Color[] face = squares[s];
+        TiledLayout layout = cube.getLayout();
+        int[] orbit = new int[4];
+        long delta = 0;
+        for (int row = 0; row < n / 2; row++) {
+            for (int col = row; col < n - 1 - row; col++) {
+                orbit[0] = row * n + col;
+                orbit[1] = col * n + (n - 1 - row);
+                orbit[2] = (n - 1 - row) * n + (n - 1 - col);
+                orbit[3] = (n - 1 - col) * n + row;
+                for (int j = 0; j < 4; j++) {
+                    int p = orbit[j];
+                    int color = face[layout == null ? p : layout.index(p / n, p % n)].intValue();
+                    delta ^= ZobristHash.key(s, p, color) ^ ZobristHash.key(s, orbit[(j + quarterTurns) % 4], color);
+                }
+            }
         }
+        return delta;
     }
 
     /**
-     * Reflects a side of the cube diagonally.
-     * @param side : reflected side
+     * @param strip : index of a strip of the ring
+     * @param i : index of a square in the strip
+     * @param layout : layout of the faces with tiled storage, or null
+     * @return position of the square in its face's array
      */
-    private void reflectDiagonally(Side side) {
+    private int ringIndex(int strip, int i, TiledLayout layout) {
+        return layout == null ? ringStarts[strip] + i * ringStrides[strip]
+                : layout.index(ringRows[strip] + i * ringRowSteps[strip], ringCols[strip] + i * ringColSteps[strip]);
+    }
+
+    /**
+     * Passes to the cube's `SquareCounts` the changes that turning the ring clockwise by `quarterTurns`
+     * right angles is about to make - for compiled rotations, which move the squares without looking at them.
+     * @param squares : squares of the densely stored cube, in row-major arrays
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    private void countRing(Color[][] squares, int quarterTurns) {
+        Color[] s0 = squares[ringSides[0].intValue()];
+        Color[] s1 = squares[ringSides[1].intValue()];
+        Color[] s2 = squares[ringSides[2].intValue()];
+        Color[] s3 = squares[ringSides[3].intValue()];
+        long[] tallies = new long[4 * STRIP_COLORS];
         for (int i = 0; i < cube.getSize(); i++) {
-            for (int j = i + 1; j < cube.getSize(); j++) {
-                swapSquareColors(side, i, j, side, j, i);
-            }
+            tally(tallies, 0, s0[ringStarts[0] + i * ringStrides[0]], s1[ringStarts[1] + i * ringStrides[1]],
+                    s2[ringStarts[2] + i * ringStrides[2]], s3[ringStarts[3] + i * ringStrides[3]]);
+        }
+        recordRing(tallies, 0, quarterTurns);
+    }
+
+    private void applyUnrolled(Color[][] squares, int quarterTurns) {
+        switch (quarterTurns) {
+            case 1 : unrolled.turn1(squares); break;
+            case 2 : unrolled.turn2(squares); break;
+            case 3 : unrolled.turn3(squares); break;
+            default : break;
         }
     }
 
     /**
-     * Reflects a side of the cube horizontally.
-     * @param side : reflected side
+     * Turns the ring clockwise by `quarterTurns` right angles on a sparsely stored cube.
+     * @param sparse : differences of the cube, locked by the caller
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
      */
-    private void reflectHorizontally(Side side) {
+    private void applySparse(SparseSquares sparse, int quarterTurns) {
         for (int i = 0; i < cube.getSize(); i++) {
-            for (int j = 0; j < cube.getSize() / 2; j++) {
-                swapSquareColors(side, i, j, side, i, cube.getSize() - 1 - j);
+            sparse.cycle(ringSides[0].intValue(), ringStarts[0] + i * ringStrides[0],
+                    ringSides[1].intValue(), ringStarts[1] + i * ringStrides[1],
+                    ringSides[2].intValue(), ringStarts[2] + i * ringStrides[2],
+                    ringSides[3].intValue(), ringStarts[3] + i * ringStrides[3],
+                    quarterTurns);
+        }
+
+        if (layer == 0) {
+            sparse.turnFace(side.intValue(), quarterTurns);
+        }
+        else if (layer == cube.getSize() - 1) {
+            sparse.turnFace(side.opposite().intValue(), 4 - quarterTurns);
+        }
+    }
+
+    /**
+     * Describes a clockwise quarter turn of the ring as a permutation of the cube's squares,
+     * numbered `side * size * size + row * size + col`. Doesn't touch the cube's squares.
+     * @return array `sources` such that the square at position `sources[i]` moves to position `i`
+     */
+    public int[] permutation() {
+        int[] sources = new int[Side.SIDES.intValue() * cube.getSize() * cube.getSize()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = i;
+        }
+        int[] moves = movedSquares();
+        for (int i = 0; i < moves.length; i += 2) {
+            sources[moves[i]] = moves[i + 1];
+        }
+        return sources;
+    }
+
+    /**
+     * Lists the squares moved by a clockwise quarter turn of the ring (see `permutation`) -
+     * `4 * size` squares, plus those of a face turned along, and not a single square more.
+     * @return pairs of positions (target, source): the square at the source moves to the target
+     */
+    public int[] movedSquares() {
+        int n = cube.getSize();
+        int area = n * n;
+        boolean turnsFace = layer == 0 || layer == n - 1;
+        int[] moves = new int[2 * (4 * n + (turnsFace ? area : 0))];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < 4; j++) {
+                int next = (j + 1) % 4;
+                moves[count++] = ringSides[next].intValue() * area + ringStarts[next] + i * ringStrides[next];
+                moves[count++] = ringSides[j].intValue() * area + ringStarts[j] + i * ringStrides[j];
+            }
+        }
+
+        if (layer == 0) {
+            count = moveSide(moves, count, side, 1);
+        }
+        else if (layer == n - 1) {
+            count = moveSide(moves, count, side.opposite(), 3);
+        }
+        return Arrays.copyOf(moves, count);
+    }
+
+    /**
+     * Lists the squares moved by a turn of a side by `quarterTurns` clockwise right angles (see `movedSquares`).
+     * @return number of filled elements of `moves`
+     */
+    private int moveSide(int[] moves, int count, Side side, int quarterTurns) {
+        int n = cube.getSize();
+        int first = side.intValue() * n * n;
+        for (int row = 0; row < n / 2; row++) {
+            for (int col = row; col < n - 1 - row; col++) {
+                int[] orbit = {
+                        first + row * n + col,
+                        first + col * n + (n - 1 - row),
+                        first + (n - 1 - row) * n + (n - 1 - col),
+                        first + (n - 1 - col) * n + row
+                };
+                for (int j = 0; j < 4; j++) {
+                    moves[count++] = orbit[(j + quarterTurns) % 4];
+                    moves[count++] = orbit[j];
+                }
             }
         }
+        return count;
     }
 
     /**
-     * Reflects a side of the cube vertically.
-     * @param side : reflected side
+     * Turns the ring clockwise by a quarter turn in a permutation of the cube's squares (see `permutation`)
+     * instead of the cube - moves its entries as `applyRotation` moves squares, touching only those the rotation moves.
+     * Afterwards, `sources` is the permutation followed by this rotation.
+     * @param sources : the square at position `sources[i]` moves to position `i`, for a cube of this rotation's size
      */
-    private void reflectVertically(Side side) {
-        for (int i = 0; i < cube.getSize() / 2; i++) {
-            for (int j = 0; j < cube.getSize(); j++) {
-                swapSquareColors(side, i, j, side, cube.getSize() - 1 - i, j);
+    public void applyTo(int[] sources) {
+        int n = cube.getSize();
+        int area = n * n;
+        int p0 = ringSides[0].intValue() * area + ringStarts[0];
+        int p1 = ringSides[1].intValue() * area + ringStarts[1];
+        int p2 = ringSides[2].intValue() * area + ringStarts[2];
+        int p3 = ringSides[3].intValue() * area + ringStarts[3];
+        for (int i = 0; i < n; i++) {
+            cycle(sources, p0 + i * ringStrides[0], p1 + i * ringStrides[1],
+                    p2 + i * ringStrides[2], p3 + i * ringStrides[3], 1);
+        }
+
+        Side turned = layer == 0 ? side : layer == n - 1 ? side.opposite() : null;
+        if (turned != null) {
+            int first = turned.intValue() * area;
+            for (int row = 0; row < n / 2; row++) {
+                for (int col = row; col < n - 1 - row; col++) {
+                    cycle(sources, first + row * n + col,
+                            first + col * n + (n - 1 - row),
+                            first + (n - 1 - row) * n + (n - 1 - col),
+                            first + (n - 1 - col) * n + row,
+                            turned == side ? 1 : 3);
+                }
             }
         }
     }
 
     /**
-     * Rotates a side of the cube counter-clockwise by 90 degrees
-     * as a composition of two linear isometries.
-     * @param side : rotated side
+     * Swaps colors of two squares on a cube.
+     * @param side_a : side of the first square
+     * @param row_a : row of the first square
+     * @param col_a : column of the first square
+     * @param side_b : side of the second square
+     * @param row_b : row of the second square
+     * @param col_b : column of the second square
      */
-    protected void turnSideCounterClockwise(Side side) {
-        reflectDiagonally(side);
-        reflectVertically(side);
+    public void swapSquareColors(Side side_a, int row_a, int col_a, Side side_b, int row_b, int col_b) {
+        Color temp = cube.getSquareColor(side_a, row_a, col_a);
+        cube.setSquareColor(cube.getSquareColor(side_b, row_b, col_b), side_a, row_a, col_a);
+        cube.setSquareColor(temp, side_b, row_b, col_b);
+    }
+
+    /**
+     * Assigns a row, traversed left to right, as a strip of the ring.
+     * @param strip : index of the strip
+     * @param side : side containing row
+     * @param row : the row
+     */
+    protected void row(int strip, Side side, int row) {
+        setStrip(strip, side, row * cube.getSize(), 1);
+    }
+
+    /**
+     * Assigns a row, traversed right to left, as a strip of the ring.
+     * @param strip : index of the strip
+     * @param side : side containing row
+     * @param row : the row
+     */
+    protected void reversedRow(int strip, Side side, int row) {
+        setStrip(strip, side, row * cube.getSize() + cube.getSize() - 1, -1);
+    }
+
+    /**
+     * Assigns a column, traversed top to bottom, as a strip of the ring.
+     * @param strip : index of the strip
+     * @param side : side containing column
+     * @param col : the column
+     */
+    protected void column(int strip, Side side, int col) {
+        setStrip(strip, side, col, cube.getSize());
+    }
+
+    /**
+     * Assigns a column, traversed bottom to top, as a strip of the ring.
+     * @param strip : index of the strip
+     * @param side : side containing column
+     * @param col : the column
+     */
+    protected void reversedColumn(int strip, Side side, int col) {
+        setStrip(strip, side, (cube.getSize() - 1) * cube.getSize() + col, -cube.getSize());
+    }
+
+    private void setStrip(int strip, Side side, int start, int stride) {
+        ringSides[strip] = side;
+        ringStarts[strip] = start;
+        ringStrides[strip] = stride;
+        ringRows[strip] = start / cube.getSize();
+        ringCols[strip] = start % cube.getSize();
+        ringRowSteps[strip] = stride / cube.getSize();
+        ringColSteps[strip] = stride % cube.getSize();
     }
 
     /**
-     * Rotates a side of the cube clockwise by 90 degrees.
-     * as a composition of two linear isometries.
+     * Moves the squares at four positions cyclically by `quarterTurns` steps:
+     * the square at position `j` ends up at position `j + quarterTurns` (mod 4).
+     */
+    private static void cycle(Color[] a0, int i0, Color[] a1, int i1,
+                              Color[] a2, int i2, Color[] a3, int i3, int quarterTurns) {
+        Color v0 = a0[i0];
+        Color v1 = a1[i1];
+        Color v2 = a2[i2];
+        Color v3 = a3[i3];
+        switch (quarterTurns) {
+            case 1 : a1[i1] = v0; a2[i2] = v1; a3[i3] = v2; a0[i0] = v3; break;
+            case 2 : a2[i2] = v0; a3[i3] = v1; a0[i0] = v2; a1[i1] = v3; break;
+            case 3 : a3[i3] = v0; a0[i0] = v1; a1[i1] = v2; a2[i2] = v3; break;
+            default : break;
+        }
+    }
+
+    /**
+     * Moves the entries at four positions of a permutation cyclically by `quarterTurns` steps, as `cycle` moves squares.
+     */
+    private static void cycle(int[] sources, int i0, int i1, int i2, int i3, int quarterTurns) {
+        int v0 = sources[i0];
+        int v1 = sources[i1];
+        int v2 = sources[i2];
+        int v3 = sources[i3];
+        switch (quarterTurns) {
+            case 1 : sources[i1] = v0; sources[i2] = v1; sources[i3] = v2; sources[i0] = v3; break;
+            case 3 : sources[i3] = v0; sources[i0] = v1; sources[i1] = v2; sources[i2] = v3; break;
+            default : break;
+        }
+    }
+
+    /**
+     * Rotates a side of the cube clockwise by `quarterTurns` right angles,
+     * moving each of its squares once - along its orbit of four positions.
      * @param side : rotated side
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
      */
-    protected void turnSideClockwise(Side side) {
-        reflectDiagonally(side);
-        reflectHorizontally(side);
+    protected void turnSide(Side side, int quarterTurns) {
+        int n = cube.getSize();
+        Color[] face = cube.getStoredSquares()[side.intValue()];
+        TiledLayout layout = cube.getLayout();
+        for (int row = 0; row < n / 2; row++) {
+            for (int col = row; col < n - 1 - row; col++) {
+                // a clockwise quarter turn moves the square at i0 to i1, i1 to i2, i2 to i3 and i3 to i0
+                int i0 = layout == null ? row * n + col : layout.index(row, col);
+                int i1 = layout == null ? col * n + (n - 1 - row) : layout.index(col, n - 1 - row);
+                int i2 = layout == null ? (n - 1 - row) * n + (n - 1 - col) : layout.index(n - 1 - row, n - 1 - col);
+                int i3 = layout == null ? (n - 1 - col) * n + row : layout.index(n - 1 - col, row);
+                cycle(face, i0, face, i1, face, i2, face, i3, quarterTurns);
+            }
+        }
     }
 
 }
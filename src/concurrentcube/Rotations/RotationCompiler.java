@@ -0,0 +1,254 @@
+package concurrentcube.Rotations;
+
+import concurrentcube.BitboardSquares;
+import concurrentcube.Cube;
+import concurrentcube.CubeOptions;
+import concurrentcube.Side;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles rotations of densely stored cubes into hidden classes (see `CubeOptions.compiledRotations`).
+ *
+ * For every (size, side, layer), the permutations of the squares for one, two and three quarter turns
+ * (see `Rotation.permutation`) are emitted as three straight-line methods of an `UnrolledRotation`:
+ * every cycle of the permutation becomes a sequence of array loads and stores with constant indices,
+ * with no loops, index arithmetic or branches left for the JIT to specialize.
+ * Classes are compiled on first use and cached per size, shared by all cubes.
+ *
+ * Unrolled code grows with the square of the size, and beyond `MAX_SIZE` it loses to the generic loops of `Rotation`
+ * (instruction cache misses, and methods too big for the JIT to compile well), so bigger cubes keep running them.
+ * Cubes of size up to 3 are stored in bitboards and never run generated code either.
+ */
+final class RotationCompiler {
+    /* Biggest size whose rotations are compiled - measured to be the last one at which they are still faster */
+    private static final int MAX_SIZE = 9;
+
+    private static final String CLASS_NAME = "concurrentcube/Rotations/CompiledRotation";
+    private static final String INTERFACE_NAME = "concurrentcube/Rotations/UnrolledRotation";
+    private static final String TURN_DESCRIPTOR = "([[Lconcurrentcube/Color;)V";
+
+    /* Local variables of the generated methods: `this`, the squares, the six faces and a temporary square */
+    private static final int SQUARES_LOCAL = 1;
+    private static final int FIRST_FACE_LOCAL = 2;
+    private static final int TEMP_LOCAL = FIRST_FACE_LOCAL + 6;
+
+    /* Compiled rotations of every size */
+    private static final Map<Integer, SizeCode> compiled = new ConcurrentHashMap<>();
+
+    /**
+     * Rotations of one size, indexed [side][layer]: the compiled ones, and those that failed to compile,
+     * which are not tried again. Written with the object's lock held.
+     */
+    private static final class SizeCode {
+        final UnrolledRotation[][] code;
+        final boolean[][] failed;
+
+        SizeCode(int size) {
+            code = new UnrolledRotation[Side.SIDES.intValue()][size];
+            failed = new boolean[Side.SIDES.intValue()][size];
+        }
+    }
+
+    private RotationCompiler() {
+    }
+
+    /**
+     * Finds or compiles the code of `rotation`, if its cube wants compiled rotations and stores its squares
+     * in row-major arrays.
+     * @param rotation : a rotation with its ring defined
+     * @return compiled rotation, or null if the rotation is to run the generic loops
+     */
+    static UnrolledRotation compiled(Rotation rotation) {
+        Cube cube = rotation.getCube();
+        CubeOptions options = cube.getOptions();
+        if (!options.getCompiledRotations() || options.getStorage() != CubeOptions.Storage.DENSE
+                || cube.getSize() <= BitboardSquares.MAX_SIZE || cube.getSize() > MAX_SIZE) {
+            return null;
+        }
+
+        SizeCode sizeCode = compiled.computeIfAbsent(cube.getSize(), SizeCode::new);
+        int side = rotation.getSide().intValue();
+        int layer = rotation.getLayer();
+        UnrolledRotation code = sizeCode.code[side][layer];
+        if (code == null) {
+            synchronized (sizeCode) {
+                code = sizeCode.code[side][layer];
+                if (code == null && !sizeCode.failed[side][layer]) {
+                    code = compile(rotation);
+                    sizeCode.code[side][layer] = code;
+                    sizeCode.failed[side][layer] = code == null;
+                }
+            }
+        }
+        return code;
+    }
+
+    /**
+     * @return the compiled rotation, null if the JVM rejects its class
+     */
+    private static UnrolledRotation compile(Rotation rotation) {
+        int size = rotation.getCube().getSize();
+        int[] quarter = rotation.permutation();
+        int[] half = new int[quarter.length];
+        int[] threeQuarters = new int[quarter.length];
+        for (int i = 0; i < quarter.length; i++) {
+            half[i] = quarter[quarter[i]];
+        }
+        for (int i = 0; i < quarter.length; i++) {
+            threeQuarters[i] = quarter[half[i]];
+        }
+
+        byte[][] code = { turnCode(quarter, size), turnCode(half, size), turnCode(threeQuarters, size) };
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile(code), true);
+            return (UnrolledRotation) lookup.lookupClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Emits the bytecode moving the squares as `sources` says, cycle by cycle -
+     * the first square of a cycle is saved in a temporary variable, the others are moved along the cycle
+     * and the saved square is stored last.
+     * @param sources : the square at position `sources[i]` moves to position `i`
+     * @param size : size of the cube
+     * @return code of the method, ending with `return`
+     */
+    private static byte[] turnCode(int[] sources, int size) {
+        int area = size * size;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int side = 0; side < Side.SIDES.intValue(); side++) {
+            bytes.write(0x19);                          // aload squares
+            bytes.write(SQUARES_LOCAL);
+            bytes.write(0x03 + side);                   // iconst_<side>
+            bytes.write(0x32);                          // aaload
+            bytes.write(0x3a);                          // astore face
+            bytes.write(FIRST_FACE_LOCAL + side);
+        }
+
+        boolean[] moved = new boolean[sources.length];
+        for (int first = 0; first < sources.length; first++) {
+            if (moved[first] || sources[first] == first) {
+                continue;
+            }
+            loadSquare(bytes, first, area);
+            bytes.write(0x3a);                          // astore temp
+            bytes.write(TEMP_LOCAL);
+
+            int target = first;
+            while (sources[target] != first) {
+                moved[target] = true;
+                squareRef(bytes, target, area);
+                loadSquare(bytes, sources[target], area);
+                bytes.write(0x53);                      // aastore
+                target = sources[target];
+            }
+            moved[target] = true;
+            squareRef(bytes, target, area);
+            bytes.write(0x19);                          // aload temp
+            bytes.write(TEMP_LOCAL);
+            bytes.write(0x53);                          // aastore
+        }
+        bytes.write(0xb1);                              // return
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Pushes the face array and the index of a square.
+     */
+    private static void squareRef(ByteArrayOutputStream bytes, int square, int area) {
+        int index = square % area;
+        bytes.write(0x19);                              // aload face
+        bytes.write(FIRST_FACE_LOCAL + square / area);
+        bytes.write(0x11);                              // sipush index
+        bytes.write(index >> 8);
+        bytes.write(index & 0xFF);
+    }
+
+    /**
+     * Pushes the color of a square.
+     */
+    private static void loadSquare(ByteArrayOutputStream bytes, int square, int area) {
+        squareRef(bytes, square, area);
+        bytes.write(0x32);                              // aaload
+    }
+
+    /**
+     * Builds a class file implementing `UnrolledRotation` with the given method bodies.
+     * The methods have no branches, so the class needs no stack map frames.
+     * @param code : bodies of `turn1`, `turn2` and `turn3`
+     */
+    private static byte[] classFile(byte[][] code) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);                          // minor version
+            out.writeShort(52);                         // major version - Java 8
+
+            out.writeShort(16);                         // constant pool count
+            utf8(out, CLASS_NAME);                      // #1
+            out.writeByte(7); out.writeShort(1);        // #2 this class
+            utf8(out, "java/lang/Object");              // #3
+            out.writeByte(7); out.writeShort(3);        // #4 super class
+            utf8(out, INTERFACE_NAME);                  // #5
+            out.writeByte(7); out.writeShort(5);        // #6 interface
+            utf8(out, "<init>");                        // #7
+            utf8(out, "()V");                           // #8
+            out.writeByte(12); out.writeShort(7); out.writeShort(8);   // #9 name and type
+            out.writeByte(10); out.writeShort(4); out.writeShort(9);   // #10 Object.<init>
+            utf8(out, "Code");                          // #11
+            utf8(out, "turn1");                         // #12
+            utf8(out, "turn2");                         // #13
+            utf8(out, "turn3");                         // #14
+            utf8(out, TURN_DESCRIPTOR);                 // #15
+
+            out.writeShort(0x0031);                     // public final super
+            out.writeShort(2);
+            out.writeShort(4);
+            out.writeShort(1);                          // interfaces
+            out.writeShort(6);
+            out.writeShort(0);                          // fields
+
+            out.writeShort(1 + code.length);            // methods
+            byte[] constructor = { 0x2a, (byte) 0xb7, 0, 10, (byte) 0xb1 };  // aload_0, invokespecial #10, return
+            method(out, 7, 8, 1, 1, constructor);
+            for (int i = 0; i < code.length; i++) {
+                method(out, 12 + i, 15, 4, TEMP_LOCAL + 1, code[i]);
+            }
+            out.writeShort(0);                          // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void method(DataOutputStream out, int name, int descriptor, int maxStack, int maxLocals,
+                               byte[] code) throws IOException {
+        out.writeShort(0x0001);                         // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);                              // attributes
+        out.writeShort(11);                             // Code
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                              // exception table
+        out.writeShort(0);                              // attributes
+    }
+
+}
@@ -21,12 +21,11 @@ public class TopRotation extends Rotation {
     }
 
     @Override
-    public void applyRotation() {
-        swapRowAndRow(Side.Left, layer, Side.Front, layer);
-        swapRowAndRow(Side.Front, layer, Side.Right, layer);
-        swapRowAndRow(Side.Right, layer, Side.Back, layer);
-
-        super.applyRotation();
+    protected void defineRing() {
+        row(0, Side.Left, layer);
+        row(1, Side.Back, layer);
+        row(2, Side.Right, layer);
+        row(3, Side.Front, layer);
     }
 
 }
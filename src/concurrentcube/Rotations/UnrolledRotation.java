@@ -0,0 +1,27 @@
+package concurrentcube.Rotations;
+
+import concurrentcube.Color;
+
+/**
+ * A rotation of one (size, side, layer), compiled by `RotationCompiler` into straight-line code
+ * moving every square with constant indices. Implemented only by generated classes.
+ */
+interface UnrolledRotation {
+
+    /**
+     * Turns the layer clockwise by a quarter turn.
+     * @param squares : squares of a densely stored cube of the compiled size, indexed `[side][row * size + col]`
+     */
+    void turn1(Color[][] squares);
+
+    /**
+     * Turns the layer by a half turn.
+     */
+    void turn2(Color[][] squares);
+
+    /**
+     * Turns the layer clockwise by three quarter turns.
+     */
+    void turn3(Color[][] squares);
+
+}
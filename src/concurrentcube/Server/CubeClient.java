@@ -0,0 +1,230 @@
+package concurrentcube.Server;
+
+import concurrentcube.Side;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blocking client of `CubeServer`.
+ *
+ * Requests are buffered by the `send*` methods and written out by `flush`,
+ * responses are then read in request order by the `read*` methods,
+ * so any number of requests may be pipelined.
+ * `rotate` and `show` do all three steps for a single request.
+ *
+ * A client is not thread-safe - every thread should use its own connection.
+ */
+public class CubeClient implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+    public CubeClient(InetSocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+        this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.in.flip();
+    }
+
+    public void sendRotate(int side, int layer) throws IOException {
+        ensureSpace(1 + 2 * Protocol.varintLength(Integer.MAX_VALUE));
+        out.put(Protocol.OP_ROTATE);
+        Protocol.writeVarint(out, side);
+        Protocol.writeVarint(out, layer);
+    }
+
+    public void sendShow() throws IOException {
+        ensureSpace(1);
+        out.put(Protocol.OP_SHOW);
+    }
+
+    /**
+     * Writes all buffered requests to the server.
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Waits for the response to a rotation request.
+     * @throws IOException : if the server responded with an error
+     */
+    public void readRotateAck() throws IOException {
+        byte op = readByte();
+        if (op != Protocol.OP_ROTATE) {
+            throw unexpected(op);
+        }
+    }
+
+    /**
+     * Waits for the response to a show request.
+     * @return the cube's state as returned by `Cube.show`
+     * @throws IOException : if the server responded with an error
+     */
+    public String readShow() throws IOException {
+        byte op = readByte();
+        if (op != Protocol.OP_SHOW) {
+            throw unexpected(op);
+        }
+        int size = readVarint();
+        int length = Protocol.packedStateLength(size);
+        ByteBuffer packed = (length <= in.capacity()) ? fill(length) : readFully(length);
+        String state = Protocol.decodeState(packed, size);
+        packed.position(packed.position() + length);
+        return state;
+    }
+
+    public void rotate(int side, int layer) throws IOException {
+        sendRotate(side, layer);
+        flush();
+        readRotateAck();
+    }
+
+    public String show() throws IOException {
+        sendShow();
+        flush();
+        return readShow();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void ensureSpace(int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private IOException unexpected(byte op) throws IOException {
+        if (op == Protocol.OP_ERROR) {
+            return new IOException("Server error " + readVarint() + ".");
+        }
+        return new IOException("Unexpected response " + op + ".");
+    }
+
+    /**
+     * Makes sure at least `bytes` unread bytes are in `in`.
+     * @return `in`
+     */
+    private ByteBuffer fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return in;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException();
+            }
+        }
+        in.flip();
+        return in;
+    }
+
+    /**
+     * Reads a response longer than `in` into a dedicated buffer.
+     */
+    private ByteBuffer readFully(int bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(bytes);
+        int fromIn = Math.min(in.remaining(), bytes);
+        buf.put(in.slice().limit(fromIn));
+        in.position(in.position() + fromIn);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buf.flip();
+    }
+
+    private byte readByte() throws IOException {
+        return fill(1).get();
+    }
+
+    private int readVarint() throws IOException {
+        int needed = 1;
+        while (true) {
+            int value = Protocol.readVarint(fill(needed));
+            if (value == Protocol.MALFORMED) {
+                throw new IOException("Malformed varint.");
+            }
+            if (value != Protocol.INCOMPLETE) {
+                return value;
+            }
+            needed = in.remaining() + 1;
+        }
+    }
+
+    /**
+     * Load test: every connection pipelines random rotations in windows of `depth` requests,
+     * displaying the cube after every window, and the overall throughput is printed.
+     *
+     * Usage: CubeClient host port [connections] [rotationsPerConnection] [depth]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: CubeClient host port [connections] [rotationsPerConnection] [depth]");
+            System.exit(1);
+        }
+        InetSocketAddress address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        int connections = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+        int rotations = (args.length > 3) ? Integer.parseInt(args[3]) : 100000;
+        int depth = (args.length > 4) ? Integer.parseInt(args[4]) : 64;
+
+        int size;
+        try (CubeClient probe = new CubeClient(address)) {
+            size = (int) Math.round(Math.sqrt(probe.show().length() / (double) Side.SIDES.intValue()));
+        }
+
+        AtomicLong requests = new AtomicLong();
+        Thread[] threads = new Thread[connections];
+        for (int t = 0; t < connections; t++) {
+            threads[t] = new Thread(() -> {
+                Random rand = new Random();
+                try (CubeClient client = new CubeClient(address)) {
+                    for (int done = 0; done < rotations; done += depth) {
+                        int window = Math.min(depth, rotations - done);
+                        for (int i = 0; i < window; i++) {
+                            client.sendRotate(rand.nextInt(Side.SIDES.intValue()), rand.nextInt(size));
+                        }
+                        client.sendShow();
+                        client.flush();
+                        for (int i = 0; i < window; i++) {
+                            client.readRotateAck();
+                        }
+                        client.readShow();
+                        requests.addAndGet(window + 1);
+                    }
+                } catch (IOException e) {
+                    System.out.println("[" + Thread.currentThread().getName() + "] " + e.getMessage());
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d requests in %.2f s (%.0f requests/s)%n",
+                requests.get(), seconds, requests.get() / seconds);
+    }
+
+}
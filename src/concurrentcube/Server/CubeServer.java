@@ -0,0 +1,457 @@
+package concurrentcube.Server;
+
+import concurrentcube.Cube;
+import concurrentcube.RotationBatch;
+import concurrentcube.Side;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking server sharing a single `Cube` between many connections (see `Protocol`).
+ *
+ * One selector thread accepts connections, reads and parses requests and writes responses.
+ * Requests of a connection are executed in order by a pool of workers, at most one worker
+ * per connection at a time, so clients may pipeline any number of requests.
+ * Consecutive rotations of a connection are submitted to the cube as one `RotationBatch`,
+ * and show snapshots are encoded straight into direct buffers of the connection, reused once written.
+ *
+ * Responses are owed from the moment their requests are parsed. A connection owing more than
+ * `MAX_QUEUED_BYTES` is not read (its requests wait in the socket)
+ * until its client has taken half of them, so a client that pipelines requests without reading
+ * the responses holds at most about `MAX_QUEUED_BYTES` of the server's memory.
+ */
+public class CubeServer implements Closeable {
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_GATHERED_WRITES = 16;
+    private static final int MAX_QUEUED_BYTES = 1 << 20;
+    /* Written show buffers a connection keeps for its next show responses */
+    private static final int MAX_POOLED_SHOW_BUFFERS = 4;
+
+    private final Cube cube;
+    private final int showResponseLength;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+
+    /* Connections whose workers produced responses since the selector last looked */
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running;
+
+    /**
+     * Creates a server bound to `address`. The server does not accept connections before `start`.
+     * @param cube : shared cube
+     * @param address : local address, port 0 picks an ephemeral port
+     * @param numWorkers : number of threads executing requests
+     */
+    public CubeServer(Cube cube, InetSocketAddress address, int numWorkers) throws IOException {
+        this.cube = cube;
+        this.showResponseLength = Protocol.showResponseLength(cube.getSize());
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(numWorkers);
+        this.selectorThread = new Thread(this::selectorLoop, "cube-server-selector");
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public void start() {
+        running = true;
+        selectorThread.start();
+    }
+
+    /**
+     * Stops the server, closing all connections.
+     * Requests still waiting for the cube are interrupted.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    /* ------------------------ Selector thread ------------------------ */
+
+    private void selectorLoop() {
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                break;
+            }
+            Connection pending;
+            while ((pending = pendingWrites.poll()) != null) {
+                pending.write();
+            }
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection conn = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    conn.read(readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    conn.write();
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        } catch (IOException ignored) {
+            // the client gave up before being accepted
+        }
+    }
+
+    /* ------------------------ Connections ------------------------ */
+
+    /**
+     * Parsed requests of a connection, stored in primitive arrays.
+     */
+    private static class RequestQueue {
+        private byte[] ops = new byte[64];
+        private int[] sides = new int[64];
+        private int[] layers = new int[64];
+        private int size;
+
+        void add(byte op, int side, int layer) {
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, 2 * size);
+                sides = Arrays.copyOf(sides, 2 * size);
+                layers = Arrays.copyOf(layers, 2 * size);
+            }
+            ops[size] = op;
+            sides[size] = side;
+            layers[size] = layer;
+            size++;
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+
+        /* Bytes read but not parsed - an incomplete request or requests held back while paused (selector only) */
+        private ByteBuffer unparsed = ByteBuffer.allocate(16);
+        /* Bytes of the responses to all parsed requests not written yet (selector thread only) */
+        private long owed;
+        /* Is reading paused until the client takes its responses (selector thread only) */
+        private boolean paused;
+        /* Requests parsed by the selector, guarded by `this` */
+        private RequestQueue incoming = new RequestQueue();
+        /* Requests being executed by the worker (worker only) */
+        private RequestQueue executing = new RequestQueue();
+        /* Is a worker currently assigned to this connection, guarded by `this` */
+        private boolean scheduled;
+
+        /* Responses waiting to be written, in request order */
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        /* Responses handed to the channel but not fully written yet (selector thread only) */
+        private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+        /* Direct buffers of written show responses, for the worker to encode the next ones into */
+        private final Queue<ByteBuffer> freeShowBuffers = new ArrayBlockingQueue<>(MAX_POOLED_SHOW_BUFFERS);
+        private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_WRITES];
+        /* Set after a malformed request - nothing more is read, the connection closes once flushed */
+        private boolean closing;
+
+        private final RotationBatch batch = new RotationBatch();
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read(ByteBuffer buf) {
+            int read;
+            try {
+                buf.clear();
+                buf.put(unparsed.flip());
+                unparsed.clear();
+                read = channel.read(buf);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            buf.flip();
+            parse(buf);
+            if (!closing && buf.hasRemaining()) {
+                if (unparsed.capacity() < buf.remaining()) {
+                    unparsed = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                }
+                unparsed.put(buf);
+            }
+        }
+
+        /**
+         * Parses whole requests from `buf` and hands them to a worker, until the responses owed
+         * exceed `MAX_QUEUED_BYTES` - then pauses reading and leaves the rest of `buf` unparsed.
+         */
+        private void parse(ByteBuffer buf) {
+            boolean added = false;
+            synchronized (this) {
+                while (buf.hasRemaining() && !closing && owed <= MAX_QUEUED_BYTES) {
+                    int start = buf.position();
+                    byte op = buf.get();
+                    if (op == Protocol.OP_SHOW) {
+                        incoming.add(op, 0, 0);
+                        owed += showResponseLength;
+                        added = true;
+                    } else if (op == Protocol.OP_ROTATE) {
+                        int side = Protocol.readVarint(buf);
+                        int layer = (side >= 0) ? Protocol.readVarint(buf) : side;
+                        if (side == Protocol.INCOMPLETE || layer == Protocol.INCOMPLETE) {
+                            buf.position(start);
+                            break;
+                        }
+                        if (side == Protocol.MALFORMED || layer == Protocol.MALFORMED) {
+                            malformed();
+                        } else {
+                            incoming.add(op, side, layer);
+                            owed += isValid(side, layer)
+                                    ? 1 : Protocol.errorResponseLength(Protocol.ERR_INVALID_ARGUMENT);
+                            added = true;
+                        }
+                    } else {
+                        malformed();
+                    }
+                }
+                if (added && !scheduled) {
+                    scheduled = true;
+                    workers.execute(this::execute);
+                }
+            }
+            if (!closing && !paused && owed > MAX_QUEUED_BYTES) {
+                paused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Parses the requests held back while reading was paused, and reads again
+         * unless they are enough to pause it anew.
+         */
+        private void resume() {
+            paused = false;
+            parse(unparsed.flip());
+            unparsed.compact();
+            if (!paused && !closing) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /* Called with `this` held */
+        private void malformed() {
+            closing = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            incoming.add(Protocol.OP_ERROR, Protocol.ERR_MALFORMED, 0);
+            owed += Protocol.errorResponseLength(Protocol.ERR_MALFORMED);
+            if (!scheduled) {
+                scheduled = true;
+                workers.execute(this::execute);
+            }
+        }
+
+        /**
+         * Executes requests until the connection has none left (worker thread).
+         */
+        void execute() {
+            while (true) {
+                synchronized (this) {
+                    if (incoming.size == 0) {
+                        scheduled = false;
+                        return;
+                    }
+                    RequestQueue swapped = executing;
+                    executing = incoming;
+                    incoming = swapped;
+                }
+                try {
+                    executeAll(executing);
+                } catch (InterruptedException e) {
+                    // the server is shutting down
+                    return;
+                } finally {
+                    executing.size = 0;
+                    pendingWrites.add(this);
+                    selector.wakeup();
+                }
+            }
+        }
+
+        private void executeAll(RequestQueue requests) throws InterruptedException {
+            for (int i = 0; i < requests.size; i++) {
+                switch (requests.ops[i]) {
+                    case Protocol.OP_ROTATE:
+                        if (isValid(requests.sides[i], requests.layers[i])) {
+                            batch.add(requests.sides[i], requests.layers[i]);
+                        } else {
+                            flushBatch();
+                            responses.add(Protocol.encodeError(Protocol.ERR_INVALID_ARGUMENT));
+                        }
+                        break;
+                    case Protocol.OP_SHOW:
+                        flushBatch();
+                        responses.add(show());
+                        break;
+                    default:
+                        flushBatch();
+                        responses.add(Protocol.encodeError(requests.sides[i]));
+                        break;
+                }
+            }
+            flushBatch();
+        }
+
+        /**
+         * Encodes a show response into a free buffer of the connection, or a new one if none is free.
+         */
+        private ByteBuffer show() throws InterruptedException {
+            ByteBuffer free = freeShowBuffers.poll();
+            ByteBuffer buf = free != null ? free : ByteBuffer.allocateDirect(showResponseLength);
+            return cube.showAs(c -> Protocol.encodeShowResponse(c, buf));
+        }
+
+        private boolean isValid(int side, int layer) {
+            return side < Side.SIDES.intValue() && layer < cube.getSize();
+        }
+
+        private void flushBatch() throws InterruptedException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                cube.rotate(batch);
+            } catch (InterruptedException e) {
+                responses.add(Protocol.encodeError(Protocol.ERR_INTERRUPTED));
+                throw e;
+            }
+            byte[] acks = new byte[batch.size()];
+            Arrays.fill(acks, Protocol.OP_ROTATE);
+            responses.add(ByteBuffer.wrap(acks));
+            batch.clear();
+        }
+
+        /**
+         * Writes as many responses as the socket accepts (selector thread).
+         */
+        void write() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            ByteBuffer next;
+            while ((next = responses.poll()) != null) {
+                writing.add(next);
+            }
+            try {
+                while (!writing.isEmpty()) {
+                    int n = 0;
+                    for (ByteBuffer buf : writing) {
+                        if (n == MAX_GATHERED_WRITES) {
+                            break;
+                        }
+                        gathered[n++] = buf;
+                    }
+                    owed -= channel.write(gathered, 0, n);
+                    while (!writing.isEmpty() && !writing.peekFirst().hasRemaining()) {
+                        ByteBuffer written = writing.pollFirst();
+                        if (written.isDirect()) {
+                            freeShowBuffers.offer(written);
+                        }
+                    }
+                    if (gathered[n - 1].hasRemaining()) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            } finally {
+                Arrays.fill(gathered, null);
+            }
+
+            if (writing.isEmpty()) {
+                if (closing && responses.isEmpty() && !isScheduled()) {
+                    close();
+                    return;
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            if (paused && owed <= MAX_QUEUED_BYTES / 2) {
+                resume();
+            }
+        }
+
+        private synchronized boolean isScheduled() {
+            return scheduled;
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing more can be done with this connection
+            }
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+package concurrentcube.Server;
+
+import concurrentcube.Cube;
+import concurrentcube.PackedState;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary protocol spoken between `CubeServer` and `CubeClient`.
+ *
+ * Every request starts with a 1-byte opcode:
+ * - `OP_ROTATE` side layer : side and layer encoded as unsigned varints,
+ * - `OP_SHOW` : no arguments.
+ *
+ * Every request gets exactly one response, in the order the requests were sent:
+ * - `OP_ROTATE` : the rotation has been performed,
+ * - `OP_SHOW` size state : the cube's size as a varint followed by its state in packed form,
+ * - `OP_ERROR` code : the request failed, `code` is a varint.
+ *
+ * The packed state is in the form returned by `Cube.showPacked` (see `PackedState`).
+ */
+public final class Protocol {
+
+    public static final byte OP_ROTATE = 0x01;
+    public static final byte OP_SHOW = 0x02;
+    public static final byte OP_ERROR = 0x7F;
+
+    /* Side or layer out of range - the connection stays usable */
+    public static final int ERR_INVALID_ARGUMENT = 1;
+    /* The server was shut down while the request was waiting for the cube */
+    public static final int ERR_INTERRUPTED = 2;
+    /* Unknown opcode or malformed varint - the server closes the connection */
+    public static final int ERR_MALFORMED = 3;
+
+    /* Returned by `readVarint` when the buffer ends in the middle of a varint */
+    public static final int INCOMPLETE = -1;
+    /* Returned by `readVarint` when the varint does not fit in a non-negative int */
+    public static final int MALFORMED = -2;
+
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private Protocol() {}
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     * The buffer's position is advanced only if a whole varint was read.
+     * @param buf : source buffer
+     * @return decoded value, `INCOMPLETE` or `MALFORMED`
+     */
+    public static int readVarint(ByteBuffer buf) {
+        int pos = buf.position();
+        int value = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+            if (pos + i >= buf.limit()) {
+                return INCOMPLETE;
+            }
+            int b = buf.get(pos + i);
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    return MALFORMED;
+                }
+                buf.position(pos + i + 1);
+                return value;
+            }
+        }
+        return MALFORMED;
+    }
+
+    /**
+     * Writes a non-negative int as an unsigned LEB128 varint.
+     * @param buf : destination buffer
+     * @param value : written value
+     */
+    public static void writeVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /**
+     * @param value : non-negative int
+     * @return number of bytes `writeVarint` needs for `value`
+     */
+    public static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * @param size : size of a cube
+     * @return number of bytes of the packed state of a cube of size `size`
+     */
+    public static int packedStateLength(int size) {
+        return PackedState.length(size);
+    }
+
+    /**
+     * @param size : size of a cube
+     * @return number of bytes of an `OP_SHOW` response for a cube of size `size`
+     */
+    public static int showResponseLength(int size) {
+        return 1 + varintLength(size) + packedStateLength(size);
+    }
+
+    /**
+     * @param code : error code
+     * @return number of bytes of an `OP_ERROR` response with `code`
+     */
+    public static int errorResponseLength(int code) {
+        return 1 + varintLength(code);
+    }
+
+    /**
+     * Builds a complete `OP_SHOW` response for the current state of a cube.
+     * Meant to be passed to `Cube.showAs`, so that the response is built
+     * straight from the squares, with reader access to the cube.
+     * @param cube : displayed cube
+     * @return buffer ready to be written to a channel
+     */
+    public static ByteBuffer encodeShowResponse(Cube cube) {
+        return encodeShowResponse(cube, ByteBuffer.allocate(showResponseLength(cube.getSize())));
+    }
+
+    /**
+     * Same as above, reusing a buffer (possibly direct) instead of allocating one.
+     * @param cube : displayed cube
+     * @param buf : buffer with a capacity of at least `showResponseLength(size)`, cleared first
+     * @return `buf`, ready to be written to a channel
+     */
+    public static ByteBuffer encodeShowResponse(Cube cube, ByteBuffer buf) {
+        buf.clear();
+        buf.put(OP_SHOW);
+        writeVarint(buf, cube.getSize());
+        PackedState.encode(cube, buf);
+        return buf.flip();
+    }
+
+    /**
+     * Converts a packed state back to the representation returned by `Cube.show`.
+     * @param packed : packed state, starting at the buffer's position (which is left unchanged)
+     * @param size : size of the cube
+     * @return string of digits between 0 and 5
+     */
+    public static String decodeState(ByteBuffer packed, int size) {
+        return PackedState.toDigits(packed.duplicate(), size);
+    }
+
+    /**
+     * Writes an `OP_ERROR` response.
+     * @param code : error code
+     * @return buffer ready to be written to a channel
+     */
+    public static ByteBuffer encodeError(int code) {
+        ByteBuffer buf = ByteBuffer.allocate(errorResponseLength(code));
+        buf.put(OP_ERROR);
+        writeVarint(buf, code);
+        return buf.flip();
+    }
+
+}
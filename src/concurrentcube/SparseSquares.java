@@ -0,0 +1,347 @@
+package concurrentcube;
+
+import java.util.Arrays;
+
+/**
+ * Squares of a cube stored as their differences from the solved cube -
+ * a hash table (open addressing, linear probing) mapping the position `side * size * size + row * size + col`
+ * of every square not colored in its side's color to its color.
+ * A solved cube takes no memory beyond an empty table, and a rotation adds at most `4 * size` entries.
+ *
+ * Rotations of one axis run in parallel, so every rotation locks the table for its whole duration
+ * (see `Rotation.applyRotation`). When the number of differences exceeds the cube's threshold
+ * (see `CubeOptions.sparsityThreshold`), the table is retired and the cube switches to dense storage -
+ * whoever locks the table afterwards must check `isRetired` and use `Cube.getStoredSquares` instead.
+ */
+public final class SparseSquares {
+    private static final long EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    /* Bits of a color in the entries of `sortedDifferences` */
+    static final int COLOR_BITS = 3;
+    static final long COLOR_MASK = (1 << COLOR_BITS) - 1;
+
+    /**
+     * Receives the differences of a table.
+     */
+    interface Visitor {
+        void visit(int side, int index, Color color);
+    }
+
+    private final Cube cube;
+    private final int size;
+    private final long faceArea;
+    private final int maxDifferences;
+
+    private long[] keys;
+    private byte[] colors;
+    private int shift;
+    private int count = 0;
+    private boolean retired = false;
+    /* Hash of the differences (see `ZobristHash`) - squares in their side's color have key 0 */
+    private long hash = 0;
+
+    /**
+     * @param cube : cube stored in the table
+     * @param maxDifferences : number of differences above which the cube switches to dense storage
+     */
+    SparseSquares(Cube cube, long maxDifferences) {
+        this.cube = cube;
+        this.size = cube.getSize();
+        this.faceArea = (long) size * size;
+        this.maxDifferences = (int) Math.min(maxDifferences, MAX_CAPACITY / 2);
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * @return whether the cube has switched to dense storage, so the table must no longer be used
+     */
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * @return number of squares not colored in their side's color
+     */
+    public int differences() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return hash of the cube's squares (see `ZobristHash`)
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * @param side : side of the square
+     * @param index : position of the square in its side, `row * size + col`
+     * @return color of the square
+     */
+    public Color get(int side, int index) {
+        int slot = find(side * faceArea + index);
+        return slot < 0 ? Color.fromInt(side) : Color.fromInt(colors[slot]);
+    }
+
+    /**
+     * @param side : side of the square
+     * @param index : position of the square in its side, `row * size + col`
+     * @param color : new color of the square
+     */
+    public void set(int side, int index, Color color) {
+        long key = side * faceArea + index;
+        if (color.intValue() == side) {
+            int slot = find(key);
+            if (slot >= 0) {
+                hash ^= ZobristHash.key(side, index, colors[slot]);
+                removeAt(slot);
+            }
+        }
+        else {
+            int previous = put(key, (byte) color.intValue());
+            hash ^= ZobristHash.key(side, index, color)
+                    ^ (previous < 0 ? 0 : ZobristHash.key(side, index, previous));
+        }
+    }
+
+    /**
+     * Moves the squares at four positions cyclically by `quarterTurns` steps:
+     * the square at position `j` ends up at position `j + quarterTurns` (mod 4).
+     */
+    public void cycle(int side0, int i0, int side1, int i1, int side2, int i2, int side3, int i3, int quarterTurns) {
+        Color v0 = get(side0, i0);
+        Color v1 = get(side1, i1);
+        Color v2 = get(side2, i2);
+        Color v3 = get(side3, i3);
+        switch (quarterTurns) {
+            case 1 : set(side1, i1, v0); set(side2, i2, v1); set(side3, i3, v2); set(side0, i0, v3); break;
+            case 2 : set(side2, i2, v0); set(side3, i3, v1); set(side0, i0, v2); set(side1, i1, v3); break;
+            case 3 : set(side3, i3, v0); set(side0, i0, v1); set(side1, i1, v2); set(side2, i2, v3); break;
+            default : break;
+        }
+    }
+
+    /**
+     * Rotates a side of the cube clockwise by `quarterTurns` right angles.
+     * Squares of the side's color stay in it, so only the differences of the side are moved.
+     * @param side : rotated side
+     * @param quarterTurns : number of clockwise quarter turns, between 1 and 3
+     */
+    public void turnFace(int side, int quarterTurns) {
+        long first = side * faceArea;
+        int moved = 0;
+        for (long key : keys) {
+            if (key >= first && key < first + faceArea) {
+                moved++;
+            }
+        }
+        if (moved == 0) {
+            return;
+        }
+
+        int[] indices = new int[moved];
+        byte[] movedColors = new byte[moved];
+        moved = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] >= first && keys[slot] < first + faceArea) {
+                indices[moved] = (int) (keys[slot] - first);
+                movedColors[moved++] = colors[slot];
+            }
+        }
+        for (int index : indices) {
+            removeAt(find(first + index));
+        }
+        for (int i = 0; i < moved; i++) {
+            int row = indices[i] / size;
+            int col = indices[i] % size;
+            for (int q = 0; q < quarterTurns; q++) {
+                int turnedRow = col;
+                col = size - 1 - row;
+                row = turnedRow;
+            }
+            put(first + row * size + col, movedColors[i]);
+            Color color = Color.fromInt(movedColors[i]);
+            hash ^= ZobristHash.key(side, row * size + col, color) ^ ZobristHash.key(side, indices[i], color);
+        }
+    }
+
+    /**
+     * Switches the cube to dense storage and retires the table,
+     * if it holds more differences than the cube's threshold allows.
+     */
+    public void densifyIfNeeded() {
+        if (count > maxDifferences) {
+            retired = true;
+            cube.useDense(toArrays(), hash);
+        }
+    }
+
+    /**
+     * Forgets all differences - solves the cube.
+     */
+    void clear() {
+        count = 0;
+        hash = 0;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Passes every difference to `visitor`, in no particular order.
+     */
+    void forEach(Visitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                visitor.visit((int) (keys[slot] / faceArea), (int) (keys[slot] % faceArea), Color.fromInt(colors[slot]));
+            }
+        }
+    }
+
+    /**
+     * @param side : side of the cube
+     * @return colors of the squares of `side`, indexed `row * size + col`
+     */
+    Color[] face(int side) {
+        Color[] face = new Color[(int) faceArea];
+        Arrays.fill(face, Color.fromInt(side));
+        forEach((s, index, color) -> {
+            if (s == side) {
+                face[index] = color;
+            }
+        });
+        return face;
+    }
+
+    /**
+     * @return every difference as `position << COLOR_BITS | color`, sorted by position
+     *         (`side * size * size + row * size + col`, as the table's keys) -
+     *         so that the cube can be read row by row without building all of its squares (see `SquareRows`)
+     */
+    long[] sortedDifferences() {
+        long[] sorted = new long[count];
+        int i = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                sorted[i++] = keys[slot] << COLOR_BITS | colors[slot];
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return colors of all squares of the cube, as `Cube.getSquares` returns them
+     */
+    Color[][] toArrays() {
+        Color[][] squares = new Color[Side.SIDES.intValue()][];
+        for (int side = 0; side < squares.length; side++) {
+            squares[side] = new Color[(int) faceArea];
+            Arrays.fill(squares[side], Color.fromInt(side));
+        }
+        forEach((side, index, color) -> squares[side][index] = color);
+        return squares;
+    }
+
+    /**
+     * @return whether both tables hold the same differences
+     */
+    boolean sameAs(SparseSquares other) {
+        if (count != other.count || faceArea != other.faceArea) {
+            return false;
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                int otherSlot = other.find(keys[slot]);
+                if (otherSlot < 0 || other.colors[otherSlot] != colors[slot]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        colors = new byte[capacity];
+        Arrays.fill(keys, EMPTY);
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    private int home(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int slot = home(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return previous color of the square, -1 if it had none
+     */
+    private int put(long key, byte color) {
+        int mask = keys.length - 1;
+        int slot = home(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == key) {
+            int previous = colors[slot];
+            colors[slot] = color;
+            return previous;
+        }
+        colors[slot] = color;
+        keys[slot] = key;
+        if (++count > keys.length / 2 && keys.length < MAX_CAPACITY) {
+            grow();
+        }
+        return -1;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        byte[] oldColors = colors;
+        allocate(keys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = home(oldKeys[i]);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                colors[slot] = oldColors[i];
+            }
+        }
+    }
+
+    /**
+     * Removes the entry at `slot`, shifting back the entries of its probe sequence
+     * so that no lookup stops at the hole too early.
+     */
+    private void removeAt(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            if (((next - home(keys[next])) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                colors[hole] = colors[next];
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+        count--;
+    }
+
+}
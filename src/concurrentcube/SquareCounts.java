@@ -0,0 +1,207 @@
+package concurrentcube;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of a cube's squares kept up to date as squares move, so that `Cube.isSolved`
+ * (with `CubeOptions.offColorCounts`) and `Cube.isLegal` (with `CubeOptions.colorCounts`) take constant time.
+ *
+ * For every face, optionally, the number of its squares not colored in its color. A rotation moves squares
+ * between the four faces of its ring and compares the ring's squares with those faces' colors
+ * while it moves them (see `Rotation.applyRotation`) - a face turned along keeps all of its colors.
+ * Rotations of one axis run in parallel on the same four faces, so each adds its changes atomically, once -
+ * for cubes of up to `PACKED_SIZE`, in a single addition to all faces' counts packed into one `AtomicLong`.
+ * Every rotation adds the exact change of its own ring, so any sum of them is a count in `[0, size * size]`,
+ * and a packed count never borrows from or carries into its neighbours.
+ *
+ * For every color, optionally, the number of squares of the color. Rotations never change these counts,
+ * so only writes repainting squares (`Cube.setSquareColor`, `Cube.shuffle`) update them.
+ *
+ * The counts are exact only while no rotation is running, and the face counts
+ * only while the cube is stored in arrays.
+ */
+public final class SquareCounts {
+    /* Largest size of a cube whose face counts fit in `FACE_BITS` bits */
+    static final int PACKED_SIZE = 31;
+    private static final int FACE_BITS = 10;
+    private static final long FACE_MASK = (1L << FACE_BITS) - 1;
+
+    private final long area;
+    /* Squares of every face not colored in the face's color, FACE_BITS bits per face -
+       null for bigger cubes, or if the cube doesn't count them */
+    private final AtomicLong packed;
+    /* Squares of every face not colored in the face's color - null for cubes of up to PACKED_SIZE,
+       or if the cube doesn't count them */
+    private final AtomicLongArray offColor;
+    /* Squares of every color, null if the cube doesn't count them */
+    private final AtomicLongArray colors;
+
+    /**
+     * @param size : size of the cube
+     * @param offColorCounts : whether to count the squares of every face not colored in its color
+     * @param colorCounts : whether to count the squares of every color
+     */
+    SquareCounts(int size, boolean offColorCounts, boolean colorCounts) {
+        this.area = (long) size * size;
+        this.packed = offColorCounts && size <= PACKED_SIZE ? new AtomicLong() : null;
+        this.offColor = offColorCounts && size > PACKED_SIZE ? new AtomicLongArray(Side.SIDES.intValue()) : null;
+        this.colors = colorCounts ? new AtomicLongArray(Color.COLORS.intValue()) : null;
+        solved();
+    }
+
+    /**
+     * @param face : side of the cube
+     * @param delta : change of the number of the face's squares not colored in its color
+     */
+    public void add(int face, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        if (packed != null) {
+            packed.getAndAdd(delta << (FACE_BITS * face));
+        }
+        else if (offColor != null) {
+            offColor.getAndAdd(face, delta);
+        }
+    }
+
+    /**
+     * Adds the changes made by a rotation to the four faces of its ring.
+     */
+    public void add(int face0, long delta0, int face1, long delta1, int face2, long delta2, int face3, long delta3) {
+        if (packed != null) {
+            long delta = (delta0 << (FACE_BITS * face0)) + (delta1 << (FACE_BITS * face1))
+                    + (delta2 << (FACE_BITS * face2)) + (delta3 << (FACE_BITS * face3));
+            if (delta != 0) {
+                packed.getAndAdd(delta);
+            }
+            return;
+        }
+        add(face0, delta0);
+        add(face1, delta1);
+        add(face2, delta2);
+        add(face3, delta3);
+    }
+
+    /**
+     * @param face : side of the cube
+     * @return number of the face's squares not colored in its color, 0 if they are not counted
+     */
+    public long offColor(int face) {
+        if (packed != null) {
+            return packed.get() >>> (FACE_BITS * face) & FACE_MASK;
+        }
+        return offColor != null ? offColor.get(face) : 0;
+    }
+
+    public boolean hasOffColorCounts() {
+        return packed != null || offColor != null;
+    }
+
+    /**
+     * @return whether every face is colored in its color,
+     *         or true if the squares off their face's color are not counted
+     */
+    public boolean isSolved() {
+        if (packed != null) {
+            return packed.get() == 0;
+        }
+        if (offColor == null) {
+            return true;
+        }
+        for (int face = 0; face < offColor.length(); face++) {
+            if (offColor.get(face) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean hasColorCounts() {
+        return colors != null;
+    }
+
+    /**
+     * @return whether there are `size * size` squares of every color, or true if colors are not counted
+     */
+    public boolean isLegal() {
+        if (colors == null) {
+            return true;
+        }
+        for (int color = 0; color < colors.length(); color++) {
+            if (colors.get(color) != area) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts a square of `face` changing its color from `previous` to `color`.
+     */
+    void repaint(int face, Color previous, Color color) {
+        add(face, (color.intValue() != face ? 1 : 0) - (previous.intValue() != face ? 1 : 0));
+        repaintColor(previous, color);
+    }
+
+    /**
+     * Counts a square changing its color from `previous` to `color`, only in the counts of colors.
+     */
+    void repaintColor(Color previous, Color color) {
+        if (colors != null && previous != color) {
+            colors.getAndDecrement(previous.intValue());
+            colors.getAndIncrement(color.intValue());
+        }
+    }
+
+    /**
+     * Resets the counts to those of a solved cube, while no rotation is running.
+     */
+    void solved() {
+        for (int face = 0; face < Side.SIDES.intValue(); face++) {
+            setOffColor(face, 0);
+        }
+        if (colors != null) {
+            for (int color = 0; color < colors.length(); color++) {
+                colors.set(color, area);
+            }
+        }
+    }
+
+    /**
+     * Counts the squares from scratch, while no rotation is running.
+     * @param squares : squares of every face in any order, possibly padded with nulls
+     */
+    void recount(Color[][] squares) {
+        if (!hasOffColorCounts() && colors == null) {
+            return;
+        }
+        long[] colorCounts = new long[Color.COLORS.intValue()];
+        for (int face = 0; face < squares.length; face++) {
+            long count = 0;
+            for (Color color : squares[face]) {
+                if (color != null) {
+                    count += color.intValue() != face ? 1 : 0;
+                    colorCounts[color.intValue()]++;
+                }
+            }
+            setOffColor(face, count);
+        }
+        if (colors != null) {
+            for (int color = 0; color < colors.length(); color++) {
+                colors.set(color, colorCounts[color]);
+            }
+        }
+    }
+
+    private void setOffColor(int face, long count) {
+        if (packed != null) {
+            packed.getAndAdd((count - offColor(face)) << (FACE_BITS * face));
+        }
+        else if (offColor != null) {
+            offColor.set(face, count);
+        }
+    }
+
+}
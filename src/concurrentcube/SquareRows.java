@@ -0,0 +1,86 @@
+package concurrentcube;
+
+import java.util.Arrays;
+
+/**
+ * Cursor over a cube's squares row by row, in the order of `Cube.toString` (side, then row),
+ * reading every row into one reused buffer - so that readers streaming or packing the cube
+ * (see `StateStreamer` and `PackedState`) need memory for a row, not for the whole cube.
+ *
+ * A sparsely stored cube is read from its differences, sorted by position once,
+ * laid over the solved color of every row. A tiled cube is read straight from its tiles,
+ * copying the part of the row in every tile it crosses (see `TiledLayout.index`).
+ * Must be used with reader access to the cube.
+ */
+final class SquareRows {
+    private final int size;
+    private final Color[] row;
+    /* Differences of a sparsely stored cube (see `SparseSquares.sortedDifferences`), null for other storages */
+    private final long[] differences;
+    /* Squares of a densely stored cube as they are stored, null for a sparse one and a bitboard */
+    private final Color[][] squares;
+    /* Layout of the stored squares, null for row-major ones */
+    private final TiledLayout layout;
+    /* Squares of a small cube, null for other cubes */
+    private final BitboardSquares bitboard;
+
+    private int side = 0;
+    private int rowIndex = 0;
+    private int nextDifference = 0;
+
+    SquareRows(Cube cube) {
+        this.size = cube.getSize();
+        this.row = new Color[size];
+        SparseSquares sparse = cube.getSparseSquares();
+        this.differences = sparse == null ? null : sparse.sortedDifferences();
+        this.squares = sparse == null ? cube.getStoredSquares() : null;
+        this.layout = cube.getLayout();
+        this.bitboard = sparse == null ? cube.getBitboard() : null;
+    }
+
+    /**
+     * @return squares of the next row, indexed by column - overwritten by the next call -
+     *         or null after the last row of the last side
+     */
+    Color[] next() {
+        if (side == Side.SIDES.intValue()) {
+            return null;
+        }
+        if (differences != null) {
+            readDifferences();
+        }
+        else if (bitboard != null) {
+            for (int col = 0; col < size; col++) {
+                row[col] = bitboard.get(side, rowIndex * size + col);
+            }
+        }
+        else if (layout != null) {
+            for (int col = 0; col < size; col += TiledLayout.TILE) {
+                System.arraycopy(squares[side], layout.index(rowIndex, col), row, col,
+                        Math.min(TiledLayout.TILE, size - col));
+            }
+        }
+        else {
+            System.arraycopy(squares[side], rowIndex * size, row, 0, size);
+        }
+        if (++rowIndex == size) {
+            rowIndex = 0;
+            side++;
+        }
+        return row;
+    }
+
+    private void readDifferences() {
+        Arrays.fill(row, Color.fromInt(side));
+        long first = ((long) side * size + rowIndex) * size;
+        while (nextDifference < differences.length) {
+            long position = differences[nextDifference] >>> SparseSquares.COLOR_BITS;
+            if (position >= first + size) {
+                break;
+            }
+            row[(int) (position - first)] = Color.fromInt((int) (differences[nextDifference] & SparseSquares.COLOR_MASK));
+            nextDifference++;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package concurrentcube;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a cube's state, in the form returned by `Cube.show` (one ASCII digit per square),
+ * through a small per-thread buffer, so that a reader needs the same memory whatever the cube's size.
+ */
+final class StateStreamer {
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<ByteBuffer> directBuffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<byte[]> heapBuffers =
+            ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private StateStreamer() {}
+
+    /**
+     * @param rows : squares of the cube
+     * @param channel : destination, expected to be in blocking mode (a non-blocking one is written to in a loop)
+     */
+    static void write(SquareRows rows, WritableByteChannel channel) throws IOException {
+        ByteBuffer buf = directBuffers.get();
+        buf.clear();
+        for (Color[] row = rows.next(); row != null; row = rows.next()) {
+            for (Color color : row) {
+                if (!buf.hasRemaining()) {
+                    drain(buf, channel);
+                }
+                buf.put((byte) color.charValue());
+            }
+        }
+        drain(buf, channel);
+    }
+
+    static void write(SquareRows rows, OutputStream out) throws IOException {
+        byte[] buf = heapBuffers.get();
+        int length = 0;
+        for (Color[] row = rows.next(); row != null; row = rows.next()) {
+            for (Color color : row) {
+                if (length == buf.length) {
+                    out.write(buf, 0, length);
+                    length = 0;
+                }
+                buf[length++] = (byte) color.charValue();
+            }
+        }
+        out.write(buf, 0, length);
+    }
+
+    private static void drain(ByteBuffer buf, WritableByteChannel channel) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+}
@@ -0,0 +1,91 @@
+package concurrentcube;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A process's pass to the cube, handed out by the `ProcessManager`.
+ *
+ * A process that has to wait is queued with its ticket and sleeps on the ticket's own semaphore.
+ * Whoever admits the next group does all of the group's bookkeeping on its members' tickets
+ * and then wakes them all at once, so a woken process doesn't have to admit anyone itself.
+ */
+class Ticket {
+    /* Semaphore the process sleeps on while queued */
+    final Semaphore wakeUp = new Semaphore(0);
+
+    /* Data of a writer, null/0 for readers */
+    final int[] planes;
+    final int count;
+    final List<Move> moves;
+
+    /* Position of the process in the order of arrival, set when it's queued */
+    long arrival;
+
+    /* Set by the admitting process (with the `varProtection` mutex held) */
+    boolean admitted;
+    Cohort cohort;
+    int groupSize;
+
+    /* Neighbours in the queue of waiting processes */
+    private Ticket prev;
+    private Ticket next;
+
+    Ticket(int[] planes, int count, List<Move> moves) {
+        this.planes = planes;
+        this.count = count;
+        this.moves = moves;
+    }
+
+    /**
+     * FIFO queue of waiting processes, allowing an interrupted process to leave from the middle.
+     * Guarded by the `varProtection` mutex.
+     */
+    static class Queue {
+        private Ticket head;
+        private Ticket tail;
+
+        boolean isEmpty() {
+            return head == null;
+        }
+
+        void add(Ticket ticket) {
+            ticket.prev = tail;
+            ticket.next = null;
+            if (tail == null) {
+                head = ticket;
+            } else {
+                tail.next = ticket;
+            }
+            tail = ticket;
+        }
+
+        Ticket peek() {
+            return head;
+        }
+
+        Ticket poll() {
+            Ticket ticket = head;
+            if (ticket != null) {
+                remove(ticket);
+            }
+            return ticket;
+        }
+
+        void remove(Ticket ticket) {
+            if (ticket.prev == null) {
+                head = ticket.next;
+            } else {
+                ticket.prev.next = ticket.next;
+            }
+            if (ticket.next == null) {
+                tail = ticket.prev;
+            } else {
+                ticket.next.prev = ticket.prev;
+            }
+            ticket.prev = null;
+            ticket.next = null;
+        }
+    }
+
+}
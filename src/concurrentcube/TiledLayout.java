@@ -0,0 +1,58 @@
+package concurrentcube;
+
+/**
+ * Tiled layout of a face's squares (see `CubeOptions.Storage.TILED`) - the face is cut into tiles
+ * of `TILE` x `TILE` squares, stored one after another row by row, and each tile is stored row by row.
+ * Faces are padded to a whole number of tiles.
+ *
+ * A column of a row-major face of size 4096 touches a new page (and TLB entry) with every square,
+ * while a column of a tiled face stays within one 1 KB tile for `TILE` squares in a row.
+ */
+public final class TiledLayout {
+    public static final int TILE_BITS = 4;
+    public static final int TILE = 1 << TILE_BITS;
+    private static final int MASK = TILE - 1;
+
+    private final int size;
+    private final int tilesPerRow;
+
+    /**
+     * @param size : size of the cube
+     */
+    public TiledLayout(int size) {
+        this.size = size;
+        this.tilesPerRow = (size + MASK) >> TILE_BITS;
+    }
+
+    /**
+     * @return length of a face's array, including the padding
+     */
+    public int length() {
+        return tilesPerRow * tilesPerRow << (2 * TILE_BITS);
+    }
+
+    /**
+     * @param row : row of a square
+     * @param col : column of a square
+     * @return position of the square in its face's array
+     */
+    public int index(int row, int col) {
+        return (((row >> TILE_BITS) * tilesPerRow + (col >> TILE_BITS)) << (2 * TILE_BITS))
+                | ((row & MASK) << TILE_BITS) | (col & MASK);
+    }
+
+    /**
+     * @param face : squares of a face in this layout
+     * @return squares of the face, indexed `row * size + col`
+     */
+    Color[] toRowMajor(Color[] face) {
+        Color[] rowMajor = new Color[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                rowMajor[row * size + col] = face[index(row, col)];
+            }
+        }
+        return rowMajor;
+    }
+
+}
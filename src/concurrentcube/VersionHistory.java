@@ -0,0 +1,227 @@
+package concurrentcube;
+
+import concurrentcube.Rotations.Rotation;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded history of a cube's past states, indexed by version (see `Cube.getVersion`, `Cube.show(long)`).
+ *
+ * The history holds packed snapshots (see `PackedState`) of every `snapshotInterval`-th version from
+ * the oldest retained one, and the rotations of every write since then, packed as in `MoveHistory`.
+ * A version is reconstructed from the latest snapshot before it: the rotations of the writes in between
+ * are composed into one `CubePermutation`, which moves every square of the snapshot once.
+ * Writers only append their rotations; the snapshots are computed the same way, by the writer completing
+ * an interval after it has left the cube (see `materialize`), and then the oldest interval is dropped
+ * as long as at least `retention` versions remain.
+ *
+ * Reads don't enter the cube's `ProcessManager` - they only copy what they need under the history's lock,
+ * and rebuild the state outside of it, so they never hold up writers.
+ */
+public class VersionHistory {
+    private final int size;
+    private final int retention;
+    private final int snapshotInterval;
+    /* Solved cube giving rotations their geometry, never rotated itself */
+    private final Cube geometry;
+
+    /* Packed states of versions `base`, `base + snapshotInterval`, ..., as far as computed */
+    private final List<byte[]> snapshots = new ArrayList<>();
+    /* Oldest retained version */
+    private long base;
+    /* Rotations of the writes after `base`, in order */
+    private int[] deltas = new int[16];
+    private int numDeltas;
+    /* Index in `deltas` past the rotations of version `base + 1 + i`, for every write `i` after `base` */
+    private int[] ends = new int[16];
+    private int numWrites;
+    /* Whether some writer is computing the next snapshot */
+    private boolean materializing = false;
+
+    /**
+     * @param size : size of the cube
+     * @param retention : minimal number of retained versions
+     * @param snapshotInterval : number of versions between snapshots
+     */
+    VersionHistory(int size, int retention, int snapshotInterval) {
+        assert(retention > 0 && snapshotInterval > 0);
+        this.size = size;
+        this.retention = retention;
+        this.snapshotInterval = snapshotInterval;
+        this.geometry = new Cube(size, null, null, null, null,
+                new CubeOptions().storage(CubeOptions.Storage.SPARSE));
+    }
+
+    /**
+     * @return retained versions, in ascending order
+     */
+    public synchronized long[] versions() {
+        long[] versions = new long[numWrites + 1];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = base + i;
+        }
+        return versions;
+    }
+
+    /**
+     * @return number of bytes taken by the snapshots and the rotations
+     */
+    public synchronized long footprint() {
+        return (long) snapshots.size() * PackedState.length(size)
+                + (long) Integer.BYTES * (deltas.length + ends.length);
+    }
+
+    /**
+     * Reconstructs a retained version.
+     * @param version : version of the cube
+     * @return state of the cube at `version`, as `Cube.show` returns it
+     * @throws IllegalArgumentException : if the version is not retained
+     */
+    public String show(long version) {
+        byte[] snapshot;
+        int[] rotations;
+        synchronized (this) {
+            if (version < base || version > base + numWrites) {
+                throw new IllegalArgumentException("Invalid version.");
+            }
+            int interval = (int) Math.min((version - base) / snapshotInterval, snapshots.size() - 1);
+            snapshot = snapshots.get(interval);
+            rotations = Arrays.copyOfRange(deltas, deltasEnd(interval * snapshotInterval), deltasEnd(version - base));
+        }
+
+        byte[] colors = replay(snapshot, rotations);
+        char[] chars = new char[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            chars[i] = Color.fromInt(colors[i]).charValue();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Appends a write, called under the history's lock together with taking its version.
+     * @param version : version of the cube after the write
+     * @param written : rotations of the write
+     */
+    synchronized void append(long version, RotationBatch written) {
+        assert(version == base + numWrites + 1);
+        if (numDeltas + written.size() > deltas.length) {
+            deltas = Arrays.copyOf(deltas, Math.max(2 * deltas.length, numDeltas + written.size()));
+        }
+        for (int i = 0; i < written.size(); i++) {
+            deltas[numDeltas++] = MoveHistory.pack(written.getSide(i), written.getLayer(i), written.getQuarterTurns(i));
+        }
+        if (numWrites == ends.length) {
+            ends = Arrays.copyOf(ends, 2 * ends.length);
+        }
+        ends[numWrites++] = numDeltas;
+    }
+
+    /**
+     * Computes the snapshots of all completed intervals and drops the oldest intervals beyond the retention.
+     * Called by writers after leaving the cube - while one of them computes a snapshot, the others return at once.
+     */
+    void materialize() {
+        while (true) {
+            byte[] previous;
+            int[] rotations;
+            long from;
+            synchronized (this) {
+                if (materializing || (long) snapshots.size() * snapshotInterval > numWrites) {
+                    return;
+                }
+                materializing = true;
+                int interval = snapshots.size() - 1;
+                previous = snapshots.get(interval);
+                rotations = Arrays.copyOfRange(deltas, deltasEnd((long) interval * snapshotInterval),
+                        deltasEnd((long) (interval + 1) * snapshotInterval));
+                from = base;
+            }
+
+            byte[] snapshot = PackedState.encode(replay(previous, rotations));
+            synchronized (this) {
+                materializing = false;
+                if (from != base || snapshots.get(snapshots.size() - 1) != previous) {
+                    // rebased meanwhile
+                    return;
+                }
+                snapshots.add(snapshot);
+                trim();
+            }
+        }
+    }
+
+    /**
+     * Forgets all versions, starting the history over from the cube's current state.
+     * @param version : current version of the cube
+     * @param state : packed current state of the cube
+     */
+    synchronized void rebase(long version, byte[] state) {
+        snapshots.clear();
+        snapshots.add(state);
+        base = version;
+        numDeltas = 0;
+        numWrites = 0;
+    }
+
+    /**
+     * Drops the oldest intervals, as long as at least `retention` versions and one snapshot remain.
+     */
+    private void trim() {
+        int dropped = 0;
+        while (snapshots.size() - dropped > 1 && numWrites - (long) (dropped + 1) * snapshotInterval + 1 >= retention) {
+            dropped++;
+        }
+        if (dropped == 0) {
+            return;
+        }
+        int droppedWrites = dropped * snapshotInterval;
+        int droppedDeltas = ends[droppedWrites - 1];
+        snapshots.subList(0, dropped).clear();
+        System.arraycopy(deltas, droppedDeltas, deltas, 0, numDeltas - droppedDeltas);
+        numDeltas -= droppedDeltas;
+        for (int i = droppedWrites; i < numWrites; i++) {
+            ends[i - droppedWrites] = ends[i] - droppedDeltas;
+        }
+        numWrites -= droppedWrites;
+        base += droppedWrites;
+    }
+
+    /**
+     * @return index in `deltas` past the rotations of version `base + writes`
+     */
+    private int deltasEnd(long writes) {
+        return writes == 0 ? 0 : ends[(int) writes - 1];
+    }
+
+    /**
+     * @param snapshot : packed state
+     * @param rotations : packed rotations applied to it, in order
+     * @return colors of all squares after the rotations (see `Color.intValue`), in the order of `Cube.show`
+     */
+    private byte[] replay(byte[] snapshot, int[] rotations) {
+        byte[] colors = new byte[Side.SIDES.intValue() * size * size];
+        PackedState.decode(ByteBuffer.wrap(snapshot), size, colors);
+        if (rotations.length == 0) {
+            return colors;
+        }
+
+        List<Rotation> quarterTurns = new ArrayList<>();
+        for (int rotation : rotations) {
+            Rotation r = Rotation.newRotation(geometry,
+                    Side.fromInt(MoveHistory.side(rotation)), MoveHistory.layer(rotation));
+            for (int turn = 0; turn < MoveHistory.quarterTurns(rotation); turn++) {
+                quarterTurns.add(r);
+            }
+        }
+        CubePermutation permutation = CubePermutation.compose(quarterTurns, size);
+        byte[] moved = new byte[colors.length];
+        for (int i = 0; i < moved.length; i++) {
+            moved[i] = colors[permutation.source(i)];
+        }
+        return moved;
+    }
+
+}
@@ -23,6 +23,10 @@ public enum WorkingGroup {
         return id;
     }
 
+    public static WorkingGroup fromInt(int ordinal) {
+        return values[ordinal];
+    }
+
     public static WorkingGroup fromSide(Side side) {
         switch (side) {
             case Top : return TopBottom;
@@ -0,0 +1,119 @@
+package concurrentcube;
+
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Zobrist-style 64-bit hash of a cube's squares (see `Cube.hashCode`) - the XOR of the keys of all squares.
+ * With `CubeOptions.incrementalHash`, it is maintained incrementally: every moved or repainted square
+ * XORs out its old key and XORs in its new one.
+ *
+ * The key of a square at position `index` (`row * size + col`) of `side` colored `color` is a random-looking
+ * 64-bit number, the SplitMix64 finalizer of the triple - keys are computed rather than drawn into a table
+ * of random keys per position, which would take 48 bytes per square of a big cube.
+ * The keys of faces of up to 1024 squares are computed once, into a table shared by all cubes (see `Table`).
+ * A square colored in its side's color has key 0, so a solved cube hashes to 0
+ * and a sparsely stored cube only hashes its differences.
+ *
+ * Rotations XOR the keys of all their squares into one delta, and rotations running in parallel
+ * accumulate their deltas into separate cells of a `LongAccumulator`.
+ * The hash is exact only while no rotation is running.
+ */
+public final class ZobristHash {
+    private static final long SEED = 0x5EEDC0BE5EEDC0BEL;
+    /* Bits of a key's input below the side and color, enough for the positions of a face of any size */
+    private static final int INDEX_BITS = 40;
+
+    private final LongAccumulator hash = new LongAccumulator((a, b) -> a ^ b, 0);
+
+    /**
+     * @param side : side of a square
+     * @param index : position of the square in its side, `row * size + col`
+     * @param color : color of the square
+     * @return key of the square
+     */
+    public static long key(int side, int index, Color color) {
+        return key(side, index, color.intValue());
+    }
+
+    /**
+     * Same as above, with a color number (see `Color.intValue`).
+     */
+    public static long key(int side, int index, int color) {
+        if (index < Table.SQUARES) {
+            return Table.KEYS[(side * Color.COLORS.intValue() + color) * Table.SQUARES + index];
+        }
+        return mix(side, index, color);
+    }
+
+    private static long mix(int side, int index, int color) {
+        long z = ((long) (side * Color.COLORS.intValue() + color) << INDEX_BITS | index) + SEED;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        // computed either way, so that squares of random colors don't mispredict a branch
+        return side == color ? 0 : z ^ (z >>> 31);
+    }
+
+    /**
+     * Keys of the first `SQUARES` positions of every side, for every color - the same as `mix` computes,
+     * looked up rather than computed for faces of cubes of size up to 32. Initialized on first use.
+     */
+    private static final class Table {
+        static final int SQUARES = 1024;
+        static final long[] KEYS = new long[Side.SIDES.intValue() * Color.COLORS.intValue() * SQUARES];
+
+        static {
+            for (int side = 0; side < Side.SIDES.intValue(); side++) {
+                for (int color = 0; color < Color.COLORS.intValue(); color++) {
+                    for (int index = 0; index < SQUARES; index++) {
+                        KEYS[(side * Color.COLORS.intValue() + color) * SQUARES + index] = mix(side, index, color);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param squares : squares of a cube, indexed `[side][row * size + col]`
+     * @return hash of the squares, computed from scratch
+     */
+    public static long of(Color[][] squares) {
+        long hash = 0;
+        for (int side = 0; side < squares.length; side++) {
+            for (int index = 0; index < squares[side].length; index++) {
+                hash ^= key(side, index, squares[side][index]);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param delta : XOR of the old and new keys of changed squares
+     */
+    public void update(long delta) {
+        if (delta != 0) {
+            hash.accumulate(delta);
+        }
+    }
+
+    public long get() {
+        return hash.get();
+    }
+
+    /**
+     * Replaces the hash, while no rotation is running.
+     * @param value : hash of the cube's current squares
+     */
+    void reset(long value) {
+        hash.reset();
+        hash.accumulate(value);
+    }
+
+    /**
+     * Hashes the squares from scratch, while no rotation is running.
+     * @param squares : squares of the cube, indexed `[side][row * size + col]`
+     */
+    void reset(Color[][] squares) {
+        reset(of(squares));
+    }
+
+}
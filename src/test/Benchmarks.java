@@ -0,0 +1,287 @@
+package test;
+
+import concurrentcube.Cube;
+import concurrentcube.CubeOptions;
+import concurrentcube.Rotations.Rotation;
+import concurrentcube.Side;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Benchmarks behind the performance notes of the cube's synchronization and storage, run by hand:
+ *
+ *     java -cp <classes> test.Benchmarks <benchmark> [arguments]
+ *
+ * Every benchmark prints one line per measured configuration. Runs are timed by the wall clock, so results
+ * depend on the number of cores and are noisy on shared machines - compare configurations within one run.
+ */
+public class Benchmarks {
+
+    private static final int ROUNDS = 11;
+    private static final long RUN_MILLIS = 1500;
+
+    public static void main(String[] args) throws InterruptedException {
+        String benchmark = args.length > 0 ? args[0] : "";
+        String[] rest = Arrays.copyOfRange(args, Math.min(1, args.length), args.length);
+        switch (benchmark) {
+            case "cohorts":
+                cohortAdmission(rest.length > 0 ? ints(rest) : new int[] { 20, 200 });
+                break;
+            case "waits":
+                waitStrategies(rest.length > 0 ? Integer.parseInt(rest[0]) : 4,
+                        rest.length > 1 ? Integer.parseInt(rest[1]) : 3);
+                break;
+            case "fairness":
+                fairnessPolicies(rest.length > 0 ? Integer.parseInt(rest[0]) : 8,
+                        rest.length > 1 ? Integer.parseInt(rest[1]) : 4);
+                break;
+            case "layouts":
+                layouts(rest.length > 0 ? ints(rest) : new int[] { 512, 1024, 2048, 4096, 8192, 16384 });
+                break;
+            default:
+                System.out.println("usage: Benchmarks cohorts [writers...] | waits [threads [size]]"
+                        + " | fairness [threads [size]] | layouts [sizes...]");
+        }
+    }
+
+    private static int[] ints(String[] args) {
+        return Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /**
+     * Cohort admission latency: a reader holds the cube while `writers` writers of one axis,
+     * on distinct layers, queue behind it. Measures the time from the reader's release
+     * until all of them are inside `beforeRotation`, i.e. how long the hand-over of a whole cohort takes.
+     * Prints the median and the best of `ROUNDS` rounds.
+     * @param counts : numbers of queued writers to measure
+     */
+    private static void cohortAdmission(int[] counts) throws InterruptedException {
+        for (int writers : counts) {
+            long[] latencies = new long[ROUNDS];
+            for (int round = 0; round < ROUNDS; round++) {
+                latencies[round] = cohortRound(writers);
+            }
+            Arrays.sort(latencies);
+            System.out.printf("cohorts: %d writers admitted in %.3f ms (median), %.3f ms (best)%n",
+                    writers, latencies[ROUNDS / 2] / 1e6, latencies[0] / 1e6);
+        }
+    }
+
+    private static long cohortRound(int writers) throws InterruptedException {
+        CountDownLatch showing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch inside = new CountDownLatch(writers);
+        Cube cube = new Cube(writers,
+                (side, layer) -> inside.countDown(),
+                null,
+                () -> {
+                    showing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                null);
+
+        Thread reader = new Thread(() -> {
+            try {
+                cube.show();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        reader.start();
+        showing.await();
+
+        Thread[] threads = new Thread[writers];
+        for (int i = 0; i < writers; i++) {
+            threads[i] = new Thread(new Utils.WriterTask(cube, 0, i));
+            threads[i].start();
+        }
+        // let every writer queue behind the reader
+        while (!allWaiting(threads)) {
+            Thread.sleep(1);
+        }
+
+        long start = System.nanoTime();
+        release.countDown();
+        inside.await();
+        long latency = System.nanoTime() - start;
+
+        reader.join();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return latency;
+    }
+
+    private static boolean allWaiting(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.getState() != Thread.State.WAITING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Throughput of every wait strategy: `threads` threads rotate random layers of a cube without actions
+     * for `RUN_MILLIS`. Spinning only pays off when every thread has a core of its own.
+     * @param threads : number of rotating threads
+     * @param size : size of the cube
+     */
+    private static void waitStrategies(int threads, int size) throws InterruptedException {
+        warmUp(size, threads);
+        for (CubeOptions.WaitStrategy strategy : CubeOptions.WaitStrategy.values()) {
+            Cube cube = new Cube(size, null, null, null, null, new CubeOptions().waitStrategy(strategy));
+            Load load = Load.run(cube, threads, 0);
+            System.out.printf("waits: %s, %d threads, size %d: %.0f rotations/ms%n",
+                    strategy, threads, size, load.opsPerMilli());
+        }
+    }
+
+    /**
+     * Throughput and the longest waits of every fairness policy under skewed read/write ratios:
+     * `threads` threads show or rotate a cube without actions for `RUN_MILLIS`,
+     * 95%, 50% and 5% of their operations being `show`.
+     * @param threads : number of working threads
+     * @param size : size of the cube
+     */
+    private static void fairnessPolicies(int threads, int size) throws InterruptedException {
+        warmUp(size, threads);
+        for (double readFraction : new double[] { 0.95, 0.5, 0.05 }) {
+            for (CubeOptions.Fairness fairness : CubeOptions.Fairness.values()) {
+                Cube cube = new Cube(size, null, null, null, null, new CubeOptions().fairness(fairness));
+                Load load = Load.run(cube, threads, readFraction);
+                System.out.printf("fairness: %.0f%% reads, %s: %.0f ops/ms, worst read %.1f ms, worst write %.1f ms%n",
+                        readFraction * 100, fairness, load.opsPerMilli(),
+                        load.worstReadNanos / 1e6, load.worstWriteNanos / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Row-major against tiled faces (see `CubeOptions.Storage.TILED`), for rotations around every axis:
+     * the time of a face turn (layer 0) and of a middle layer turn of `Top`, `Left` and `Front`,
+     * applied directly, single-threaded. A cube takes about 24 bytes per square (with compressed references),
+     * so the biggest sizes need a big heap (`-Xmx`) - sizes that don't fit are reported and skipped.
+     * @param sizes : sizes of the cubes
+     */
+    private static void layouts(int[] sizes) {
+        Side[] sides = { Side.Top, Side.Left, Side.Front };
+        for (int size : sizes) {
+            for (CubeOptions.Storage storage : new CubeOptions.Storage[] {
+                    CubeOptions.Storage.DENSE, CubeOptions.Storage.TILED }) {
+                Cube cube;
+                try {
+                    cube = new Cube(size, null, null, null, null, new CubeOptions().storage(storage));
+                } catch (OutOfMemoryError e) {
+                    System.out.printf("layouts: size %d %s doesn't fit in the heap%n", size, storage);
+                    continue;
+                }
+                for (Side side : sides) {
+                    System.out.printf("layouts: size %d %s %s: face turn %.3f ms, middle layer %.3f ms%n",
+                            size, storage, side,
+                            millisPerRotation(Rotation.newRotation(cube, side, 0)),
+                            millisPerRotation(Rotation.newRotation(cube, side, size / 2)));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the best time of `rotation` applied in batches for about a second, in milliseconds
+     */
+    private static double millisPerRotation(Rotation rotation) {
+        long deadline = System.nanoTime() + 1_000_000_000L;
+        double best = Double.MAX_VALUE;
+        for (int batch = 1; best == Double.MAX_VALUE || System.nanoTime() < deadline; ) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                rotation.applyRotation();
+            }
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed / (double) batch);
+            if (elapsed < 10_000_000) {
+                batch *= 2;
+            }
+        }
+        return best / 1e6;
+    }
+
+    /**
+     * Runs a load on a cube of the benchmark's size, untimed, so that the first measured configuration
+     * doesn't pay for the JIT compilation.
+     */
+    private static void warmUp(int size, int threads) throws InterruptedException {
+        Load.run(new Cube(size, null, null, null, null), threads, 0.5);
+    }
+
+    /**
+     * Result of `threads` threads showing or rotating a cube as fast as they can for `RUN_MILLIS`.
+     */
+    private static final class Load {
+        private long ops;
+        private long worstReadNanos;
+        private long worstWriteNanos;
+        private long millis;
+
+        /**
+         * @param readFraction : probability that an operation is `show` rather than a random rotation
+         */
+        static Load run(Cube cube, int threads, double readFraction) throws InterruptedException {
+            Load load = new Load();
+            long deadline = System.nanoTime() + RUN_MILLIS * 1_000_000;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long ops = 0;
+                    long worstRead = 0;
+                    long worstWrite = 0;
+                    try {
+                        for (long now = System.nanoTime(); now < deadline; ops++) {
+                            if (random.nextDouble() < readFraction) {
+                                cube.show();
+                                long end = System.nanoTime();
+                                worstRead = Math.max(worstRead, end - now);
+                                now = end;
+                            } else {
+                                cube.rotate(random.nextInt(6), random.nextInt(cube.getSize()));
+                                long end = System.nanoTime();
+                                worstWrite = Math.max(worstWrite, end - now);
+                                now = end;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    load.add(ops, worstRead, worstWrite);
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            load.millis = (System.nanoTime() - start) / 1_000_000;
+            return load;
+        }
+
+        private synchronized void add(long ops, long worstRead, long worstWrite) {
+            this.ops += ops;
+            worstReadNanos = Math.max(worstReadNanos, worstRead);
+            worstWriteNanos = Math.max(worstWriteNanos, worstWrite);
+        }
+
+        double opsPerMilli() {
+            return ops / (double) millis;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package test;
+
+import org.junit.Test;
+
+import concurrentcube.Cube;
+import concurrentcube.Side;
+import concurrentcube.Server.CubeClient;
+import concurrentcube.Server.CubeServer;
+
+import static test.Utils.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* This class uses JUnit 5 */
+public class CubeServerTest {
+
+    private static final int SIZE = 5;
+
+    private static CubeServer startServer(Cube cube) throws IOException {
+        CubeServer server = new CubeServer(cube, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Tests whether pipelined requests are answered in order
+     * and leave the remote cube in the same state as local rotations.
+     */
+    @Test
+    public void testPipelinedRotationsMatchLocalCube() throws Exception {
+        AtomicInteger rotations = new AtomicInteger(0);
+        Cube remote = new Cube(SIZE, (x, y) -> rotations.incrementAndGet(), null, null, null);
+        Cube local = new Cube(SIZE, null, null, null, null);
+
+        final int NUM_ROTATIONS = 10000;
+
+        try (CubeServer server = startServer(remote);
+             CubeClient client = new CubeClient(server.getLocalAddress())) {
+            int[] sides = new int[NUM_ROTATIONS];
+            int[] layers = new int[NUM_ROTATIONS];
+            for (int i = 0; i < NUM_ROTATIONS; i++) {
+                sides[i] = Side.randomSide().intValue();
+                layers[i] = rand.nextInt(SIZE);
+                client.sendRotate(sides[i], layers[i]);
+                if (i == NUM_ROTATIONS / 2) {
+                    client.sendShow();
+                }
+            }
+            client.sendShow();
+            client.flush();
+
+            for (int i = 0; i < NUM_ROTATIONS; i++) {
+                local.rotate(sides[i], layers[i]);
+                client.readRotateAck();
+                if (i == NUM_ROTATIONS / 2) {
+                    assertThat(client.readShow().equals(local.show()));
+                }
+            }
+            assertThat(client.readShow().equals(local.show()));
+            assertThat(rotations.intValue() == NUM_ROTATIONS);
+        }
+    }
+
+    /**
+     * Tests whether an invalid rotation is rejected without breaking the connection.
+     */
+    @Test
+    public void testInvalidRotationIsRejected() throws Exception {
+        Cube cube = new Cube(SIZE, null, null, null, null);
+
+        try (CubeServer server = startServer(cube);
+             CubeClient client = new CubeClient(server.getLocalAddress())) {
+            boolean rejected = false;
+            try {
+                client.rotate(Side.Top.intValue(), SIZE);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            client.rotate(Side.Front.intValue(), 0);
+            cube.rotate(Side.Front.intValue(), 0);
+            cube.rotate(Side.Front.intValue(), 0);
+            cube.rotate(Side.Front.intValue(), 0);
+            assertThat(rejected && client.show().equals(new Cube(SIZE, null, null, null, null).show()));
+        }
+    }
+
+    /**
+     * Tests whether a client pipelining more show responses than the server queues for a connection
+     * gets all of them once it reads them.
+     */
+    @Test
+    public void testPipelinedShowsBeyondQueueLimit() throws Exception {
+        final int size = 40;
+        final int NUM_SHOWS = 2000;
+        Cube cube = new Cube(size, null, null, null, null);
+        cube.rotate(Side.Front.intValue(), 0);
+
+        try (CubeServer server = startServer(cube);
+             CubeClient client = new CubeClient(server.getLocalAddress())) {
+            for (int i = 0; i < NUM_SHOWS; i++) {
+                client.sendShow();
+            }
+            client.sendRotate(Side.Front.intValue(), 0);
+            client.flush();
+
+            String expected = cube.show();
+            boolean allMatch = true;
+            for (int i = 0; i < NUM_SHOWS; i++) {
+                allMatch &= client.readShow().equals(expected);
+            }
+            client.readRotateAck();
+            assertThat(allMatch);
+        }
+    }
+
+    /**
+     * Tests many connections rotating the cube concurrently.
+     */
+    @Test
+    public void testManyConnectionsConcurrent() throws Exception {
+        Cube cube = new Cube(SIZE, null, null, null, null);
+
+        final int NUM_CLIENTS = 16;
+        final int ROTATIONS_PER_CLIENT = 4000;
+
+        try (CubeServer server = startServer(cube)) {
+            InetSocketAddress address = server.getLocalAddress();
+            Thread[] threads = new Thread[NUM_CLIENTS];
+            AtomicInteger failures = new AtomicInteger(0);
+            for (int t = 0; t < NUM_CLIENTS; t++) {
+                threads[t] = new Thread(() -> {
+                    try (CubeClient client = new CubeClient(address)) {
+                        for (int i = 0; i < ROTATIONS_PER_CLIENT; i++) {
+                            client.sendRotate(Side.randomSide().intValue(), rand.nextInt(SIZE));
+                        }
+                        client.flush();
+                        for (int i = 0; i < ROTATIONS_PER_CLIENT; i++) {
+                            client.readRotateAck();
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertThat(failures.intValue() == 0 && cube.isLegal());
+        }
+    }
+
+}
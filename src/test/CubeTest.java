@@ -4,16 +4,30 @@ import org.junit.Test;
 
 import concurrentcube.WorkingGroup;
 import concurrentcube.Cube;
+import concurrentcube.BitboardSquares;
+import concurrentcube.CubeOptions;
+import concurrentcube.CubePermutation;
+import concurrentcube.Move;
+import concurrentcube.PackedState;
 import concurrentcube.Rotations.*;
 import concurrentcube.Side;
 import concurrentcube.Color;
+import concurrentcube.RotationBatch;
+import concurrentcube.ZobristHash;
 
 import static test.Utils.*;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.function.BiConsumer;
 
 /* This class uses JUnit 5 */
@@ -54,77 +68,76 @@ public class CubeTest {
         rotationsOnPlane = new int[size];
     }
 
+    /**
+     * Locks the variables checked by the actions. An interruption landing while the action waits for them
+     * is only logged (and the flag restored) - skipping the action's bookkeeping would fail every later check.
+     * @param action : name of the action, for the log
+     */
+    private static void lockSyncVars(String action) {
+        try {
+            varProtection.acquire();
+        } catch (InterruptedException e) {
+            logWithThreadName("interrupted during " + action);
+            varProtection.acquireUninterruptibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static BiConsumer<Integer, Integer> defaultBeforeRotation(int size, int msDelay) {
         return (side, layer) -> {
-            try {
-                varProtection.acquire();
-                WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(side));
-                int plane = Rotation.getPlane(size, side, layer);
-                activeWriters++;
-                rotationsOnAxis[axis.intValue()]++;
-                rotationsOnPlane[plane]++;
-
-                assertThat(activeReaders == 0 && rotationsOnPlane[plane] == 1 &&
-                        rotationsOnAxis[(axis.intValue() + 1) % WorkingGroup.NUM_AXES.intValue()] == 0 &&
-                        rotationsOnAxis[(axis.intValue() + 2) % WorkingGroup.NUM_AXES.intValue()] == 0
-                );
-                varProtection.release();
-                sleep(msDelay);
-            } catch (InterruptedException e) {
-                logWithThreadName("interrupted during beforeRotation");
-            }
+            lockSyncVars("beforeRotation");
+            WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(side));
+            int plane = Rotation.getPlane(size, side, layer);
+            activeWriters++;
+            rotationsOnAxis[axis.intValue()]++;
+            rotationsOnPlane[plane]++;
+
+            assertThat(activeReaders == 0 && rotationsOnPlane[plane] == 1 &&
+                    rotationsOnAxis[(axis.intValue() + 1) % WorkingGroup.NUM_AXES.intValue()] == 0 &&
+                    rotationsOnAxis[(axis.intValue() + 2) % WorkingGroup.NUM_AXES.intValue()] == 0
+            );
+            varProtection.release();
+            sleep(msDelay);
         };
     }
 
     private static BiConsumer<Integer, Integer> defaultAfterRotation(int size, int msDelay) {
         return (side, layer) -> {
-            try {
-                varProtection.acquire();
-                WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(side));
-                int plane = Rotation.getPlane(size, side, layer);
-                activeWriters--;
-                rotationsOnAxis[axis.intValue()]--;
-                rotationsOnPlane[plane]--;
-                performedRotations++;
-
-                assertThat(activeReaders == 0 && rotationsOnPlane[plane] == 0 &&
-                        rotationsOnAxis[(axis.intValue() + 1) % WorkingGroup.NUM_AXES.intValue()] == 0 &&
-                        rotationsOnAxis[(axis.intValue() + 2) % WorkingGroup.NUM_AXES.intValue()] == 0
-                );
-                varProtection.release();
-                sleep(msDelay);
-            } catch (InterruptedException e) {
-                logWithThreadName("interrupted during afterRotation");
-            }
+            lockSyncVars("afterRotation");
+            WorkingGroup axis = WorkingGroup.fromSide(Side.fromInt(side));
+            int plane = Rotation.getPlane(size, side, layer);
+            activeWriters--;
+            rotationsOnAxis[axis.intValue()]--;
+            rotationsOnPlane[plane]--;
+            performedRotations++;
+
+            assertThat(activeReaders == 0 && rotationsOnPlane[plane] == 0 &&
+                    rotationsOnAxis[(axis.intValue() + 1) % WorkingGroup.NUM_AXES.intValue()] == 0 &&
+                    rotationsOnAxis[(axis.intValue() + 2) % WorkingGroup.NUM_AXES.intValue()] == 0
+            );
+            varProtection.release();
+            sleep(msDelay);
         };
     }
 
     private static Runnable defaultBeforeShowing(int msDelay) {
         return () -> {
-            try {
-                varProtection.acquire();
-                activeReaders++;
-                assertThat(activeWriters == 0);
-                varProtection.release();
-                sleep(msDelay);
-            } catch (InterruptedException e) {
-                logWithThreadName("interrupted during beforeShowing");
-            }
+            lockSyncVars("beforeShowing");
+            activeReaders++;
+            assertThat(activeWriters == 0);
+            varProtection.release();
+            sleep(msDelay);
         };
     }
 
     private static Runnable defaultAfterShowing(int msDelay) {
         return () -> {
-            try {
-                varProtection.acquire();
-                activeReaders--;
-                performedShows++;
-                assertThat(activeWriters == 0);
-                varProtection.release();
-                sleep(msDelay);
-            } catch (InterruptedException e) {
-                logWithThreadName("interrupted during afterShowing");
-            }
+            lockSyncVars("afterShowing");
+            activeReaders--;
+            performedShows++;
+            assertThat(activeWriters == 0);
+            varProtection.release();
+            sleep(msDelay);
         };
     }
 
@@ -393,6 +406,61 @@ public class CubeTest {
         }
     }
 
+    /**
+     * Tests whether a writer interrupted while waiting for its plane, already admitted with its axis,
+     * throws without rotating and leaves the cube usable.
+     */
+    @Test
+    public void testWriterInterruptedWaitingForPlane() {
+        int size = 4;
+        CountDownLatch rotating = new CountDownLatch(1);
+        CountDownLatch releaseRotation = new CountDownLatch(1);
+        AtomicInteger rotations = new AtomicInteger(0);
+        Cube cube = new Cube(size,
+                (side, layer) -> {
+                    rotations.incrementAndGet();
+                    rotating.countDown();
+                    try {
+                        releaseRotation.await();
+                    } catch (InterruptedException e) {
+                        interruptCurrentThread();
+                    }
+                },
+                null, null, null);
+
+        Thread holder = new Thread(new WriterTask(cube, Side.Front.intValue(), 0));
+        AtomicInteger thrown = new AtomicInteger(0);
+        Thread waiter = new Thread(() -> {
+            try {
+                cube.rotate(Side.Back.intValue(), size - 1);
+            } catch (InterruptedException e) {
+                thrown.incrementAndGet();
+            }
+        });
+
+        try {
+            holder.start();
+            rotating.await();
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING) {
+                sleep(1);
+            }
+            waiter.interrupt();
+            waiter.join(5000);
+            releaseRotation.countDown();
+            holder.join();
+            waiter.join();
+
+            Cube expected = new Cube(size, null, null, null, null);
+            expected.rotate(Side.Front.intValue(), 0);
+            cube.rotate(Side.Back.intValue(), size - 1);
+            expected.rotate(Side.Back.intValue(), size - 1);
+            assertThat(thrown.intValue() == 1 && rotations.intValue() == 2 && cube.show().equals(expected.show()));
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        }
+    }
+
     /**
      * Tests how the synchronization algorithm handles random rotations.
      */
@@ -1078,6 +1146,1246 @@ public class CubeTest {
         assertThat(Arrays.deepEquals(solvedArrangement, cube.getSquares()) && counter.intValue() == 4);
     }
 
+    /**
+     * Tests whether a multi-quarter-turn rotation is equivalent to repeated quarter turns
+     * and performs the actions once per quarter turn by default.
+     */
+    @Test
+    public void testMultiQuarterTurnsMatchRepeatedRotations() {
+        int size = 6;
+        AtomicInteger counter = new AtomicInteger(0);
+        Cube multi = new Cube(size,
+                (x, y) -> { counter.incrementAndGet(); },
+                (x, y) -> { counter.incrementAndGet(); },
+                null, null
+        );
+        Cube single = new Cube(size, null, null, null, null);
+
+        final int NUM_ROTATIONS = 1000;
+
+        try {
+            int expectedActions = 0;
+            for (int i = 0; i < NUM_ROTATIONS; i++) {
+                int side = Side.randomSide().intValue();
+                int layer = rand.nextInt(size);
+                int quarterTurns = 1 + rand.nextInt(3);
+                multi.rotate(side, layer, quarterTurns);
+                for (int turn = 0; turn < quarterTurns; turn++) {
+                    single.rotate(side, layer);
+                }
+                expectedActions += 2 * quarterTurns;
+            }
+            assertThat(multi.equals(single) && counter.intValue() == expectedActions);
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        }
+    }
+
+    /**
+     * Tests whether `HookMode.PER_CALL` performs the actions once per multi-quarter-turn rotation.
+     */
+    @Test
+    public void testMultiQuarterTurnsWithActionsPerCall() {
+        AtomicInteger counter = new AtomicInteger(0);
+        Cube cube = new Cube(3,
+                (x, y) -> { counter.incrementAndGet(); },
+                (x, y) -> { counter.incrementAndGet(); },
+                null, null,
+                new CubeOptions().hookMode(CubeOptions.HookMode.PER_CALL)
+        );
+
+        try {
+            cube.rotate(Side.Right.intValue(), 0, 3);
+            cube.rotate(Side.Top.intValue(), 0, 2);
+            cube.rotate(Side.Top.intValue(), 0, 2);
+            cube.rotate(Side.Right.intValue(), 0, 1);
+            assertThat(cube.isSolved() && counter.intValue() == 8);
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        }
+    }
+
+    /**
+     * Tests whether rotating a range of layers is equivalent to rotating each of them.
+     */
+    @Test
+    public void testRotateRangeMatchesRotationsOfLayers() {
+        int size = 8;
+        Cube ranged = new Cube(size, null, null, null, null);
+        Cube layered = new Cube(size, null, null, null, null);
+
+        final int NUM_ROTATIONS = 1000;
+
+        try {
+            for (int i = 0; i < NUM_ROTATIONS; i++) {
+                int side = Side.randomSide().intValue();
+                int from = rand.nextInt(size);
+                int to = from + rand.nextInt(size - from);
+                int quarterTurns = 1 + rand.nextInt(3);
+                ranged.rotateRange(side, from, to, quarterTurns);
+                for (int layer = from; layer <= to; layer++) {
+                    layered.rotate(side, layer, quarterTurns);
+                }
+            }
+            assertThat(ranged.equals(layered));
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        }
+    }
+
+    /**
+     * Tests whether concurrent wide moves on disjoint ranges of one axis keep the cube consistent,
+     * while the hooks check that no plane is rotated twice at a time.
+     */
+    @Test
+    public void testDisjointRangesConcurrent() {
+        int size = 12;
+        resetSyncVars(size);
+        Cube cube = new Cube(size,
+                defaultBeforeRotation(size, 0),
+                defaultAfterRotation(size, 0),
+                defaultBeforeShowing(0),
+                defaultAfterShowing(0)
+        );
+
+        final int NUM_PAIRS = 5000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_THREADS);
+        List<Callable<Object>> tasks = new ArrayList<>(2 * NUM_PAIRS);
+
+        Side side = Side.randomSide();
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            tasks.add(() -> { cube.rotateRange(side.intValue(), 0, size / 2 - 1); return null; });
+            tasks.add(() -> { cube.rotateRange(side.opposite().intValue(), 0, size / 2 - 1, 3); return null; });
+        }
+
+        try {
+            pool.invokeAll(tasks);
+            assertThat(cube.isLegal() && performedRotations == 4 * size / 2 * NUM_PAIRS);
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests whether every rotation is announced by the cohort actions before it is performed,
+     * and whether every cohort is completed exactly once.
+     */
+    @Test
+    public void testCohortHooksAnnounceEveryRotation() {
+        int size = 8;
+        AtomicIntegerArray announced = new AtomicIntegerArray(size);
+        AtomicIntegerArray rotated = new AtomicIntegerArray(size);
+        AtomicInteger cohortsStarted = new AtomicInteger(0);
+        AtomicInteger cohortsFinished = new AtomicInteger(0);
+        AtomicInteger unannounced = new AtomicInteger(0);
+
+        Cube cube = new Cube(size,
+                (side, layer) -> {
+                    if (rotated.incrementAndGet(layer) > announced.get(layer)) {
+                        unannounced.incrementAndGet();
+                    }
+                },
+                null, null, null,
+                new CubeOptions()
+                        .beforeRotationGroup(moves -> {
+                            cohortsStarted.incrementAndGet();
+                            for (Move move : moves) {
+                                announced.incrementAndGet(move.getLayer());
+                            }
+                        })
+                        .afterRotationGroup(moves -> cohortsFinished.incrementAndGet())
+        );
+
+        final int ROTATIONS_PER_LAYER = 500;
+
+        ExecutorService pool = Executors.newFixedThreadPool(size);
+        List<Callable<Object>> tasks = new ArrayList<>(size);
+        for (int layer = 0; layer < size; layer++) {
+            int l = layer;
+            tasks.add(() -> {
+                for (int i = 0; i < ROTATIONS_PER_LAYER; i++) {
+                    cube.rotate(Side.Top.intValue(), l);
+                }
+                return null;
+            });
+        }
+
+        try {
+            pool.invokeAll(tasks);
+            boolean allAnnounced = true;
+            for (int layer = 0; layer < size; layer++) {
+                allAnnounced &= announced.get(layer) == ROTATIONS_PER_LAYER;
+            }
+            assertThat(allAnnounced && unannounced.intValue() == 0
+                    && cohortsStarted.intValue() == cohortsFinished.intValue()
+                    && cube.isSolved());
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests whether all writers of an axis waiting behind a reader are admitted together
+     * and rotate concurrently once it leaves.
+     */
+    @Test
+    public void testWaitingWritersAdmittedTogether() {
+        int size = 16;
+        CountDownLatch readerInside = new CountDownLatch(1);
+        CountDownLatch releaseReader = new CountDownLatch(1);
+        CyclicBarrier allRotating = new CyclicBarrier(size);
+        AtomicInteger brokenBarriers = new AtomicInteger(0);
+
+        Cube cube = new Cube(size,
+                (side, layer) -> {
+                    try {
+                        allRotating.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                        brokenBarriers.incrementAndGet();
+                    }
+                },
+                null,
+                () -> {
+                    readerInside.countDown();
+                    try {
+                        releaseReader.await();
+                    } catch (InterruptedException e) {
+                        interruptCurrentThread();
+                    }
+                },
+                null);
+
+        Thread reader = new Thread(new ReaderTask(cube));
+        Thread[] writers = new Thread[size];
+        for (int layer = 0; layer < size; layer++) {
+            writers[layer] = new Thread(new WriterTask(cube, Side.Left.intValue(), layer));
+        }
+
+        try {
+            reader.start();
+            readerInside.await();
+            for (Thread t : writers) {
+                t.start();
+            }
+            sleep(100);
+            releaseReader.countDown();
+
+            reader.join();
+            for (Thread t : writers) {
+                t.join();
+            }
+            assertThat(brokenBarriers.intValue() == 0 && cube.isLegal());
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        }
+    }
+
+    /**
+     * Tests whether every wait strategy keeps readers and writers apart.
+     */
+    @Test
+    public void testWaitStrategies() {
+        int size = 6;
+        final int NUM_OPERATIONS = 4000;
+
+        for (CubeOptions.WaitStrategy strategy : CubeOptions.WaitStrategy.values()) {
+            resetSyncVars(size);
+            Cube cube = new Cube(size,
+                    defaultBeforeRotation(size, 0),
+                    defaultAfterRotation(size, 0),
+                    defaultBeforeShowing(0),
+                    defaultAfterShowing(0),
+                    new CubeOptions().waitStrategy(strategy)
+            );
+
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            List<Callable<Object>> tasks = new ArrayList<>(NUM_OPERATIONS);
+            for (int i = 0; i < NUM_OPERATIONS; i++) {
+                if (i % 4 == 0) {
+                    tasks.add(Executors.callable(new ReaderTask(cube)));
+                } else {
+                    tasks.add(Executors.callable(WriterTask.fromRotation(Rotation.randomRotation(cube))));
+                }
+            }
+
+            try {
+                pool.invokeAll(tasks);
+                assertThat(cube.isLegal() && performedRotations == NUM_OPERATIONS * 3 / 4
+                        && performedShows == NUM_OPERATIONS / 4);
+            } catch (InterruptedException e) {
+                interruptCurrentThread();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Tests whether every fairness policy keeps readers and writers apart and lets everyone finish.
+     */
+    @Test
+    public void testFairnessPolicies() {
+        int size = 6;
+        final int NUM_OPERATIONS = 4000;
+
+        for (CubeOptions.Fairness fairness : CubeOptions.Fairness.values()) {
+            resetSyncVars(size);
+            Cube cube = new Cube(size,
+                    defaultBeforeRotation(size, 0),
+                    defaultAfterRotation(size, 0),
+                    defaultBeforeShowing(0),
+                    defaultAfterShowing(0),
+                    new CubeOptions().fairness(fairness).maxPhaseLength(4)
+            );
+
+            ExecutorService pool = Executors.newFixedThreadPool(MAX_THREADS);
+            List<Callable<Object>> tasks = new ArrayList<>(NUM_OPERATIONS);
+            for (int i = 0; i < NUM_OPERATIONS; i++) {
+                if (i % 3 == 0) {
+                    tasks.add(Executors.callable(new ReaderTask(cube)));
+                } else {
+                    tasks.add(Executors.callable(WriterTask.fromRotation(Rotation.randomRotation(cube))));
+                }
+            }
+
+            try {
+                pool.invokeAll(tasks);
+                assertThat(cube.isLegal() && performedRotations + performedShows == NUM_OPERATIONS);
+            } catch (InterruptedException e) {
+                interruptCurrentThread();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Tests whether FIFO fairness admits writers in order of arrival,
+     * not letting a writer join the group of an earlier writer of its axis past a writer of another axis.
+     */
+    @Test
+    public void testFifoFairnessKeepsArrivalOrder() {
+        CountDownLatch readerInside = new CountDownLatch(1);
+        CountDownLatch releaseReader = new CountDownLatch(1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+        Cube cube = new Cube(3,
+                (side, layer) -> order.add(side),
+                null,
+                () -> {
+                    readerInside.countDown();
+                    try {
+                        releaseReader.await();
+                    } catch (InterruptedException e) {
+                        interruptCurrentThread();
+                    }
+                },
+                null,
+                new CubeOptions().fairness(CubeOptions.Fairness.FIFO));
+
+        Thread reader = new Thread(new ReaderTask(cube));
+        Thread[] writers = new Thread[] {
+                new Thread(new WriterTask(cube, Side.Top.intValue(), 0)),
+                new Thread(new WriterTask(cube, Side.Left.intValue(), 0)),
+                new Thread(new WriterTask(cube, Side.Top.intValue(), 1)),
+        };
+
+        try {
+            reader.start();
+            readerInside.await();
+            for (Thread t : writers) {
+                t.start();
+                sleep(50);
+            }
+            releaseReader.countDown();
+
+            reader.join();
+            for (Thread t : writers) {
+                t.join();
+            }
+            assertThat(order.equals(Arrays.asList(Side.Top.intValue(), Side.Left.intValue(), Side.Top.intValue())));
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        }
+    }
+
+    /**
+     * Tests whether the packed state decodes back to the state returned by `show`.
+     */
+    @Test
+    public void testShowPackedMatchesShow() throws InterruptedException {
+        for (int size = 1; size <= 7; size++) {
+            Cube cube = new Cube(size, null, null, null, null);
+            cube.shuffle();
+
+            byte[] packed = cube.showPacked();
+            assertThat(packed.length == PackedState.length(size)
+                    && PackedState.toDigits(packed, size).equals(cube.show()));
+        }
+    }
+
+    /**
+     * Tests whether every face read matches the corresponding part of `show`.
+     */
+    @Test
+    public void testShowFaceMatchesShow() throws InterruptedException {
+        int size = 5;
+        Cube cube = new Cube(size, null, null, null, null);
+        cube.shuffle();
+
+        String state = cube.show();
+        boolean allMatch = true;
+        for (int side = 0; side < Side.SIDES.intValue(); side++) {
+            allMatch &= cube.showFace(side).equals(state.substring(side * size * size, (side + 1) * size * size));
+        }
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether a face can be read while a middle layer of its axis is being rotated.
+     */
+    @Test
+    public void testShowFaceDuringMiddleLayerRotation() {
+        int size = 4;
+        CountDownLatch rotating = new CountDownLatch(1);
+        CountDownLatch faceRead = new CountDownLatch(1);
+        AtomicInteger timeouts = new AtomicInteger(0);
+
+        Cube cube = new Cube(size,
+                (side, layer) -> {
+                    rotating.countDown();
+                    try {
+                        if (!faceRead.await(5, TimeUnit.SECONDS)) {
+                            timeouts.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        interruptCurrentThread();
+                    }
+                },
+                null, null, null);
+
+        Thread writer = new Thread(new WriterTask(cube, Side.Top.intValue(), 1));
+        try {
+            writer.start();
+            rotating.await();
+            String top = cube.showFace(Side.Top.intValue());
+            String bottom = cube.showFace(Side.Bottom.intValue());
+            faceRead.countDown();
+            writer.join();
+
+            assertThat(timeouts.intValue() == 0
+                    && top.equals(new Cube(size, null, null, null, null).showFace(Side.Top.intValue()))
+                    && bottom.chars().allMatch(c -> c == Color.Yellow.charValue()));
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        }
+    }
+
+    /**
+     * Tests whether two reads of a face run together alongside a rotation of another layer of its axis.
+     */
+    @Test
+    public void testShowFaceReadsShareTheirPlane() {
+        int size = 4;
+        CountDownLatch rotating = new CountDownLatch(1);
+        CountDownLatch facesRead = new CountDownLatch(1);
+        CyclicBarrier together = new CyclicBarrier(2);
+        AtomicInteger timeouts = new AtomicInteger(0);
+
+        Cube cube = new Cube(size,
+                (side, layer) -> {
+                    rotating.countDown();
+                    try {
+                        if (!facesRead.await(5, TimeUnit.SECONDS)) {
+                            timeouts.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        interruptCurrentThread();
+                    }
+                },
+                null, null, null);
+
+        Thread writer = new Thread(new WriterTask(cube, Side.Top.intValue(), 1));
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            writer.start();
+            rotating.await();
+            List<Callable<String>> reads = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                reads.add(() -> cube.showFaceAs(Side.Top.intValue(), face -> {
+                    try {
+                        together.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                        timeouts.incrementAndGet();
+                    }
+                    return String.valueOf(face[0].charValue());
+                }));
+            }
+            for (Future<String> read : pool.invokeAll(reads)) {
+                assertThat(read.get().equals(String.valueOf(Color.White.charValue())));
+            }
+            facesRead.countDown();
+            writer.join();
+
+            assertThat(timeouts.intValue() == 0);
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        } catch (ExecutionException e) {
+            throw new AssertionError(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests whether face reads, running without the showing actions, never overlap the rotations
+     * that modify their face, while rotations and `show` keep the usual guarantees.
+     */
+    @Test
+    public void testShowFaceWithRotationsAndShowsConcurrent() {
+        int size = 6;
+        resetSyncVars(size);
+        Cube cube = new Cube(size,
+                defaultBeforeRotation(size, 0),
+                defaultAfterRotation(size, 0),
+                defaultBeforeShowing(0),
+                defaultAfterShowing(0)
+        );
+
+        final int NUM_ROTATIONS = 3000;
+        final int NUM_SHOWS = 500;
+        final int NUM_FACE_READS = 3000;
+        AtomicInteger collisions = new AtomicInteger(0);
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int i = 0; i < NUM_ROTATIONS; i++) {
+            tasks.add(Executors.callable(new WriterTask(cube, Side.randomSide().intValue(), rand.nextInt(size))));
+        }
+        for (int i = 0; i < NUM_SHOWS; i++) {
+            tasks.add(Executors.callable(new ReaderTask(cube)));
+        }
+        for (int i = 0; i < NUM_FACE_READS; i++) {
+            int side = Side.randomSide().intValue();
+            int axis = WorkingGroup.fromSide(Side.fromInt(side)).intValue();
+            int plane = Rotation.getPlane(size, side, 0);
+            tasks.add(() -> cube.showFaceAs(side, face -> {
+                lockSyncVars("showFaceAs");
+                if (rotationsOnPlane[plane] != 0
+                        || rotationsOnAxis[(axis + 1) % WorkingGroup.NUM_AXES.intValue()] != 0
+                        || rotationsOnAxis[(axis + 2) % WorkingGroup.NUM_AXES.intValue()] != 0) {
+                    collisions.incrementAndGet();
+                }
+                varProtection.release();
+                return null;
+            }));
+        }
+        Collections.shuffle(tasks, rand);
+
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_THREADS);
+        try {
+            for (Future<Object> task : pool.invokeAll(tasks)) {
+                task.get();
+            }
+            assertThat(collisions.intValue() == 0 && cube.isLegal()
+                    && performedRotations == NUM_ROTATIONS && performedShows == NUM_SHOWS);
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        } catch (ExecutionException e) {
+            throw new AssertionError(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests whether the state streamed by `showTo` is byte for byte the state returned by `show`,
+     * also for cubes bigger than the streaming buffer.
+     */
+    @Test
+    public void testShowToMatchesShow() throws Exception {
+        AtomicInteger shows = new AtomicInteger(0);
+        for (int size : new int[] { 1, 3, 40 }) {
+            Cube cube = new Cube(size, null, null, null, shows::incrementAndGet);
+            cube.shuffle();
+            String state = cube.show();
+
+            ByteArrayOutputStream fromChannel = new ByteArrayOutputStream();
+            cube.showTo(Channels.newChannel(fromChannel));
+            ByteArrayOutputStream fromStream = new ByteArrayOutputStream();
+            cube.showTo(fromStream);
+
+            assertThat(fromChannel.toString(StandardCharsets.US_ASCII.name()).equals(state)
+                    && fromStream.toString(StandardCharsets.US_ASCII.name()).equals(state));
+        }
+        assertThat(shows.intValue() == 9);
+    }
+
+    /**
+     * Tests whether a sparsely stored cube behaves as a dense one,
+     * and whether undoing its rotations leaves it solved and sparse.
+     */
+    @Test
+    public void testSparseStorageMatchesDense() throws InterruptedException {
+        int size = 100;
+        Cube sparse = new Cube(size, null, null, null, null,
+                new CubeOptions().storage(CubeOptions.Storage.SPARSE));
+        Cube dense = new Cube(size, null, null, null, null);
+
+        // at most 4 * size differences each, staying below the default threshold
+        final int NUM_ROTATIONS = 10;
+        int[][] rotations = new int[NUM_ROTATIONS][];
+        for (int i = 0; i < NUM_ROTATIONS; i++) {
+            int side = Side.randomSide().intValue();
+            int layer = rand.nextInt(size);
+            int quarterTurns = 1 + rand.nextInt(3);
+            rotations[i] = new int[] { side, layer, quarterTurns };
+            sparse.rotate(side, layer, quarterTurns);
+            dense.rotate(side, layer, quarterTurns);
+        }
+
+        boolean facesMatch = true;
+        for (int side = 0; side < Side.SIDES.intValue(); side++) {
+            facesMatch &= sparse.showFace(side).equals(dense.showFace(side));
+        }
+        assertThat(sparse.isSparse() && facesMatch && sparse.show().equals(dense.show())
+                && sparse.equals(dense) && dense.equals(sparse) && sparse.isLegal() && !sparse.isSolved());
+
+        for (int i = NUM_ROTATIONS - 1; i >= 0; i--) {
+            sparse.rotate(rotations[i][0], rotations[i][1], 4 - rotations[i][2]);
+        }
+        assertThat(sparse.isSparse() && sparse.isSolved()
+                && sparse.getSparseSquares().differences() == 0 && sparse.equals(new Cube(size, null, null, null, null)));
+    }
+
+    /**
+     * Tests whether a sparsely stored cube is streamed and packed row by row from its differences
+     * as a dense one is.
+     */
+    @Test
+    public void testSparseShowToMatchesDense() throws Exception {
+        int size = 37;
+        Cube sparse = new Cube(size, null, null, null, null,
+                new CubeOptions().storage(CubeOptions.Storage.SPARSE));
+        Cube dense = new Cube(size, null, null, null, null);
+        // every rotation adds at most 4 * size differences, so the cube stays below its threshold
+        for (int i = 0; i < 6; i++) {
+            int side = Side.randomSide().intValue();
+            int layer = rand.nextInt(size);
+            sparse.rotate(side, layer);
+            dense.rotate(side, layer);
+        }
+
+        String state = dense.show();
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        sparse.showTo(streamed);
+        assertThat(sparse.isSparse() && streamed.toString(StandardCharsets.US_ASCII.name()).equals(state)
+                && PackedState.toDigits(sparse.showPacked(), size).equals(state));
+    }
+
+    /**
+     * Tests whether a sparsely stored cube rotated concurrently switches to dense storage
+     * once it differs from the solved cube too much, without losing any rotation.
+     */
+    @Test
+    public void testSparseStorageSwitchesToDense() {
+        int size = 16;
+        Cube sparse = new Cube(size, null, null, null, null,
+                new CubeOptions().storage(CubeOptions.Storage.SPARSE).sparsityThreshold(0.05));
+        Cube dense = new Cube(size, null, null, null, null);
+
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_THREADS);
+        List<Callable<Object>> tasks = new ArrayList<>(size);
+        for (int layer = 0; layer < size; layer++) {
+            int l = layer;
+            tasks.add(() -> { sparse.rotate(Side.Left.intValue(), l); return null; });
+        }
+
+        try {
+            pool.invokeAll(tasks);
+            for (int layer = 0; layer < size; layer++) {
+                dense.rotate(Side.Left.intValue(), layer);
+            }
+            boolean matched = !sparse.isSparse() && sparse.equals(dense);
+            sparse.solve();
+            assertThat(matched && sparse.isSparse() && sparse.isSolved());
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests whether a cube with tiled storage behaves as a row-major one,
+     * for sizes within one tile, filling whole tiles and padded to whole tiles.
+     */
+    @Test
+    public void testTiledStorageMatchesRowMajor() throws Exception {
+        final int NUM_ROTATIONS = 300;
+        boolean allMatch = true;
+        for (int size : new int[] { 1, 5, 16, 37 }) {
+            Cube tiled = new Cube(size, null, null, null, null,
+                    new CubeOptions().storage(CubeOptions.Storage.TILED));
+            Cube rowMajor = new Cube(size, null, null, null, null);
+
+            for (int i = 0; i < NUM_ROTATIONS; i++) {
+                int side = Side.randomSide().intValue();
+                int from = rand.nextInt(size);
+                int to = from + rand.nextInt(size - from);
+                int quarterTurns = 1 + rand.nextInt(3);
+                tiled.rotateRange(side, from, to, quarterTurns);
+                rowMajor.rotateRange(side, from, to, quarterTurns);
+            }
+
+            Side side = Side.randomSide();
+            int row = rand.nextInt(size);
+            int col = rand.nextInt(size);
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            tiled.showTo(streamed);
+            allMatch &= tiled.show().equals(rowMajor.show()) && tiled.equals(rowMajor)
+                    && streamed.toString(StandardCharsets.US_ASCII.name()).equals(rowMajor.show())
+                    && PackedState.toDigits(tiled.showPacked(), size).equals(rowMajor.show())
+                    && tiled.showFace(side.intValue()).equals(rowMajor.showFace(side.intValue()))
+                    && tiled.getSquareColor(side, row, col) == rowMajor.getSquareColor(side, row, col)
+                    && tiled.isLegal();
+        }
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether small cubes, packed into bitboards, behave as cubes stored in arrays.
+     */
+    @Test
+    public void testBitboardMatchesArrays() throws InterruptedException {
+        final int NUM_ROTATIONS = 1000;
+        boolean allMatch = true;
+        for (int size = 1; size <= BitboardSquares.MAX_SIZE; size++) {
+            Cube packed = new Cube(size, null, null, null, null);
+            Cube arrays = new Cube(size, null, null, null, null,
+                    new CubeOptions().storage(CubeOptions.Storage.TILED));
+            allMatch &= packed.getBitboard() != null && arrays.getBitboard() == null;
+
+            for (int i = 0; i < NUM_ROTATIONS; i++) {
+                int side = Side.randomSide().intValue();
+                int from = rand.nextInt(size);
+                int to = from + rand.nextInt(size - from);
+                int quarterTurns = 1 + rand.nextInt(3);
+                packed.rotateRange(side, from, to, quarterTurns);
+                arrays.rotateRange(side, from, to, quarterTurns);
+                allMatch &= packed.isSolved() == arrays.isSolved();
+            }
+            allMatch &= packed.show().equals(arrays.show()) && packed.equals(arrays) && packed.isLegal();
+        }
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether rotations of one axis, running in parallel on the shared words of a bitboard,
+     * end up as the same rotations applied one by one (rotations of distinct planes of an axis commute).
+     */
+    @Test
+    public void testBitboardSameAxisRotationsConcurrent() {
+        final int NUM_THREADS = 8;
+        final int ROTATIONS_PER_THREAD = 20000;
+        int size = BitboardSquares.MAX_SIZE;
+        Cube packed = new Cube(size, null, null, null, null);
+        Cube arrays = new Cube(size, null, null, null, null,
+                new CubeOptions().storage(CubeOptions.Storage.TILED));
+        int[] sides = { Side.Left.intValue(), Side.Right.intValue() };
+
+        int[][][] moves = new int[NUM_THREADS][ROTATIONS_PER_THREAD][];
+        for (int[][] thread : moves) {
+            for (int i = 0; i < ROTATIONS_PER_THREAD; i++) {
+                thread[i] = new int[] { sides[rand.nextInt(2)], rand.nextInt(size), 1 + rand.nextInt(3) };
+            }
+        }
+
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int t = 0; t < NUM_THREADS; t++) {
+            int[][] thread = moves[t];
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int[] move : thread) {
+                        packed.rotateRange(move[0], move[1], move[1], move[2]);
+                    }
+                } catch (InterruptedException e) {
+                    interruptCurrentThread();
+                }
+            });
+            threads[t].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (int[][] thread : moves) {
+                for (int[] move : thread) {
+                    arrays.rotateRange(move[0], move[1], move[1], move[2]);
+                }
+            }
+            assertThat(packed.getBitboard() != null && packed.show().equals(arrays.show()) && packed.isLegal());
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        }
+    }
+
+    /**
+     * Tests whether rotations compiled at runtime behave as the generic ones,
+     * for all compiled sizes and the first size left to the generic loops.
+     */
+    @Test
+    public void testCompiledRotationsMatchGeneric() throws InterruptedException {
+        final int NUM_ROTATIONS = 500;
+        boolean allMatch = true;
+        for (int size = BitboardSquares.MAX_SIZE + 1; size <= 10; size++) {
+            Cube compiled = new Cube(size, null, null, null, null, new CubeOptions().compiledRotations(true));
+            Cube generic = new Cube(size, null, null, null, null);
+
+            for (int i = 0; i < NUM_ROTATIONS; i++) {
+                int side = Side.randomSide().intValue();
+                int from = rand.nextInt(size);
+                int to = from + rand.nextInt(size - from);
+                int quarterTurns = 1 + rand.nextInt(3);
+                compiled.rotateRange(side, from, to, quarterTurns);
+                generic.rotateRange(side, from, to, quarterTurns);
+            }
+            allMatch &= compiled.equals(generic);
+        }
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether a long sequence of rotations, composed into a permutation in parallel,
+     * leaves the cube as applying them one after another does - for every storage.
+     * Tests the sparse permutations of short sequences of inner layers too.
+     */
+    @Test
+    public void testComposedReplayMatchesSequential() {
+        final int NUM_ROTATIONS = 3000;
+        final int SHORT_SEQUENCE = 5;
+        boolean allMatch = true;
+        for (int size : new int[] { 1, 3, 5, 40 }) {
+            for (CubeOptions.Storage storage : CubeOptions.Storage.values()) {
+                Cube composed = new Cube(size, null, null, null, null, new CubeOptions().storage(storage));
+                Cube sequential = new Cube(size, null, null, null, null, new CubeOptions().storage(storage));
+                List<Rotation> rotations = new ArrayList<>();
+                for (int i = 0; i < NUM_ROTATIONS; i++) {
+                    /* The short sequence turns inner layers only - two face turns of a big cube make it dense */
+                    Rotation rotation = i < SHORT_SEQUENCE && size > 2
+                            ? Rotation.newRotation(composed, Side.randomSide(), 1 + rand.nextInt(size - 2))
+                            : Rotation.randomRotation(composed);
+                    rotations.add(rotation);
+                    Rotation.newRotation(sequential, rotation.getSide(), rotation.getLayer()).applyRotation();
+                }
+                composed.applySequenceOfRotations(rotations);
+                allMatch &= composed.equals(sequential);
+
+                CubePermutation permutation = CubePermutation.identity(size);
+                for (int i = 0; i < SHORT_SEQUENCE; i++) {
+                    permutation = permutation.then(CubePermutation.of(rotations.get(i)));
+                    rotations.get(i).applyRotation();
+                }
+                permutation.applyTo(sequential);
+                allMatch &= composed.equals(sequential) && (size < 40 || !permutation.isDense());
+            }
+        }
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether equal cubes hash equally whatever their storage, and whether
+     * hashes maintained by rotations match hashing the squares from scratch.
+     */
+    @Test
+    public void testHashesOfEqualCubes() {
+        final int NUM_ROTATIONS = 200;
+        boolean allMatch = true;
+        for (int size : new int[] { 1, 3, 5, 40 }) {
+            List<Cube> cubes = new ArrayList<>();
+            for (boolean incrementalHash : new boolean[] { false, true }) {
+                for (CubeOptions.Storage storage : CubeOptions.Storage.values()) {
+                    cubes.add(new Cube(size, null, null, null, null,
+                            new CubeOptions().storage(storage).incrementalHash(incrementalHash)));
+                }
+                cubes.add(new Cube(size, null, null, null, null,
+                        new CubeOptions().compiledRotations(true).incrementalHash(incrementalHash)));
+            }
+
+            Random random = new Random(size);
+            for (int i = 0; i < NUM_ROTATIONS; i++) {
+                Side side = Side.fromInt(random.nextInt(Side.SIDES.intValue()));
+                int layer = random.nextInt(size);
+                int quarterTurns = 1 + random.nextInt(3);
+                for (Cube cube : cubes) {
+                    Rotation.newRotation(cube, side, layer).applyRotation(quarterTurns);
+                }
+            }
+
+            for (Cube cube : cubes) {
+                allMatch &= cube.equals(cubes.get(0)) && cube.hashCode() == cubes.get(0).hashCode();
+                if (cube.getZobristHash() != null && !cube.isSparse() && cube.getBitboard() == null) {
+                    allMatch &= cube.getZobristHash().get() == ZobristHash.of(cube.getSquares());
+                }
+            }
+
+            Cube changed = cubes.get(cubes.size() - 1);
+            Color color = changed.getSquareColor(Side.Front, 0, 0);
+            changed.setSquareColor(Color.fromInt((color.intValue() + 1) % Color.COLORS.intValue()), Side.Front, 0, 0);
+            allMatch &= !changed.equals(cubes.get(0)) && changed.hashCode() != cubes.get(0).hashCode();
+        }
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether hashing and comparing cubes while they rotate leaves their hashes intact.
+     */
+    @Test
+    public void testHashesDuringRotationsConcurrent() {
+        final int NUM_ROTATIONS = 400;
+        final int size = 5;
+        Cube cube = new Cube(size, null, null, null, null, new CubeOptions().incrementalHash(true));
+        Cube other = new Cube(size, null, null, null, null, new CubeOptions().incrementalHash(true));
+
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_THREADS);
+        List<Callable<Object>> tasks = new ArrayList<>();
+        Random random = new Random(size);
+        for (int i = 0; i < NUM_ROTATIONS; i++) {
+            int side = random.nextInt(Side.SIDES.intValue());
+            int layer = random.nextInt(size);
+            tasks.add(() -> { cube.rotate(side, layer); return null; });
+            tasks.add(() -> cube.hashCode() + (cube.equals(other) ? 1 : 0));
+        }
+
+        try {
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+            assertThat(cube.getZobristHash().get() == ZobristHash.of(cube.getSquares()));
+        } catch (InterruptedException e) {
+            interruptCurrentThread();
+        } catch (ExecutionException e) {
+            assertThat(false);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests whether cubes counting their squares not in their faces' colors
+     * tell if they are solved, while rotations scramble and unscramble them,
+     * and whether cubes counting their squares of every color tell if they are legal.
+     */
+    @Test
+    public void testIsSolvedFromSquareCounts() {
+        final int NUM_ROTATIONS = 50;
+        boolean allMatch = true;
+        for (int size : new int[] { 1, 4, 30, 40 }) {
+            List<CubeOptions> options = new ArrayList<>();
+            for (CubeOptions.Storage storage : CubeOptions.Storage.values()) {
+                options.add(new CubeOptions().storage(storage).offColorCounts(true).colorCounts(true));
+            }
+            options.add(new CubeOptions().compiledRotations(true).offColorCounts(true).colorCounts(true));
+            // cubes that don't count compare their squares with the faces' colors
+            options.add(new CubeOptions());
+            options.add(new CubeOptions().storage(CubeOptions.Storage.TILED));
+            for (CubeOptions option : options) {
+                Cube cube = new Cube(size, null, null, null, null, option);
+                Cube solved = new Cube(size, null, null, null, null, new CubeOptions());
+                List<Rotation> rotations = new ArrayList<>();
+                for (int i = 0; i < NUM_ROTATIONS; i++) {
+                    rotations.add(Rotation.randomRotation(cube));
+                }
+                for (Rotation rotation : rotations) {
+                    rotation.applyRotation();
+                    allMatch &= cube.isSolved() == cube.equals(solved) && cube.isLegal();
+                }
+                Collections.reverse(rotations);
+                for (Rotation rotation : rotations) {
+                    rotation.applyRotation(3);
+                    allMatch &= cube.isSolved() == cube.equals(solved);
+                }
+                allMatch &= cube.isSolved();
+
+                cube.setSquareColor(Color.fromInt((Side.Left.intValue() + 1) % Color.COLORS.intValue()), Side.Left, 0, 0);
+                allMatch &= !cube.isSolved() && !cube.isLegal();
+                cube.setSquareColor(Color.fromInt(Side.Left.intValue()), Side.Left, 0, 0);
+                allMatch &= cube.isSolved() && cube.isLegal();
+            }
+        }
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether undoing and redoing rotations brings the cube back to its earlier states,
+     * and whether the history forgets the oldest rotations once it's full.
+     */
+    @Test
+    public void testUndoAndRedo() throws InterruptedException {
+        final int CAPACITY = 100;
+        final int NUM_ROTATIONS = 150;
+        Cube cube = new Cube(4, null, null, null, null, new CubeOptions().historyCapacity(CAPACITY));
+        Random random = new Random(48);
+        List<String> states = new ArrayList<>();
+        states.add(cube.toString());
+        for (int i = 0; i < NUM_ROTATIONS; i++) {
+            cube.rotate(random.nextInt(Side.SIDES.intValue()), random.nextInt(cube.getSize()), 1 + random.nextInt(3));
+            states.add(cube.toString());
+        }
+
+        boolean allMatch = cube.getHistory().footprint() == 4 * CAPACITY
+                && cube.getHistory().undoable() == CAPACITY;
+        allMatch &= cube.undo(30) == 30 && cube.toString().equals(states.get(NUM_ROTATIONS - 30));
+        allMatch &= cube.redo(10) == 10 && cube.toString().equals(states.get(NUM_ROTATIONS - 20));
+        allMatch &= cube.undo(1000) == CAPACITY - 20 && cube.toString().equals(states.get(NUM_ROTATIONS - CAPACITY));
+        allMatch &= cube.redo(1000) == CAPACITY && cube.toString().equals(states.get(NUM_ROTATIONS));
+
+        cube.undo(5);
+        cube.rotateRange(Side.Front.intValue(), 0, 1);
+        allMatch &= cube.getHistory().redoable() == 0 && cube.redo(1) == 0;
+        allMatch &= cube.undo(2) == 2 && cube.toString().equals(states.get(NUM_ROTATIONS - 5));
+
+        cube.solve();
+        allMatch &= cube.undo(1) == 0 && new Cube(4, null, null, null, null).undo(1) == 0;
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether the history keeps matching the cube while undoing and redoing threads,
+     * interrupted now and then, run alongside rotating ones - undoing everything afterwards solves the cube.
+     */
+    @Test
+    public void testUndoAndRedoConcurrent() throws InterruptedException {
+        final int NUM_ROTATORS = 4;
+        final int NUM_UNDOERS = 2;
+        final int NUM_OPERATIONS = 2000;
+        // yielding while rotating keeps undoers waiting for admission behind other rotations
+        Cube cube = new Cube(3, (side, layer) -> Thread.yield(), null, null, null,
+                new CubeOptions().historyCapacity(NUM_ROTATORS * NUM_OPERATIONS + 1));
+
+        List<Thread> rotators = new ArrayList<>();
+        for (int t = 0; t < NUM_ROTATORS; t++) {
+            rotators.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < NUM_OPERATIONS; i++) {
+                        cube.rotate(Side.randomSide().intValue(), rand.nextInt(cube.getSize()), 1 + rand.nextInt(3));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        List<Thread> undoers = new ArrayList<>();
+        for (int t = 0; t < NUM_UNDOERS; t++) {
+            undoers.add(new Thread(() -> {
+                for (int i = 0; i < NUM_OPERATIONS; i++) {
+                    try {
+                        if (rand.nextBoolean()) {
+                            cube.undo(1 + rand.nextInt(5));
+                        }
+                        else {
+                            cube.redo(1 + rand.nextInt(5));
+                        }
+                    } catch (InterruptedException e) {
+                        // the history stays as the cube is, carry on
+                    }
+                }
+            }));
+        }
+        for (Thread t : rotators) {
+            t.start();
+        }
+        while (cube.getHistory().undoable() < NUM_OPERATIONS / 10) {
+            Thread.yield();
+        }
+        for (Thread t : undoers) {
+            t.start();
+        }
+        while (undoers.stream().anyMatch(Thread::isAlive)) {
+            undoers.get(rand.nextInt(NUM_UNDOERS)).interrupt();
+            Thread.sleep(5);
+        }
+        for (Thread t : rotators) {
+            t.join();
+        }
+        for (Thread t : undoers) {
+            t.join();
+        }
+
+        cube.undo(Integer.MAX_VALUE);
+        assertThat(cube.getHistory().undoable() == 0
+                && cube.toString().equals(new Cube(3, null, null, null, null).toString()));
+    }
+
+    /**
+     * Tests whether readers only observe states between whole transactions,
+     * and whether a transaction performs the actions of every rotation and counts as one write.
+     */
+    @Test
+    public void testTransactionsAreAtomic() throws InterruptedException {
+        final int NUM_TRANSACTIONS = 600;
+        final int NUM_READERS = 3;
+        AtomicInteger performedRotations = new AtomicInteger();
+        Cube cube = new Cube(3, (side, layer) -> performedRotations.incrementAndGet(), null, null, null);
+        Cube expected = new Cube(3, null, null, null, null);
+
+        // R U R' U' - six repetitions bring the cube back to the solved state
+        RotationBatch sexyMove = new RotationBatch();
+        sexyMove.add(Side.Right.intValue(), 0, 1);
+        sexyMove.add(Side.Top.intValue(), 0, 1);
+        sexyMove.add(Side.Right.intValue(), 0, 3);
+        sexyMove.add(Side.Top.intValue(), 0, 3);
+        Set<String> states = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            states.add(expected.show());
+            expected.rotate(sexyMove);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_READERS + 1);
+        AtomicInteger invalidShows = new AtomicInteger();
+        List<Callable<Object>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            for (int i = 0; i < NUM_TRANSACTIONS; i++) {
+                cube.transaction(sexyMove);
+            }
+            return null;
+        });
+        for (int i = 0; i < NUM_READERS; i++) {
+            tasks.add(() -> {
+                for (int j = 0; j < NUM_TRANSACTIONS; j++) {
+                    if (!states.contains(cube.show())) {
+                        invalidShows.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Object> done : pool.invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (ExecutionException e) {
+            throw new AssertionError(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(invalidShows.get() == 0 && cube.isSolved()
+                && performedRotations.get() == 8 * NUM_TRANSACTIONS
+                && cube.getVersion() == NUM_TRANSACTIONS);
+    }
+
+    /**
+     * Tests whether past versions of a cube are shown as they were, only the retained ones,
+     * and whether the latest version matches the cube after concurrent writers are done.
+     */
+    @Test
+    public void testShowPastVersions() throws InterruptedException {
+        final int RETENTION = 50;
+        final int INTERVAL = 8;
+        final int NUM_WRITES = 200;
+        Cube cube = new Cube(4, null, null, null, null,
+                new CubeOptions().versionRetention(RETENTION).snapshotInterval(INTERVAL));
+        Random random = new Random(50);
+        Map<Long, String> shown = new HashMap<>();
+        shown.put(cube.getVersion(), cube.show());
+        for (int i = 0; i < NUM_WRITES; i++) {
+            int side = random.nextInt(Side.SIDES.intValue());
+            int layer = random.nextInt(cube.getSize());
+            switch (i % 3) {
+                case 0 :
+                    cube.rotate(side, layer, 1 + random.nextInt(3));
+                    break;
+                case 1 :
+                    cube.rotateRange(side, 0, layer);
+                    break;
+                default :
+                    RotationBatch batch = new RotationBatch();
+                    batch.add(side, layer);
+                    batch.add(random.nextInt(Side.SIDES.intValue()), layer, 2);
+                    cube.transaction(batch);
+                    break;
+            }
+            shown.put(cube.getVersion(), cube.show());
+        }
+
+        long[] versions = cube.versions();
+        boolean allMatch = versions.length >= RETENTION && versions.length <= RETENTION + INTERVAL
+                && versions[versions.length - 1] == cube.getVersion()
+                && cube.getVersionHistory().footprint() > 0;
+        for (long version : versions) {
+            allMatch &= cube.show(version).equals(shown.get(version));
+        }
+        try {
+            cube.show(versions[0] - 1);
+            allMatch = false;
+        } catch (IllegalArgumentException e) {
+            // dropped
+        }
+
+        final int NUM_WRITERS = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_WRITERS + 1);
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int i = 0; i < NUM_WRITERS; i++) {
+            tasks.add(Executors.callable(() -> {
+                try {
+                    for (int j = 0; j < NUM_WRITES; j++) {
+                        cube.rotate(ThreadLocalRandom.current().nextInt(Side.SIDES.intValue()),
+                                ThreadLocalRandom.current().nextInt(cube.getSize()));
+                    }
+                } catch (InterruptedException e) {
+                    interruptCurrentThread();
+                }
+            }));
+        }
+        tasks.add(Executors.callable(() -> {
+            for (int j = 0; j < NUM_WRITES; j++) {
+                try {
+                    cube.show(cube.getVersion());
+                } catch (IllegalArgumentException e) {
+                    // not appended yet, or dropped meanwhile
+                }
+            }
+        }));
+        try {
+            pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        allMatch &= cube.getVersion() == versions[versions.length - 1] + NUM_WRITERS * NUM_WRITES
+                && cube.show(cube.getVersion()).equals(cube.show());
+        assertThat(allMatch);
+    }
+
+    /**
+     * Tests whether a monitored cube's MBean reports performed operations.
+     */
+    @Test
+    public void testMBeanCountsOperations() throws Exception {
+        Cube cube = new Cube(3, null, null, null, null,
+                new CubeOptions().mbeanName("testMBeanCountsOperations"));
+        ObjectName name = new ObjectName("concurrentcube:name=testMBeanCountsOperations");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            cube.rotate(Side.Right.intValue(), 0);
+            cube.rotate(Side.Top.intValue(), 0, 2);
+            cube.rotateRange(Side.Front.intValue(), 0, 2);
+            cube.show();
+
+            assertThat((Long) server.getAttribute(name, "Rotations") == 6
+                    && (Long) server.getAttribute(name, "Shows") == 1
+                    && (Integer) server.getAttribute(name, "ActiveWriters") == 0
+                    && server.getAttribute(name, "Owner").equals("None"));
+        } finally {
+            cube.unregisterMBean();
+        }
+        assertThat(!server.isRegistered(name));
+    }
 
     /**
      * This compares whether concurrency boosts speed.
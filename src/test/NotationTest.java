@@ -0,0 +1,233 @@
+package test;
+
+import org.junit.Test;
+
+import concurrentcube.Cube;
+import concurrentcube.CubePermutation;
+import concurrentcube.Side;
+import concurrentcube.Notation.MoveExecutor;
+import concurrentcube.Notation.MoveParser;
+import concurrentcube.Notation.MoveSequence;
+import concurrentcube.Notation.ParallelMoveExecutor;
+
+import static test.Utils.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* This class uses JUnit 5 */
+public class NotationTest {
+
+    private static Cube newCube(int size) {
+        return new Cube(size, null, null, null, null);
+    }
+
+    private static List<String> parse(int size, String moves) {
+        List<String> parsed = new ArrayList<>();
+        MoveParser parser = new MoveParser(size, (side, from, to, turns) ->
+                parsed.add(side + " " + from + "-" + to + " x" + turns));
+        parser.feed(moves);
+        parser.finish();
+        return parsed;
+    }
+
+    @Test
+    public void testParsesFacePrimeAndDoubleMoves() {
+        assertThat(parse(3, "R U2 F' D2' L3 B4").equals(List.of(
+                "Right 0-0 x1", "Top 0-0 x2", "Front 0-0 x3", "Bottom 0-0 x2", "Left 0-0 x3")));
+        assertThat(parse(3, "RUR'U'").equals(parse(3, "R U R' U'")));
+    }
+
+    @Test
+    public void testParsesWideSliceAndPrefixedMoves() {
+        assertThat(parse(7, "Rw r' 3Rw 3r2 3R 2-4Rw M E' S2 x y' z").equals(List.of(
+                "Right 0-1 x1", "Right 0-1 x3", "Right 0-2 x1", "Right 0-2 x2", "Right 2-2 x1",
+                "Right 1-3 x1", "Left 1-5 x1", "Bottom 1-5 x3", "Front 1-5 x2",
+                "Right 0-6 x1", "Top 0-6 x3", "Front 0-6 x1")));
+    }
+
+    @Test
+    public void testRejectsInvalidNotation() {
+        for (String moves : new String[] { "Q", "R''", "4R", "2-R", "3", "Mw", "R w" }) {
+            boolean rejected = false;
+            try {
+                parse(3, moves);
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            assertThat(rejected);
+        }
+    }
+
+    /**
+     * Tests a popular algorithm with cycle of length 6, read from a channel in a single chunk.
+     */
+    @Test
+    public void testSexyMoveCycleFromChannel() throws Exception {
+        Cube cube = newCube(3);
+        String moves = "R U R' U' ".repeat(6);
+        MoveExecutor executor = new MoveExecutor(cube);
+        long executed = executor.execute(Channels.newChannel(
+                new ByteArrayInputStream(moves.getBytes(StandardCharsets.US_ASCII))));
+        assertThat(executed == 24 && cube.isSolved());
+    }
+
+    /**
+     * Tests whether the moves of a chunk dropped for invalid input are not counted as executed.
+     */
+    @Test
+    public void testDroppedChunkIsNotCounted() throws Exception {
+        Cube cube = newCube(3);
+        MoveExecutor executor = new MoveExecutor(cube);
+        String valid = "R U R' U' F ".repeat(2000);
+        boolean rejected = false;
+        try {
+            executor.execute(valid + "Q");
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+
+        String[] moves = valid.trim().split(" ");
+        long executed = executor.getExecutedMoves();
+        Cube expected = newCube(3);
+        new MoveExecutor(expected).execute(String.join(" ", List.of(moves).subList(0, (int) executed)));
+        assertThat(rejected && executed > 0 && executed < moves.length && cube.equals(expected));
+    }
+
+    /**
+     * Tests whether executed moves are equivalent to the corresponding calls to `rotate`.
+     */
+    @Test
+    public void testExecutedMovesMatchRotations() throws Exception {
+        Cube parsed = newCube(5);
+        Cube rotated = newCube(5);
+
+        new MoveExecutor(parsed).execute(new StringReader("F 2L' u2 M"));
+
+        rotated.rotate(Side.Front.intValue(), 0);
+        for (int i = 0; i < 3; i++) {
+            rotated.rotate(Side.Left.intValue(), 1);
+        }
+        for (int i = 0; i < 2; i++) {
+            rotated.rotate(Side.Top.intValue(), 0);
+            rotated.rotate(Side.Top.intValue(), 1);
+        }
+        for (int layer = 1; layer <= 3; layer++) {
+            rotated.rotate(Side.Left.intValue(), layer);
+        }
+
+        assertThat(parsed.equals(rotated));
+    }
+
+    /**
+     * Tests the orders of well-known algorithms, and whether that many repetitions bring the cube back.
+     */
+    @Test
+    public void testOrdersOfAlgorithms() {
+        CubePermutation sexyMove = MoveSequence.parse(3, "R U R' U'").toPermutation();
+        CubePermutation ru = MoveSequence.parse(3, "R U").toPermutation();
+        CubePermutation r = MoveSequence.parse(3, "R").toPermutation();
+
+        int rCycleLengths = 0;
+        for (int[] cycle : r.cycles()) {
+            rCycleLengths += cycle.length;
+        }
+        assertThat(sexyMove.order().equals(BigInteger.valueOf(6)) && ru.order().equals(BigInteger.valueOf(105))
+                && r.cycles().size() == 5 && rCycleLengths == 20
+                && ru.power(105).isIdentity() && !ru.power(35).isIdentity()
+                && ru.power(1_000_000_000L).equals(ru.power(1_000_000_000L % 105)));
+    }
+
+    /**
+     * Tests whether a power of an algorithm's permutation moves the squares as repeating the algorithm does,
+     * and whether inverses undo it.
+     */
+    @Test
+    public void testPowersAndInversesMatchExecutedMoves() throws Exception {
+        final int REPETITIONS = 7;
+        for (int size : new int[] { 3, 5, 60 }) {
+            String algorithm = "F 2L' u2 R U' 2B";
+            MoveSequence sequence = MoveSequence.parse(size, algorithm);
+            CubePermutation permutation = sequence.toPermutation();
+
+            Cube executed = newCube(size);
+            new MoveExecutor(executed).execute(algorithm.repeat(REPETITIONS));
+            Cube permuted = newCube(size);
+            permutation.power(REPETITIONS).applyTo(permuted);
+
+            assertThat(permuted.equals(executed)
+                    && permutation.then(permutation.inverse()).isIdentity()
+                    && sequence.inverse().toPermutation().equals(permutation.inverse())
+                    && permutation.power(-REPETITIONS).equals(permutation.inverse().power(REPETITIONS)));
+        }
+        // inner layers of a big cube move few of its squares
+        assertThat(!MoveSequence.parse(60, "2L' 3R 2B").toPermutation().isDense());
+    }
+
+    /**
+     * Tests whether moves executed by several threads leave the cube as sequential execution does.
+     */
+    @Test
+    public void testParallelExecutionMatchesSequential() throws Exception {
+        final int NUM_MOVES = 2000;
+        final int NUM_WORKERS = 4;
+        Random rand = new Random();
+        for (int size : new int[] { 1, 3, 6 }) {
+            StringBuilder moves = new StringBuilder();
+            String[] letters = { "R", "L", "M", "U", "D", "F" };
+            for (int i = 0; i < NUM_MOVES; i++) {
+                // long runs around the x axis, broken by an occasional move around another one
+                String letter = rand.nextInt(8) == 0 ? letters[3 + rand.nextInt(3)] : letters[rand.nextInt(3)];
+                if (letter.equals("M") && size < 3) {
+                    continue;
+                }
+                int layer = 1 + rand.nextInt(size);
+                moves.append(layer > 1 && !letter.equals("M") ? layer + letter : letter).append(' ');
+            }
+
+            Cube parallel = newCube(size);
+            Cube sequential = newCube(size);
+            try (ParallelMoveExecutor executor = new ParallelMoveExecutor(parallel, NUM_WORKERS)) {
+                executor.execute(moves);
+            }
+            new MoveExecutor(sequential).execute(moves);
+            assertThat(parallel.equals(sequential));
+        }
+    }
+
+    /**
+     * Tests whether moves of different planes around one axis are rotated at the same time.
+     */
+    @Test
+    public void testParallelExecutionOverlapsCommutingMoves() throws Exception {
+        final int NUM_WORKERS = 4;
+        AtomicInteger rotating = new AtomicInteger();
+        AtomicInteger maxRotating = new AtomicInteger();
+        Cube cube = new Cube(6,
+                (side, layer) -> {
+                    maxRotating.accumulateAndGet(rotating.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                (side, layer) -> rotating.decrementAndGet(),
+                null, null);
+
+        try (ParallelMoveExecutor executor = new ParallelMoveExecutor(cube, NUM_WORKERS)) {
+            executor.execute("R 2R 3R L U");
+        }
+        Cube sequential = newCube(6);
+        new MoveExecutor(sequential).execute("R 2R 3R L U");
+        assertThat(maxRotating.get() > 1 && cube.equals(sequential));
+    }
+
+}